@@ -0,0 +1,84 @@
+package Version7;
+
+/* This class lets a TetrisBot play a game: the one in the panel, or one side of a versus match. It
+ * runs one thread that reads the latest GameSnapshot, searches it, and then plays the planned actions
+ * one at a time through the game, as if they were key presses, with a short pause between them so
+ * the moves can be watched. If a piece locks while the plan is being played, e.g. because it locked
+ * on its own, the rest of the plan is dropped. The bot then waits for the game loop to spawn the next
+ * piece and plans again. */
+
+public class BotPlayer implements Runnable {
+
+	public interface Game	//A game the bot can play: its latest state, and a way to press keys
+	{
+		GameSnapshot getSnapshot();
+		void act(int action);	//Presses and lets go of the key for an action
+	}
+
+	private final Game target;	//Game the state is read from and the actions are played through
+	private final TetrisBot bot;
+	private final int moveDelay;	//Milliseconds between two actions
+	private volatile boolean running;	//Cleared by stop()
+	private Thread thread;
+
+	public BotPlayer(Game target, TetrisBot bot, int moveDelay)	//Creates a player, start() sets it going
+	{
+		this.target = target;
+		this.bot = bot;
+		this.moveDelay = moveDelay;
+	}
+
+	public void start()	//Starts the bot thread
+	{
+		running = true;
+		thread = new Thread(this, "Tetris bot");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	public void stop()	//Stops the bot thread after its current action
+	{
+		running = false;
+		Thread th = thread;
+		if (th != null)
+			th.interrupt();
+	}
+
+	public boolean isRunning()
+	{
+		return running;
+	}
+
+	public void run()
+	{
+		try
+		{
+			while (running)
+			{
+				GameSnapshot game = target.getSnapshot();
+				if (game.isLost())
+					break;
+				long locked = game.getPiecesLocked();
+				int[] plan = bot.plan(bot.capture(game));
+				for (int i = 0; i < plan.length && running; i++)
+				{
+					if (target.getSnapshot().getPiecesLocked() != locked)	//The piece locked before the plan finished
+						break;
+					target.act(plan[i]);
+					Thread.sleep(moveDelay);
+				}
+				while (running)	//Wait for the game loop to lock the piece and spawn the next one
+				{
+					game = target.getSnapshot();
+					if (game.getPiecesLocked() != locked || game.isLost())
+						break;
+					Thread.sleep(1);
+				}
+			}
+		}
+		catch (InterruptedException e)
+		{
+		}
+		running = false;
+	}
+}
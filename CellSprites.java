@@ -0,0 +1,116 @@
+package Version7;
+
+import java.awt.*;
+import java.awt.image.*;
+
+/* This class holds the colours of the squares and a cache of pre-drawn square images for one square
+ * size. A filled square is drawn with a white outline one pixel wider than the square, so the outline
+ * of a filled square spills into the first column and row of the squares to its right and below. Each
+ * image already contains the outline pixels that land inside it from its left, top and top-left
+ * neighbours, so drawing a square is a single drawImage and the result is the same as filling every
+ * square and then outlining the filled ones. Images are VolatileImages made for the screen when there
+ * is one, and are only drawn again when the square size changes or the screen loses them. */
+
+public class CellSprites {
+
+	public static final int GHOST = 8;	//Colour code of the ghost, after the seven piece colours
+	public static final int GARBAGE = Tetris.GARBAGE;	//Colour code of garbage rows sent by the other player in versus
+
+	public static final int LEFT = 1;	//Neighbour flags, set when that neighbour is a filled square
+	public static final int TOP = 2;
+	public static final int TOP_LEFT = 4;
+
+	private static final Color[] palette = {	//Colour of each code, 0 is an empty square
+		Color.BLACK, Color.CYAN, Color.BLUE, new Color(16737792), Color.YELLOW,
+		Color.GREEN, Color.MAGENTA, Color.RED, Color.LIGHT_GRAY, Color.DARK_GRAY
+	};
+
+	private final GraphicsConfiguration gc;	//Screen the images are made for, null when there is no screen
+	private final Image[] sprites = new Image[palette.length * 8];	//One image for each colour and set of neighbour flags
+	private int size = -1;	//Square size the images were drawn at
+
+	public CellSprites()
+	{
+		if (GraphicsEnvironment.isHeadless())
+			gc = null;
+		else
+			gc = GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice().getDefaultConfiguration();
+	}
+
+	public static Color colour(int code)	//Gets the shared colour of a code
+	{
+		return palette[code];
+	}
+
+	public static boolean isFilled(int code)	//Piece and garbage colours get an outline, empty squares and the ghost do not
+	{
+		return code > 0 && code != GHOST;
+	}
+
+	public void prepare(int newSize)	//Call once before drawing a frame: redraws the images if the size changed or the screen lost them
+	{
+		if (newSize != size)
+		{
+			for (int i = 0; i < sprites.length; i++)
+			{
+				if (sprites[i] != null)
+					sprites[i].flush();
+				sprites[i] = null;
+			}
+			size = newSize;
+		}
+		if (size <= 0)
+			return;
+		for (int i = 0; i < sprites.length; i++)
+		{
+			if (sprites[i] == null)
+			{
+				sprites[i] = create();
+				paint(sprites[i], i);
+			}
+			else if (sprites[i] instanceof VolatileImage)
+			{
+				VolatileImage vi = (VolatileImage) sprites[i];
+				int state = vi.validate(gc);
+				if (state == VolatileImage.IMAGE_INCOMPATIBLE)
+				{
+					vi.flush();
+					sprites[i] = create();
+					paint(sprites[i], i);
+				}
+				else if (state == VolatileImage.IMAGE_RESTORED)
+					paint(vi, i);
+			}
+		}
+	}
+
+	public void drawCell(Graphics g, int code, int neighbours, int x, int y)	//Draws one square with a single blit
+	{
+		g.drawImage(sprites[code*8 + neighbours], x, y, null);
+	}
+
+	private Image create()
+	{
+		if (gc == null)
+			return new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB);
+		return gc.createCompatibleVolatileImage(size, size);
+	}
+
+	private void paint(Image image, int index)	//Draws the square and the outline pixels that land inside it
+	{
+		int code = index / 8;
+		int neighbours = index % 8;
+		boolean filled = isFilled(code);
+		Graphics g = image.getGraphics();
+		g.setColor(palette[code]);
+		g.fillRect(0, 0, size, size);
+		g.setColor(Color.WHITE);
+		if (filled || (neighbours & LEFT) != 0)	//Left edge, its own outline or the right edge of the square to the left
+			g.drawLine(0, 0, 0, size - 1);
+		if (filled || (neighbours & TOP) != 0)	//Top edge, its own outline or the bottom edge of the square above
+			g.drawLine(0, 0, size - 1, 0);	//The right and bottom edges of its own outline fall in the next squares
+		if (neighbours != 0)	//The corner of the square up and to the left
+			g.drawLine(0, 0, 0, 0);
+		g.dispose();
+	}
+}
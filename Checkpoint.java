@@ -0,0 +1,236 @@
+package Version7;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+
+/* This class encodes a whole game as a fixed-width record, for saving a game to resume later and for
+ * files of millions of positions that CheckpointWriter and CheckpointReader map into memory. A saved
+ * game is a file of one record, read and written with plain file reads and writes, so no mapping is
+ * left open on a file the player saves over again. Every record of a board size is the same size, so
+ * record n of a file is at HEADER + n*recordSize and can be read without reading the ones before it. A
+ * record holds what TetrisEngine.saveState and Tetris.save keep for a rewind: the counters, the
+ * falling piece, hold, and the piece sequence as its seed and pieces dealt, which is all of the bag
+ * and random number state. Settings such as lock delay are not in it. All numbers are big-endian.
+ *
+ * File layout: the magic "TCKP", the version as a short, the board width as a short, the height as an
+ * int and the record size as an int, then the records. A record is:
+ *
+ *   0	long	game time
+ *   8	long	gravityStart, 16 gravitySteps: when gravity was last reset and the rows it has moved since
+ *   24	long	pieces locked
+ *   32	long	lock resets this game
+ *   40	long	seed, 48 pieces dealt
+ *   56	int	pieces dropped, 60 int held type (-1 for none)
+ *   64	int	garbage rows waiting, 68 garbage rows sent and not yet taken
+ *   72	int	garbage rows added, 76 rows cleared by the last step
+ *   80	long	bit 0 hold used for this piece, bit 1 game lost
+ *   88	byte	PieceTable index of the falling piece (its type and rotation), 89 bit 0 final lock, 90 short its lock resets, 92 int its id
+ *   96	int	row, 100 int column of the falling piece
+ *   104	long	its lock deadline
+ *   112	int	level, 116 int rows cleared since the last level up
+ *   120	the rows, top row first, (width + 1)/2 bytes a row, two squares a byte with the left one in the low four bits
+ *
+ * then zeros up to a multiple of eight bytes. The default board takes 232 bytes a record. */
+
+public final class Checkpoint {
+
+	public static final int MAGIC = 0x54434B50;	//"TCKP"
+	public static final int VERSION = 1;
+	public static final int HEADER = 16;	//Bytes before the first record
+	public static final int MAX_HEIGHT = 1 << 16;	//Tallest board a file can hold, so a damaged header can't make the reader allocate gigabytes
+	static final int LEVEL = TetrisEngine.STATE*8;	//Offsets in a record past the engine state
+	static final int ROWS_CLEARED = LEVEL + 4;
+	static final int BOARD = ROWS_CLEARED + 4;
+
+	private final int width, height;
+	private final int rowBytes, recordSize;
+	private final long[] state = new long[TetrisEngine.STATE];	//Reused for every record
+	private final int[][] chunks;	//Rows read from a record, reused for every record: restore copies them straight into the board
+	private final int[][] view;	//The chunks of one record, null for the empty ones
+
+	public Checkpoint(int width, int height)	//Encodes games on a board of a size
+	{
+		if (height > MAX_HEIGHT)
+			throw new IllegalArgumentException("Boards taller than " + MAX_HEIGHT + " rows can't be saved");
+		this.width = width;
+		this.height = height;
+		rowBytes = (width + 1)/2;
+		recordSize = recordSize(width, height);
+		int count = (height + Tetris.CHUNK - 1)/Tetris.CHUNK;
+		chunks = new int[count][Tetris.CHUNK*width];
+		view = new int[count][];
+	}
+
+	public static int recordSize(int width, int height)	//Bytes in a record of a board size
+	{
+		return (BOARD + height*((width + 1)/2) + 7) & ~7;
+	}
+
+	public int getRecordSize()
+	{
+		return recordSize;
+	}
+
+	public int getWidth()
+	{
+		return width;
+	}
+
+	public int getHeight()
+	{
+		return height;
+	}
+
+	public void write(TetrisEngine engine, ByteBuffer out, int at)	//Encodes a game into a record at a position in a buffer, the board has to be this size
+	{
+		Tetris tetris = engine.getTetris();
+		if (tetris.getWidth() != width || tetris.getHeight() != height)
+			throw new IllegalArgumentException("Board is " + tetris.getWidth() + "x" + tetris.getHeight() + ", not " + width + "x" + height);
+		engine.saveState(state, 0);
+		for (int i = 0; i < state.length; i++)
+			out.putLong(at + i*8, state[i]);
+		out.putInt(at + LEVEL, tetris.getLevel());
+		out.putInt(at + ROWS_CLEARED, tetris.getRowsCleared());
+		int top = Math.min(tetris.getStackTop(), height);
+		int p = at + BOARD;
+		for (int r = 0; r < height; r++)
+			for (int c = 0; c < width; c += 2)
+			{
+				int pair = 0;
+				if (r >= top)
+					pair = tetris.getCell(r, c) | (c + 1 < width ? tetris.getCell(r, c + 1) << 4 : 0);
+				out.put(p++, (byte) pair);
+			}
+		while (p < at + recordSize)
+			out.put(p++, (byte) 0);
+	}
+
+	public void read(ByteBuffer in, int at, TetrisEngine engine)	//Makes an engine the game in a record at a position in a buffer, settings aside. Leaves the engine alone if the record can't be a game
+	{
+		for (int i = 0; i < state.length; i++)
+			state[i] = in.getLong(at + i*8);
+		check(in, at);
+		for (int k = 0; k < chunks.length; k++)
+		{
+			int[] chunk = chunks[k];
+			boolean empty = true;
+			int first = k*Tetris.CHUNK, last = Math.min(first + Tetris.CHUNK, height);
+			for (int r = first; r < last; r++)
+			{
+				int p = at + BOARD + r*rowBytes;
+				int to = (r - first)*width;
+				for (int c = 0; c < width; c += 2)
+				{
+					int pair = in.get(p++);
+					if (pair != 0)
+						empty = false;
+					chunk[to + c] = pair & 0xF;
+					if (c + 1 < width)
+						chunk[to + c + 1] = (pair >> 4) & 0xF;
+					if ((pair & 0xF) > Tetris.GARBAGE || ((pair >> 4) & 0xF) > Tetris.GARBAGE)
+						throw new IllegalArgumentException("Not a game: colour out of range in row " + r);
+				}
+			}
+			view[k] = empty ? null : chunk;
+		}
+		engine.restoreState(state, 0, new Tetris.Rows(width, height, view, in.getInt(at + LEVEL), in.getInt(at + ROWS_CLEARED)));
+	}
+
+	private void check(ByteBuffer in, int at)	//Throws if the numbers in a record can't be a game, so read() never puts one into an engine
+	{
+		int piece = in.get(at + TetrisEngine.STATE_PIECE*8) & 0xFF;
+		if (piece < PieceTable.ROTATIONS || piece >= (PieceTable.TYPES + 1)*PieceTable.ROTATIONS)
+			throw new IllegalArgumentException("Not a game: piece " + piece);
+		int row = in.getInt(at + TetrisEngine.STATE_PIECE*8 + 8), col = in.getInt(at + TetrisEngine.STATE_PIECE*8 + 12);
+		if (row + PieceTable.minRow(piece) < 0 || row + PieceTable.maxRow(piece) >= height
+				|| col + PieceTable.minCol(piece) < 0 || col + PieceTable.maxCol(piece) >= width)
+			throw new IllegalArgumentException("Not a game: piece at row " + row + ", column " + col + " is off the board");
+		int held = in.getInt(at + TetrisEngine.STATE_HELD*8 + 4);
+		if (held != -1 && (held < 1 || held > PieceTable.TYPES))
+			throw new IllegalArgumentException("Not a game: held " + held);
+		int level = in.getInt(at + LEVEL);
+		if (level < 0 || level >= TetrisEngine.GRAVITY_SPEEDS.length)
+			throw new IllegalArgumentException("Not a game: level " + level);
+		for (int i = 0; i < TetrisEngine.STATE_HELD; i++)	//Times and counts, the seed aside
+			if (i != TetrisEngine.STATE_SEED && in.getLong(at + i*8) < 0)
+				throw new IllegalArgumentException("Not a game: negative count at " + i*8);
+		for (int field = TetrisEngine.STATE_HELD*8; field < TetrisEngine.STATE_FLAGS*8; field += 4)	//Pieces dropped and the garbage and row counts, the held type aside
+			if (field != TetrisEngine.STATE_HELD*8 + 4 && in.getInt(at + field) < 0)
+				throw new IllegalArgumentException("Not a game: negative count at " + field);
+		if (in.getInt(at + ROWS_CLEARED) < 0)
+			throw new IllegalArgumentException("Not a game: negative rows cleared");
+	}
+
+	void writeHeader(ByteBuffer out)	//Writes the file header at the start of a buffer
+	{
+		out.putInt(0, MAGIC);
+		out.putShort(4, (short) VERSION);
+		out.putShort(6, (short) width);
+		out.putInt(8, height);
+		out.putInt(12, recordSize);
+	}
+
+	static Checkpoint readHeader(ByteBuffer in) throws IOException	//Checks a file header at the start of a buffer, returns the codec for its board size
+	{
+		if (in.limit() < HEADER || in.getInt(0) != MAGIC)
+			throw new IOException("Not a checkpoint file");
+		int version = in.getShort(4);
+		if (version != VERSION)
+			throw new IOException("Unsupported checkpoint version " + version);
+		int width = in.getShort(6), height = in.getInt(8);
+		if (width < Tetris.MIN_WIDTH || width > Tetris.MAX_WIDTH || height < Tetris.MIN_HEIGHT || height > MAX_HEIGHT)
+			throw new IOException("Bad board size " + width + "x" + height);
+		Checkpoint codec = new Checkpoint(width, height);
+		if (in.getInt(12) != codec.recordSize)
+			throw new IOException("Record size " + in.getInt(12) + " does not match the board");
+		return codec;
+	}
+
+	public static void save(Path path, TetrisEngine engine) throws IOException	//Writes a game to a file of one record, replacing any file already there
+	{
+		Tetris tetris = engine.getTetris();
+		Checkpoint codec = new Checkpoint(tetris.getWidth(), tetris.getHeight());
+		ByteBuffer out = ByteBuffer.allocate(HEADER + codec.recordSize);
+		codec.writeHeader(out);
+		codec.write(engine, out, HEADER);
+		Path temp = path.resolveSibling(path.getFileName() + ".tmp");	//A crash while writing leaves the old save whole
+		Files.write(temp, out.array());
+		Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	public static void load(Path path, TetrisEngine engine) throws IOException	//Makes an engine the first game in a file
+	{
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ))
+		{
+			ByteBuffer header = ByteBuffer.allocate(HEADER);
+			readFully(channel, header, 0);
+			header.flip();
+			Checkpoint codec;
+			try
+			{
+				codec = readHeader(header);
+			}
+			catch (IOException e)
+			{
+				throw new IOException(path + ": " + e.getMessage());
+			}
+			ByteBuffer record = ByteBuffer.allocate(codec.recordSize);
+			readFully(channel, record, HEADER);
+			if (record.hasRemaining())
+				throw new EOFException(path + " holds no games");
+			codec.read(record, 0, engine);
+		}
+		catch (IllegalArgumentException e)
+		{
+			throw new IOException(path + " is damaged: " + e.getMessage());
+		}
+	}
+
+	private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException	//Reads until the buffer is full or the file ends
+	{
+		while (buffer.hasRemaining() && channel.read(buffer, position + buffer.position()) > 0)
+			;
+	}
+}
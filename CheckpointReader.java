@@ -0,0 +1,212 @@
+package Version7;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+
+/* This class reads files of Checkpoint records by index. It maps the whole file into memory, in
+ * segments of whole records under 2 GB each since one mapping can't be bigger, so finding record n
+ * is a division and reading it touches only its own pages. The getters read single fields and rows
+ * straight out of the mapping without copying or allocating, for analysis jobs that scan hundreds of
+ * millions of positions; read() decodes a whole record into an engine to play on from. The getters
+ * can be used from any number of threads at once, read() from one at a time.
+ *
+ * Usage: java Version7.CheckpointReader file	scans every position of a file and reports how high
+ * the stacks were, how many had something held, and how fast the scan went. */
+
+public class CheckpointReader implements Closeable {
+
+	private static final long SEGMENT = Integer.MAX_VALUE;	//Most bytes in one mapping
+
+	private final FileChannel channel;
+	private final Checkpoint codec;
+	private final int width, height, recordSize, rowBytes;
+	private final long count;	//Records in the file
+	private final int perSegment;	//Records in each mapping
+	private final MappedByteBuffer[] segments;
+
+	public CheckpointReader(Path path) throws IOException	//Opens a file and maps all of it
+	{
+		channel = FileChannel.open(path, StandardOpenOption.READ);
+		try
+		{
+			ByteBuffer header = ByteBuffer.allocate(Checkpoint.HEADER);
+			while (header.hasRemaining() && channel.read(header, header.position()) > 0)
+				;
+			header.flip();
+			codec = Checkpoint.readHeader(header);
+		}
+		catch (IOException e)
+		{
+			channel.close();
+			throw new IOException(path + ": " + e.getMessage());
+		}
+		width = codec.getWidth();
+		height = codec.getHeight();
+		recordSize = codec.getRecordSize();
+		rowBytes = (width + 1)/2;
+		count = (channel.size() - Checkpoint.HEADER)/recordSize;	//A record cut short at the end doesn't count
+		perSegment = (int) (SEGMENT/recordSize);
+		segments = new MappedByteBuffer[(int) ((count + perSegment - 1)/perSegment)];
+		for (int i = 0; i < segments.length; i++)
+		{
+			long first = (long) i*perSegment;
+			long records = Math.min(perSegment, count - first);
+			segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, Checkpoint.HEADER + first*recordSize, records*recordSize);
+		}
+	}
+
+	public long size()	//Records in the file
+	{
+		return count;
+	}
+
+	public int getWidth()
+	{
+		return width;
+	}
+
+	public int getHeight()
+	{
+		return height;
+	}
+
+	public void read(long index, TetrisEngine engine)	//Makes an engine the game in a record, settings aside
+	{
+		codec.read(segment(index), offset(index), engine);
+	}
+
+	private ByteBuffer segment(long index)
+	{
+		if (index < 0 || index >= count)
+			throw new IndexOutOfBoundsException("No record " + index + ", " + count + " in the file");
+		return segments[(int) (index/perSegment)];
+	}
+
+	private int offset(long index)	//Position of a record in its segment
+	{
+		return (int) (index % perSegment)*recordSize;
+	}
+
+	private long getLong(long index, int field)
+	{
+		return segment(index).getLong(offset(index) + field);
+	}
+
+	private int getInt(long index, int field)
+	{
+		return segment(index).getInt(offset(index) + field);
+	}
+
+	public long getTime(long index)	//Game time of a record
+	{
+		return getLong(index, TetrisEngine.STATE_TIME*8);
+	}
+
+	public long getPiecesLocked(long index)
+	{
+		return getLong(index, TetrisEngine.STATE_LOCKED*8);
+	}
+
+	public long getSeed(long index)	//Seed of the game a record is from
+	{
+		return getLong(index, TetrisEngine.STATE_SEED*8);
+	}
+
+	public long getDealt(long index)	//Pieces dealt from the sequence so far
+	{
+		return getLong(index, TetrisEngine.STATE_DEALT*8);
+	}
+
+	public int getHeldType(long index)	//-1 if nothing is held
+	{
+		return getInt(index, TetrisEngine.STATE_HELD*8 + 4);
+	}
+
+	public boolean isLost(long index)
+	{
+		return (getLong(index, TetrisEngine.STATE_FLAGS*8) & 2) != 0;
+	}
+
+	public int getPiece(long index)	//PieceTable index of the falling piece, its type and rotation
+	{
+		return segment(index).get(offset(index) + TetrisEngine.STATE_PIECE*8) & 0xFF;
+	}
+
+	public int getRow(long index)	//Row of the falling piece
+	{
+		return getInt(index, TetrisEngine.STATE_PIECE*8 + 8);
+	}
+
+	public int getCol(long index)
+	{
+		return getInt(index, TetrisEngine.STATE_PIECE*8 + 12);
+	}
+
+	public int getLevel(long index)
+	{
+		return getInt(index, Checkpoint.LEVEL);
+	}
+
+	public int getRowsCleared(long index)
+	{
+		return getInt(index, Checkpoint.ROWS_CLEARED);
+	}
+
+	public int getCell(long index, int r, int c)	//Colour of a square of a record's board, 0 if it is empty
+	{
+		int pair = segment(index).get(offset(index) + Checkpoint.BOARD + r*rowBytes + c/2);
+		return (c & 1) == 0 ? pair & 0xF : (pair >> 4) & 0xF;
+	}
+
+	public long getRowBits(long index, int r)	//Bitboard of a row of a record's board, bit c set if column c is filled
+	{
+		ByteBuffer segment = segment(index);
+		int p = offset(index) + Checkpoint.BOARD + r*rowBytes;
+		long bits = 0;
+		for (int i = 0; i < rowBytes; i++)
+		{
+			int pair = segment.get(p + i);
+			if ((pair & 0xF) != 0)
+				bits |= 1L << 2*i;
+			if ((pair & 0xF0) != 0)
+				bits |= 1L << 2*i + 1;
+		}
+		return bits;
+	}
+
+	public void close() throws IOException	//Closes the file, the mappings go when they are collected
+	{
+		channel.close();
+	}
+
+	public static void main(String[] args) throws IOException
+	{
+		Path path = Paths.get(args.length > 0 ? args[0] : "positions.tckp");
+		try (CheckpointReader reader = new CheckpointReader(path))
+		{
+			int height = reader.getHeight();
+			long[] stacks = new long[height + 1];	//Positions by stack height
+			long holding = 0;
+			long start = System.nanoTime();
+			for (long i = 0; i < reader.size(); i++)
+			{
+				int top = 0;
+				while (top < height && reader.getRowBits(i, top) == 0)
+					top++;
+				stacks[height - top]++;
+				if (reader.getHeldType(i) >= 0)
+					holding++;
+			}
+			double seconds = (System.nanoTime() - start)/1e9;
+			long n = Math.max(1, reader.size());
+			System.out.printf("%d positions of %dx%d, %d bytes each, scanned in %.2f s (%.0f million a second)%n", reader.size(),
+					reader.getWidth(), height, Checkpoint.recordSize(reader.getWidth(), height), seconds, reader.size()/seconds/1e6);
+			System.out.printf("%.1f%% holding a piece%n", 100.0*holding/n);
+			for (int h = 0; h <= height; h++)
+				if (stacks[h] != 0)
+					System.out.printf("stack %2d rows: %5.2f%%%n", h, 100.0*stacks[h]/n);
+		}
+	}
+}
@@ -0,0 +1,105 @@
+package Version7;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.concurrent.*;
+
+/* This class writes files of Checkpoint records, one game position after another, for datasets of
+ * millions of positions. It maps the file into memory a region at a time and encodes each record
+ * straight into the mapping, so appending copies nothing and makes no system call. The first region
+ * holds a few records and each one after is twice the last, up to REGION, so a short file maps little
+ * more than it holds and a long one maps rarely; the file is cut down to the records written when it
+ * is closed. Every record in a file is on a board of the same size. A single saved game doesn't come
+ * through here, Checkpoint.save writes it without a mapping.
+ *
+ * Usage: java Version7.CheckpointWriter file [positions] [seed]	writes the position after every
+ * piece of games a one-piece-deep bot plays at full speed, a quick dataset to try CheckpointReader on. */
+
+public class CheckpointWriter implements Closeable {
+
+	private static final int FIRST_REGION = 64 << 10;	//Bytes mapped first, rounded down to whole records
+	private static final int REGION = 64 << 20;	//Most bytes mapped at a time
+
+	private final FileChannel channel;
+	private final Checkpoint codec;
+	private final int recordSize;
+	private final int maxRegionSize;	//REGION rounded down to whole records
+	private int regionSize;	//Bytes in the current mapping, whole records
+	private MappedByteBuffer region;	//Mapping the next record goes in, null before the first
+	private long regionStart;	//File position of its first byte
+	private int at;	//Position in it of the next record
+	private long count;	//Records written
+
+	public CheckpointWriter(Path path, int width, int height) throws IOException	//Creates a file for games on a board of a size, replacing any file already there
+	{
+		codec = new Checkpoint(width, height);
+		recordSize = codec.getRecordSize();
+		maxRegionSize = Math.max(1, REGION/recordSize)*recordSize;
+		channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+		ByteBuffer header = ByteBuffer.allocate(Checkpoint.HEADER);
+		codec.writeHeader(header);
+		channel.write(header, 0);
+		regionStart = Checkpoint.HEADER;	//The first append maps the region after the header
+		regionSize = 0;
+		at = 0;
+	}
+
+	public void append(TetrisEngine engine) throws IOException	//Writes the game an engine is in as the next record
+	{
+		if (at == regionSize)
+		{
+			regionStart += regionSize;
+			regionSize = regionSize == 0 ? Math.max(1, FIRST_REGION/recordSize)*recordSize : Math.min(2*regionSize, maxRegionSize);
+			region = channel.map(FileChannel.MapMode.READ_WRITE, regionStart, regionSize);	//Grows the file to cover it
+			at = 0;
+		}
+		codec.write(engine, region, at);
+		at += recordSize;
+		count++;
+	}
+
+	public long size()	//Records written
+	{
+		return count;
+	}
+
+	public void close() throws IOException	//Writes the records out and cuts the file down to them
+	{
+		if (region != null)
+			region.force();
+		region = null;
+		channel.truncate(Checkpoint.HEADER + count*recordSize);
+		channel.close();
+	}
+
+	public static void main(String[] args) throws IOException
+	{
+		Path path = Paths.get(args.length > 0 ? args[0] : "positions.tckp");
+		long positions = args.length > 1 ? Long.parseLong(args[1]) : 1000000;
+		long seed = args.length > 2 ? Long.parseLong(args[2]) : 1;
+		TetrisEngine engine = new TetrisEngine(seed);
+		TetrisBot bot = new TetrisBot(Heuristic.DEFAULT, 1, ForkJoinPool.commonPool(), new TranspositionTable(16));	//One piece deep, for speed
+		long start = System.nanoTime();
+		long games = 1;
+		try (CheckpointWriter writer = new CheckpointWriter(path, Tetris.WIDTH, Tetris.HEIGHT))
+		{
+			while (writer.size() < positions)
+			{
+				if (engine.isLost())
+				{
+					engine.reset(Zobrist.mix(seed + games++));
+					continue;
+				}
+				for (int action : bot.plan(bot.capture(engine)))
+					engine.step(action);
+				writer.append(engine);
+			}
+		}
+		double seconds = (System.nanoTime() - start)/1e9;
+		System.out.printf("%d positions from %d games in %.1f s, %d bytes a position%n", positions, games, seconds,
+				Checkpoint.recordSize(Tetris.WIDTH, Tetris.HEIGHT));
+	}
+}
@@ -0,0 +1,67 @@
+package Version7;
+
+import jdk.jfr.*;
+
+/* This class holds the Java Flight Recorder events the game loop emits, so a recording of a stuttering
+ * game shows where each lock, clear, level up and game over happened next to the GC pauses and thread
+ * activity around it. Start a recording with -XX:StartFlightRecording and look for the Tetris category.
+ * An event only costs anything while a recording that has it enabled is running. */
+
+public final class GameEvents {
+
+	private GameEvents()
+	{
+	}
+
+	@Name("Version7.Lock")
+	@Label("Piece Locked")
+	@Category("Tetris")
+	@StackTrace(false)
+	public static final class Lock extends Event {
+		@Label("Game Time")
+		@Timespan(Timespan.MILLISECONDS)
+		public long gameTime;
+		@Label("Pieces Locked")
+		public long piecesLocked;
+		@Label("Lock Resets")
+		public int lockResets;	//Resets the piece used before it locked
+	}
+
+	@Name("Version7.Clear")
+	@Label("Rows Cleared")
+	@Category("Tetris")
+	@StackTrace(false)
+	public static final class Clear extends Event {
+		@Label("Game Time")
+		@Timespan(Timespan.MILLISECONDS)
+		public long gameTime;
+		@Label("Rows")
+		public int rows;
+	}
+
+	@Name("Version7.LevelUp")
+	@Label("Level Up")
+	@Category("Tetris")
+	@StackTrace(false)
+	public static final class LevelUp extends Event {
+		@Label("Game Time")
+		@Timespan(Timespan.MILLISECONDS)
+		public long gameTime;
+		@Label("Level")
+		public int level;	//New level, counting from 1
+	}
+
+	@Name("Version7.GameOver")
+	@Label("Game Over")
+	@Category("Tetris")
+	@StackTrace(false)
+	public static final class GameOver extends Event {
+		@Label("Game Time")
+		@Timespan(Timespan.MILLISECONDS)
+		public long gameTime;
+		@Label("Pieces Locked")
+		public long piecesLocked;
+		@Label("Seed")
+		public long seed;
+	}
+}
@@ -0,0 +1,339 @@
+package Version7;
+
+import java.util.*;
+
+/* This class plays a large number of games of Tetris side by side, for trying out heuristics over
+ * millions of games. A TetrisEngine game is a Tetris with a colour array for every square, a
+ * TetrisPiece and a PieceSequence, which together take kilobytes spread over a dozen objects. Here
+ * each game is a few primitive fields, kept in one array per field across every game (struct of
+ * arrays): the bitboard rows as shorts, the falling piece as its PieceTable index, row and column,
+ * the held type, the seed and position of its bags, and the counts of pieces and rows. That is
+ * BYTES_PER_GAME bytes a game, the arrays are made once, and stepping a batch of games allocates
+ * nothing, so the garbage collector has nothing to do and a batch is a straight walk through memory.
+ *
+ * The games follow the rules of TetrisEngine on the default board, with the same wall kicks and the
+ * same pieces dealt from the same seed, but without time: there is no lock delay. A piece locks when
+ * gravity or a soft drop finds it resting on something, or on a hard drop, so a piece can still be
+ * slid or spun along the stack before it locks. Colours are not kept, only which squares are filled.
+ * Like an engine, a pool is only used from one thread at a time. */
+
+public final class GamePool {
+
+	public static final int WIDTH = Tetris.WIDTH;	//Every game is on the default board, a row fits in a short
+	public static final int HEIGHT = Tetris.HEIGHT;
+	public static final int MAX_PREVIEW = 8;	//Furthest ahead peekType can look, the rest of the current bag and all of the next
+	public static final int BYTES_PER_GAME = 2*HEIGHT + 5 + 8 + 4 + 8 + 4 + 4;	//Size of the state of one game, the sum of the fields below
+
+	private static final int FULL_ROW = (1 << WIDTH) - 1;
+	private static final int SPAWN_COL = TetrisPiece.spawnCol(WIDTH);
+	private static final int HELD = 1;	//Bits of flags
+	private static final int LOST = 2;
+
+	private final int capacity;	//Number of games
+	private final short[] rows;	//Bitboard of every game, HEIGHT rows a game, row 0 first
+	private final byte[] piece;	//Index of the falling piece in PieceTable
+	private final byte[] row, col;	//Position of the falling piece
+	private final byte[] held;	//Held type, 0 if none
+	private final byte[] flags;	//Hold already used for the falling piece, game lost
+	private final long[] seed;	//Seed the pieces are dealt from, as in PieceSequence
+	private final int[] dealt;	//Pieces dealt
+	private final long[] queue;	//Types still to be dealt from the current and next bags, four bits each, the next one lowest
+	private final int[] locked;	//Pieces locked
+	private final int[] lines;	//Rows cleared
+
+	public GamePool(int capacity)	//Makes room for a number of games, call reset before playing them
+	{
+		this.capacity = capacity;
+		rows = new short[capacity*HEIGHT];
+		piece = new byte[capacity];
+		row = new byte[capacity];
+		col = new byte[capacity];
+		held = new byte[capacity];
+		flags = new byte[capacity];
+		seed = new long[capacity];
+		dealt = new int[capacity];
+		queue = new long[capacity];
+		locked = new int[capacity];
+		lines = new int[capacity];
+		Arrays.fill(flags, (byte) LOST);	//Nothing to play until a game is reset
+	}
+
+	public int getCapacity()
+	{
+		return capacity;
+	}
+
+	public void reset(int first, int count, long seed)	//Starts new games in a range, game i dealt from the seed of the (i + 1)th sequence split off seed, as PieceSequence.split gives them
+	{
+		for (int g = first; g < first + count; g++)
+			reset(g, PieceSequence.splitSeed(seed, g + 1));
+	}
+
+	public void reset(int game, long gameSeed)	//Starts a new game that deals the pieces given by a seed, the same pieces a TetrisEngine started from it deals
+	{
+		Arrays.fill(rows, game*HEIGHT, (game + 1)*HEIGHT, (short) 0);
+		seed[game] = gameSeed;
+		dealt[game] = 0;
+		queue[game] = PieceSequence.bag(gameSeed, 0) | (long) PieceSequence.bag(gameSeed, 1) << 28;
+		held[game] = 0;
+		flags[game] = 0;
+		locked[game] = 0;
+		lines[game] = 0;
+		spawn(game, deal(game));
+	}
+
+	public int step(int first, int count, byte[] actions, byte[] events)	//Applies actions[i] to game first + i for a range of games, writing the TetrisEngine event flags of each to events[i] if events is not null. Returns the number of games in the range still being played
+	{
+		int playing = 0;
+		for (int i = 0; i < count; i++)
+		{
+			int result = step(first + i, actions[i]);
+			if (events != null)
+				events[i] = (byte) result;
+			if ((result & TetrisEngine.GAME_OVER) == 0)
+				playing++;
+		}
+		return playing;
+	}
+
+	public int step(int game, int action)	//Applies one TetrisEngine action to a game, then locks, clears and spawns as needed. Returns the events that happened
+	{
+		if ((flags[game] & LOST) != 0)
+			return TetrisEngine.GAME_OVER;
+		int p = piece[game], r = row[game], c = col[game];
+		boolean lock = false;
+		switch (action)
+		{
+			case TetrisEngine.GRAVITY:
+			case TetrisEngine.SOFT_DROP:
+				if (fits(game, p, r + 1, c))
+					row[game] = (byte) (r + 1);
+				else
+					lock = true;
+				break;
+			case TetrisEngine.SHIFT_L:
+				if (fits(game, p, r, c - 1))
+					col[game] = (byte) (c - 1);
+				break;
+			case TetrisEngine.SHIFT_R:
+				if (fits(game, p, r, c + 1))
+					col[game] = (byte) (c + 1);
+				break;
+			case TetrisEngine.ROTATE_CW:
+				rotate(game, PieceTable.index(PieceTable.type(p), (PieceTable.rotation(p) + 1)%4), TetrisPiece.CW_KICK);
+				break;
+			case TetrisEngine.ROTATE_CCW:
+				rotate(game, PieceTable.index(PieceTable.type(p), (PieceTable.rotation(p) + 3)%4), TetrisPiece.CCW_KICK);
+				break;
+			case TetrisEngine.FIRM_DROP:
+				row[game] = (byte) (r + dropDistance(game, p, r, c));
+				break;
+			case TetrisEngine.HARD_DROP:
+				row[game] = (byte) (r + dropDistance(game, p, r, c));
+				lock = true;
+				break;
+			case TetrisEngine.HOLD:
+				hold(game);
+				break;
+		}
+		return lock ? lock(game) : 0;
+	}
+
+	private void rotate(int game, int next, int firstKick)	//The wall kick rule of TetrisPiece: in place, then kicked by firstKick, then kicked the other way
+	{
+		int r = row[game], c = col[game];
+		if (fits(game, next, r, c))
+			piece[game] = (byte) next;
+		else if (fits(game, next, r, c + firstKick))
+		{
+			piece[game] = (byte) next;
+			col[game] = (byte) (c + firstKick);
+		}
+		else if (fits(game, next, r, c - firstKick))
+		{
+			piece[game] = (byte) next;
+			col[game] = (byte) (c - firstKick);
+		}
+	}
+
+	private void hold(int game)	//Swaps the falling piece with the held one, once per piece
+	{
+		if ((flags[game] & HELD) != 0)
+			return;
+		int type = PieceTable.type(piece[game]);
+		if (held[game] == 0)
+			spawn(game, deal(game));
+		else
+			spawn(game, held[game]);
+		held[game] = (byte) type;
+		flags[game] |= HELD;
+	}
+
+	private int lock(int game)	//Locks the falling piece where it is, then clears rows and spawns the next piece unless the game is lost
+	{
+		int p = piece[game], r = row[game], c = col[game];
+		int at = game*HEIGHT;
+		for (int i = 0; i < PieceTable.CELLS; i++)
+		{
+			int cr = r + PieceTable.cellRow(p, i);
+			if (cr >= 0)	//Squares still above the board are lost, as in TetrisPiece
+				rows[at + cr] |= 1 << (c + PieceTable.cellCol(p, i));
+		}
+		locked[game]++;
+		int events = TetrisEngine.LOCKED;
+		for (int h = 0; h < Tetris.HIDDEN; h++)
+			if (rows[at + h] != 0)	//Anything in the hidden rows ends the game
+			{
+				flags[game] |= LOST;
+				return events | TetrisEngine.GAME_OVER;
+			}
+		int cleared = clearRows(game, Math.max(r + PieceTable.minRow(p), Tetris.HIDDEN), Math.min(r + PieceTable.maxRow(p), HEIGHT - 1));
+		if (cleared > 0)
+		{
+			lines[game] += cleared;
+			events |= TetrisEngine.CLEARED;
+		}
+		spawn(game, deal(game));
+		flags[game] &= ~HELD;
+		return events;
+	}
+
+	private int clearRows(int game, int top, int bottom)	//Takes the full rows between top and bottom out of a game and drops the rows above, returns how many there were
+	{
+		int at = game*HEIGHT;
+		int write = bottom;	//Rows below bottom never move
+		for (int r = bottom; r >= 0; r--)
+		{
+			short bits = rows[at + r];
+			if (r >= top && bits == FULL_ROW)
+				continue;
+			rows[at + write--] = bits;
+		}
+		int cleared = write + 1;
+		for (int r = 0; r < cleared; r++)
+			rows[at + r] = 0;
+		return cleared;
+	}
+
+	private void spawn(int game, int type)	//Puts a new piece of a type at the spawn position
+	{
+		piece[game] = (byte) PieceTable.index(type, 0);
+		row[game] = TetrisPiece.SPAWN_ROW;
+		col[game] = (byte) SPAWN_COL;
+	}
+
+	private int deal(int game)	//Deals the next type of a game, shuffling in the bag after next when a bag runs out
+	{
+		long q = queue[game];
+		int type = (int) (q & 15);
+		int n = ++dealt[game];
+		q >>>= 4;
+		if (n%7 == 0)	//Only the next bag is left, add the one after it
+			q |= (long) PieceSequence.bag(seed[game], n/7 + 1) << 28;
+		queue[game] = q;
+		return type;
+	}
+
+	private boolean fits(int game, int p, int r, int c)	//Checks a piece against the rows of one game, as PieceTable.fits does for a long per row
+	{
+		if (c + PieceTable.minCol(p) < 0 || c + PieceTable.maxCol(p) >= WIDTH)
+			return false;
+		if (r + PieceTable.minRow(p) < 0 || r + PieceTable.maxRow(p) >= HEIGHT)
+			return false;
+		int at = game*HEIGHT + r;
+		for (int a = PieceTable.minRow(p); a <= PieceTable.maxRow(p); a++)
+		{
+			long mask = PieceTable.rowMask(p, a);
+			long shifted = c >= 0 ? mask << c : mask >>> -c;
+			if ((rows[at + a] & shifted) != 0)
+				return false;
+		}
+		return true;
+	}
+
+	private int dropDistance(int game, int p, int r, int c)	//Gets how many rows a piece can fall before it lands
+	{
+		int d = 0;
+		while (fits(game, p, r + d + 1, c))
+			d++;
+		return d;
+	}
+
+	public void copyRowBits(int game, long[] dest)	//Copies the bitboard of a game into an array of HEIGHT longs, row 0 first, the form MoveGenerator and TetrisBot search
+	{
+		for (int r = 0; r < HEIGHT; r++)
+			dest[r] = rows[game*HEIGHT + r];
+	}
+
+	public long getRowBits(int game, int r)	//Gets the bitboard of a row of a game
+	{
+		return rows[game*HEIGHT + r];
+	}
+
+	public int getPiece(int game)	//Index of the falling piece's shape and rotation in PieceTable
+	{
+		return piece[game];
+	}
+
+	public int getType(int game)
+	{
+		return PieceTable.type(piece[game]);
+	}
+
+	public int getRow(int game)
+	{
+		return row[game];
+	}
+
+	public int getCol(int game)
+	{
+		return col[game];
+	}
+
+	public int peekType(int game, int n)	//Returns the type n pieces after the falling one (1 is the next piece), up to MAX_PREVIEW
+	{
+		if (n < 1 || n > MAX_PREVIEW)
+			throw new IllegalArgumentException("Can only peek 1 to " + MAX_PREVIEW + " pieces ahead");
+		return (int) (queue[game] >>> 4*(n - 1)) & 15;
+	}
+
+	public int getHeldType(int game)	//Returns the held type, -1 if nothing is held
+	{
+		return held[game] == 0 ? -1 : held[game];
+	}
+
+	public boolean canHold(int game)
+	{
+		return (flags[game] & HELD) == 0;
+	}
+
+	public boolean isLost(int game)
+	{
+		return (flags[game] & LOST) != 0;
+	}
+
+	public long getSeed(int game)
+	{
+		return seed[game];
+	}
+
+	public int getPiecesDropped(int game)	//Pieces dealt, like TetrisEngine.getPiecesDropped
+	{
+		return dealt[game];
+	}
+
+	public int getPiecesLocked(int game)
+	{
+		return locked[game];
+	}
+
+	public int getLines(int game)	//Rows cleared over the whole game
+	{
+		return lines[game];
+	}
+
+	public int getLevel(int game)	//Level, counting from 0 like Tetris.getLevel. Tetris goes up a level every ten rows up to level 4, so it follows from the rows cleared
+	{
+		return Math.min(4, lines[game]/10);
+	}
+}
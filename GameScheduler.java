@@ -0,0 +1,367 @@
+package Version7;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.locks.*;
+
+/* This class is the game loop. It runs the one thread that touches the TetrisEngine: every change to
+ * the game, from input, gravity, lock delay or auto-repeat, happens on it. Other threads pass input
+ * in with press() and release(), which put a timestamped event on a lock-free InputQueue and wake the
+ * thread. The loop takes the events in order, advancing the engine to each event's time before
+ * applying it, so gravity steps and locks that fell due before a key press happen before it.
+ *
+ * Holding a shift key moves the piece once, then again after the DAS delay, then every ARR
+ * milliseconds until the key is let go; holding soft drop drops a row every soft drop interval. The
+ * repeats are timed here in game time, not by the operating system's key repeat, so they are the same
+ * on every machine and in replays. Repeated presses from the operating system are ignored.
+ *
+ * After each batch of changes the loop publishes an immutable GameSnapshot and calls onChange, so the
+ * screen and the bot read the game without ever touching the engine. Between deadlines (the next
+ * gravity step, lock or repeat) the thread sleeps. Every action applied is recorded to a ReplayWriter
+ * if one is given, and every change is counted in a Metrics, along with how late the thread woke up for
+ * each gravity step.
+ *
+ * With a RewindBuffer set, the loop records the game's state after every pass, and undo() puts the game
+ * back to when the last piece locked had spawned. The clock moves back with it, so the game goes on
+ * from that time; the replay stops there, since it can't take actions back. checkpoint() saves the
+ * game to a file between two events, so the file holds exactly the game at the time of the key press. */
+
+public class GameScheduler implements Runnable {
+
+	public static final int DAS = 167;	//Default delay before a held shift starts repeating, in milliseconds
+	public static final int ARR = 33;	//Default time between repeated shifts, 0 moves straight to the wall
+	public static final int SOFT_DROP_RATE = 33;	//Default time between repeated soft drops
+
+	private final TetrisEngine engine;	//Engine to run, only touched by the loop thread
+	private ReplayWriter replay;	//Records every action applied, null to not record or once writing has failed
+	private final Runnable onChange;	//Called after a new snapshot is published, e.g. to repaint
+	private final Metrics metrics;	//Counts what happens in the game and how late gravity steps run
+	private static final int UNDO = TetrisEngine.HOLD + 1;	//Event that undoes the last piece, not an engine action
+	private static final int CHECKPOINT = UNDO + 1;	//Event that saves the game to checkpointPath
+	private final InputQueue input = new InputQueue(10);
+	private volatile long startNanos;	//System.nanoTime() at game time 0, moved on when the game is put back
+	private RewindBuffer rewind;	//Records the state after every pass, null to not record
+	private volatile Path checkpointPath;	//File the next CHECKPOINT event saves to
+	private volatile boolean running;	//Cleared by stop()
+	private volatile GameSnapshot snapshot;	//Latest published state of the game
+	private Thread thread;
+
+	private int das = DAS, arr = ARR, softDropRate = SOFT_DROP_RATE;
+	private final boolean[] held = new boolean[TetrisEngine.HOLD + 1];	//Actions whose key is down
+	private int shiftAction = TetrisEngine.NONE;	//Shift being repeated, NONE if no shift key is held
+	private long shiftAt;	//Game time of its next repeat
+	private long softDropAt;	//Game time of the next repeated soft drop while soft drop is held
+	private boolean rewound;	//The game was put back to an earlier time during this pass
+	private long gravityNanos;	//System.nanoTime() the loop is sleeping until for a gravity step, 0 if it is not
+
+	public GameScheduler(TetrisEngine engine, ReplayWriter replay, Runnable onChange)	//Creates a loop for a game, which carries on from the engine's game time
+	{
+		this(engine, replay, new Metrics(), onChange);
+	}
+
+	public GameScheduler(TetrisEngine engine, ReplayWriter replay, Metrics metrics, Runnable onChange)	//Creates a loop for a game, which carries on from the engine's game time, counting it in a Metrics
+	{
+		this.engine = engine;
+		this.replay = replay;
+		this.metrics = metrics;
+		this.onChange = onChange;
+		startNanos = System.nanoTime() - engine.getTime()*1000000;	//A game carried on from a rewind doesn't start at 0
+		snapshot = GameSnapshot.capture(engine);
+	}
+
+	public void setAutoRepeat(int das, int arr, int softDropRate)	//Sets the auto-repeat timings, call before start()
+	{
+		this.das = das;
+		this.arr = arr;
+		this.softDropRate = softDropRate;
+	}
+
+	public void start()	//Starts the loop thread
+	{
+		running = true;
+		thread = new Thread(this, "Tetris game loop");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	public void stop()	//Stops the loop thread and waits for it to finish
+	{
+		running = false;
+		Thread th = thread;
+		if (th == null)
+			return;
+		LockSupport.unpark(th);
+		if (th != Thread.currentThread())
+		{
+			try
+			{
+				th.join();
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	public boolean press(int action)	//Queues a key press from any thread, returns false if the queue is full
+	{
+		return post(action);
+	}
+
+	public boolean undo()	//Queues putting the game back to before the last piece locked, does nothing without a RewindBuffer
+	{
+		return post(UNDO);
+	}
+
+	public boolean checkpoint(Path path)	//Queues saving the game as it is at this moment to a Checkpoint file, which the loop writes between two events
+	{
+		checkpointPath = path;
+		return post(CHECKPOINT);
+	}
+
+	public void setRewind(RewindBuffer rewind)	//Records the game's states into a RewindBuffer, call before start()
+	{
+		this.rewind = rewind;
+	}
+
+	public boolean release(int action)	//Queues a key release from any thread
+	{
+		return post(action | InputQueue.RELEASE);
+	}
+
+	private boolean post(int event)
+	{
+		boolean queued = input.offer(now(), event);
+		Thread th = thread;
+		if (th != null)
+			LockSupport.unpark(th);
+		return queued;
+	}
+
+	public GameSnapshot getSnapshot()	//Latest state of the game, safe to read from any thread
+	{
+		return snapshot;
+	}
+
+	public long now()	//Current game time in milliseconds
+	{
+		return timeAt(System.nanoTime());
+	}
+
+	public long timeAt(long nanos)	//Game time in milliseconds at a System.nanoTime()
+	{
+		return (nanos - startNanos) / 1000000;
+	}
+
+	public void run()
+	{
+		metrics.beginGame(engine);
+		try
+		{
+			if (replay != null)
+				replay.beginGame(engine.getSeed(), engine.getLockDelay(), engine.getMaxLockResets(),
+						engine.getTetris().getWidth(), engine.getTetris().getHeight());
+		}
+		catch (IOException e)
+		{
+			stopReplay(e);
+		}
+		while (running && !engine.isLost())
+		{
+			long nanos = System.nanoTime();
+			if (gravityNanos != 0 && nanos >= gravityNanos)	//Woke up for a gravity step, not for input
+			{
+				metrics.gravityJitter.record((nanos - gravityNanos)/1000);
+				gravityNanos = 0;
+			}
+			long now = timeAt(nanos);
+			while (input.poll())
+			{
+				long time = Math.min(Math.max(input.getTime(), engine.getTime()), Math.max(now, engine.getTime()));	//Events from two threads can be a millisecond out of order, and ones queued before an undo are after the time it went back to
+				repeat(time);
+				metrics.update(engine, engine.advance(time));
+				handle(input.getEvent(), time);
+				if (rewound)
+				{
+					rewound = false;
+					now = engine.getTime();
+				}
+			}
+			repeat(now);
+			metrics.update(engine, engine.advance(now));
+			if (rewind != null)
+				rewind.record(engine);
+			snapshot = GameSnapshot.capture(engine);
+			onChange.run();
+			if (engine.isLost())
+				break;
+			long deadline = nextDeadline();
+			long deadlineNanos = startNanos + deadline*1000000;
+			gravityNanos = deadline == engine.getNextGravity() ? deadlineNanos : 0;
+			long wait = deadlineNanos - System.nanoTime();
+			if (wait > 0)
+				LockSupport.parkNanos(this, wait);	//Sleeps until the deadline, input or stop() ends it early
+		}
+		try
+		{
+			if (replay != null)
+			{
+				replay.endGame(engine.getTime());
+				replay.flush();
+			}
+		}
+		catch (IOException e)
+		{
+			stopReplay(e);
+		}
+	}
+
+	private void handle(int event, long time)	//Applies one key event at the current game time
+	{
+		if (event == UNDO)
+		{
+			undoPiece();
+			return;
+		}
+		if (event == CHECKPOINT)
+		{
+			try
+			{
+				Checkpoint.save(checkpointPath, engine);	//Writes a small file and renames it, the game waits for the disk
+			}
+			catch (IOException e)
+			{
+				System.out.println("Game not saved: " + e.getMessage());
+			}
+			return;
+		}
+		int action = event & ~InputQueue.RELEASE;
+		if (action <= TetrisEngine.GRAVITY || action >= held.length)
+			return;
+		if ((event & InputQueue.RELEASE) != 0)
+		{
+			held[action] = false;
+			if (action == shiftAction)	//Carry on repeating the other way if that key is still down
+			{
+				int other = action == TetrisEngine.SHIFT_L ? TetrisEngine.SHIFT_R : TetrisEngine.SHIFT_L;
+				if (held[other])
+				{
+					shiftAction = other;
+					shiftAt = time + das;
+					apply(other);
+				}
+				else
+					shiftAction = TetrisEngine.NONE;
+			}
+			return;
+		}
+		if (held[action])	//Key repeat from the operating system
+			return;
+		held[action] = true;
+		if (action == TetrisEngine.SHIFT_L || action == TetrisEngine.SHIFT_R)
+		{
+			shiftAction = action;
+			shiftAt = time + das;
+		}
+		else if (action == TetrisEngine.SOFT_DROP)
+			softDropAt = time + softDropRate;
+		apply(action);
+	}
+
+	private void undoPiece()	//Puts the game back to before the last piece locked, and the clock with it
+	{
+		if (rewind == null)
+			return;
+		rewind.record(engine);	//Pieces may have locked since the loop last recorded
+		long end = engine.getTime();	//The replay ends here, before the clock goes back
+		if (!rewind.undoPiece(engine))
+			return;
+		metrics.resync(engine);	//Counts stay as they were and carry on up from the restored game
+		Arrays.fill(held, false);	//Keys are pressed again from here
+		shiftAction = TetrisEngine.NONE;
+		startNanos = System.nanoTime() - engine.getTime()*1000000;
+		rewound = true;
+		try
+		{
+			if (replay != null)
+			{
+				replay.endGame(end);
+				replay.flush();
+			}
+		}
+		catch (IOException e)
+		{
+			stopReplay(e);
+		}
+		replay = null;	//The replay ends at the undo
+	}
+
+	private void repeat(long upTo)	//Applies every auto-repeat due by a game time, in time order
+	{
+		while (true)
+		{
+			long shift = shiftAction != TetrisEngine.NONE ? shiftAt : Long.MAX_VALUE;
+			long drop = held[TetrisEngine.SOFT_DROP] ? softDropAt : Long.MAX_VALUE;
+			long next = Math.min(shift, drop);
+			if (next > upTo || engine.isLost())
+				return;
+			metrics.update(engine, engine.advance(next));
+			if (shift <= drop)
+			{
+				if (arr == 0)	//Straight to the wall
+				{
+					int col;
+					do
+					{
+						col = engine.getPiece().getCol();
+						apply(shiftAction);
+					}
+					while (engine.getPiece().getCol() != col);
+					shiftAt = Long.MAX_VALUE - 1;	//Nothing more until the key is pressed again
+				}
+				else
+				{
+					apply(shiftAction);
+					shiftAt += arr;
+				}
+			}
+			else
+			{
+				apply(TetrisEngine.SOFT_DROP);
+				softDropAt += softDropRate;
+			}
+		}
+	}
+
+	private void apply(int action)	//Steps the engine, recording the action
+	{
+		try
+		{
+			if (replay != null)
+				replay.record(engine.getTime(), action);
+		}
+		catch (IOException e)
+		{
+			stopReplay(e);
+		}
+		metrics.update(engine, engine.step(action));
+	}
+
+	private void stopReplay(IOException e)	//Gives up recording after a write fails, the game goes on
+	{
+		System.out.println("Replay stopped: " + e.getMessage());
+		replay = null;
+	}
+
+	private long nextDeadline()	//Game time the loop next has something to do without input
+	{
+		long deadline = engine.nextDeadline();
+		if (shiftAction != TetrisEngine.NONE)
+			deadline = Math.min(deadline, shiftAt);
+		if (held[TetrisEngine.SOFT_DROP])
+			deadline = Math.min(deadline, softDropAt);
+		return deadline;
+	}
+}
@@ -0,0 +1,176 @@
+package Version7;
+
+import java.util.*;
+
+/* This class is a copy of everything the screen and the bot need from a TetrisEngine at one moment.
+ * The game loop makes a new one whenever the game changes and publishes it, and other threads only
+ * ever read published snapshots, so they never see a game halfway through a move, and never touch the
+ * engine. A snapshot cannot be changed once it has been made. Only the rows from the top of the stack
+ * down are copied, the rows above are empty, so a snapshot of a tall board costs no more than the
+ * stack on it. */
+
+public final class GameSnapshot {
+
+	public static final int PREVIEW = 6;	//Number of upcoming types kept
+
+	private final int width, height;	//Size of the board
+	private final int top;	//First row copied, the rows above it are empty
+	private final int[] board;	//Colour of every square from row top down, row by row
+	private final long[] rowBits;	//Bitboard of the rows from top down
+	private final int type, piece, row, col;	//The falling piece
+	private final int ghostRow;	//Row the falling piece would land on
+	private final boolean grounded;	//The falling piece is resting on something
+	private final int[] preview = new int[PREVIEW];	//Upcoming types, the next piece first
+	private final int held;	//Held type, -1 if none
+	private final boolean canHold;
+	private final boolean lost;
+	private final int piecesDropped;
+	private final long piecesLocked;
+	private final long time;
+	private final long nextGravity;	//Game time of the next gravity step
+	private final double gravityInterval;	//Milliseconds between gravity steps
+	private final int pendingGarbage;	//Garbage rows waiting to come in, in versus
+
+	private GameSnapshot(TetrisEngine engine)
+	{
+		Tetris tetris = engine.getTetris();
+		width = tetris.getWidth();
+		height = tetris.getHeight();
+		top = tetris.getStackTop();
+		board = new int[(height - top)*width];
+		tetris.copyRows(top, board, 0, height - top);
+		rowBits = new long[height - top];
+		for (int r = top; r < height; r++)
+			rowBits[r - top] = tetris.getRowBits(r);
+		TetrisPiece currPiece = engine.getPiece();
+		type = currPiece.getType();
+		piece = currPiece.getPiece();
+		row = currPiece.getRow();
+		col = currPiece.getCol();
+		ghostRow = currPiece.getGhostRow(tetris);
+		grounded = currPiece.isGrounded(tetris);
+		for (int i = 0; i < PREVIEW; i++)
+			preview[i] = engine.peekType(i + 1);
+		held = engine.getHeldType();
+		canHold = engine.canHold();
+		lost = engine.isLost();
+		piecesDropped = engine.getPiecesDropped();
+		piecesLocked = engine.getPiecesLocked();
+		time = engine.getTime();
+		nextGravity = engine.getNextGravity();
+		gravityInterval = engine.getGravityInterval();
+		pendingGarbage = engine.getPendingGarbage();
+	}
+
+	public static GameSnapshot capture(TetrisEngine engine)	//Copies the state of an engine, call from the thread that owns it
+	{
+		return new GameSnapshot(engine);
+	}
+
+	public int getWidth()
+	{
+		return width;
+	}
+
+	public int getHeight()
+	{
+		return height;
+	}
+
+	public int getCell(int r, int c)	//Colour of a square of the board, 0 if empty
+	{
+		return r < top ? 0 : board[(r - top)*width + c];
+	}
+
+	public void copyRows(int r, int[] dest, int offset, int rows)	//Copies the colours of some whole rows into an array
+	{
+		int empty = Math.max(0, Math.min(rows, top - r));	//Rows above the stack
+		Arrays.fill(dest, offset, offset + empty*width, 0);
+		if (rows > empty)
+			System.arraycopy(board, (r + empty - top)*width, dest, offset + empty*width, (rows - empty)*width);
+	}
+
+	public void copyRowBits(long[] dest)	//Copies the bitboard into an array of height longs
+	{
+		Arrays.fill(dest, 0, top, 0);
+		System.arraycopy(rowBits, 0, dest, top, height - top);
+	}
+
+	public int getType()
+	{
+		return type;
+	}
+
+	public int getPiece()	//Index of the falling piece's shape and rotation in PieceTable
+	{
+		return piece;
+	}
+
+	public int getRow()
+	{
+		return row;
+	}
+
+	public int getCol()
+	{
+		return col;
+	}
+
+	public int getGhostRow()
+	{
+		return ghostRow;
+	}
+
+	public boolean isGrounded()
+	{
+		return grounded;
+	}
+
+	public int getPreview(int i)	//Type i+1 places after the falling piece, getPreview(0) is the next piece
+	{
+		return preview[i];
+	}
+
+	public int getHeldType()
+	{
+		return held;
+	}
+
+	public boolean canHold()
+	{
+		return canHold;
+	}
+
+	public boolean isLost()
+	{
+		return lost;
+	}
+
+	public int getPiecesDropped()
+	{
+		return piecesDropped;
+	}
+
+	public long getPiecesLocked()	//Number of pieces locked into the board so far, changes exactly when a new piece has spawned after a lock
+	{
+		return piecesLocked;
+	}
+
+	public long getTime()
+	{
+		return time;
+	}
+
+	public int getPendingGarbage()
+	{
+		return pendingGarbage;
+	}
+
+	public double getFall(long now)	//How far the piece has fallen towards its next row by a game time, 0 to 1, for drawing between gravity steps
+	{
+		if (grounded || lost || gravityInterval < 1)
+			return 0;
+		double fall = 1 - (nextGravity - now)/gravityInterval;
+		return Math.max(0, Math.min(1, fall));
+	}
+}
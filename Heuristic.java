@@ -0,0 +1,56 @@
+package Version7;
+
+/* This class scores a board for the bot. The score is a weighted sum of four features of the
+ * board: the total height of the columns, the number of rows cleared getting there, the number of
+ * holes (empty squares with something above them) and the bumpiness (how much neighbouring columns
+ * differ in height). Higher is better. Boards are plain bitboards like Tetris.rowBits, so scoring
+ * never allocates. */
+
+public class Heuristic {
+
+	public static final Heuristic DEFAULT = new Heuristic(-0.510066, 0.760666, -0.35663, -0.184483);	//Weights that play well on a 10 wide board
+
+	private final double heightWeight;
+	private final double linesWeight;
+	private final double holesWeight;
+	private final double bumpinessWeight;
+
+	public Heuristic(double height, double lines, double holes, double bumpiness)	//Creates a heuristic with the given weights
+	{
+		heightWeight = height;
+		linesWeight = lines;
+		holesWeight = holes;
+		bumpinessWeight = bumpiness;
+	}
+
+	public double score(long[] bits, int height, int width, int lines)	//Scores a board reached by clearing lines rows
+	{
+		int aggregate = 0;
+		int holes = 0;
+		int bumpiness = 0;
+		int previous = -1;	//Height of the column to the left
+		long covered = 0;	//Columns that have a filled square above the current row
+		for (int r = 0; r < height; r++)
+		{
+			holes += Long.bitCount(covered & ~bits[r]);
+			covered |= bits[r];
+		}
+		for (int c = 0; c < width; c++)
+		{
+			int top = 0;
+			while (top < height && (bits[top] & (1L << c)) == 0)
+				top++;
+			int columnHeight = height - top;
+			aggregate += columnHeight;
+			if (previous >= 0)
+				bumpiness += Math.abs(columnHeight - previous);
+			previous = columnHeight;
+		}
+		return heightWeight*aggregate + linesWeight*lines + holesWeight*holes + bumpinessWeight*bumpiness;
+	}
+
+	public double linesScore(int lines)	//The part of the score that comes from clearing lines rows
+	{
+		return linesWeight*lines;
+	}
+}
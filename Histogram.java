@@ -0,0 +1,93 @@
+package Version7;
+
+import java.util.concurrent.atomic.*;
+
+/* This class counts how often values fall in log-linear buckets, the way HdrHistogram does, so that
+ * percentiles of frame times or latencies can be read back without keeping every value. Values below
+ * 64 get a bucket each; above that every power of two is split into 32 equal buckets, so a value is
+ * known to within about 3% however large it is, and every long fits in 1888 buckets. Recording is a
+ * few shifts and one counter write, and allocates nothing.
+ *
+ * Only one thread may record into a histogram, but any thread can read it while it is being recorded
+ * into: each count is written as a whole, so a reader sees every value recorded up to some moment,
+ * give or take the values being recorded at the time. */
+
+public final class Histogram {
+
+	private static final int SUB_BITS = 5;	//Each power of two is split into 2^SUB_BITS buckets
+	private static final int SUB = 1 << SUB_BITS;
+	private static final int BUCKETS = (64 - SUB_BITS)*SUB;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private volatile long count;	//Values recorded
+	private volatile long total;	//Sum of the values recorded
+	private volatile long max;
+
+	public void record(long value)	//Adds a value, negative values count as 0. Call from the recording thread only
+	{
+		if (value < 0)
+			value = 0;
+		int i = index(value);
+		counts.lazySet(i, counts.get(i) + 1);
+		total += value;
+		if (value > max)
+			max = value;
+		count++;	//Last, so a reader that sees the count sees the value in its bucket
+	}
+
+	static int index(long value)	//Bucket a value is counted in
+	{
+		if (value < 2*SUB)
+			return (int) value;
+		int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;	//At least 1
+		return (shift << SUB_BITS) + (int) (value >>> shift);
+	}
+
+	static long highest(int index)	//Largest value counted in a bucket
+	{
+		if (index < 2*SUB)
+			return index;
+		int shift = (index >>> SUB_BITS) - 1;
+		long mantissa = (index & (SUB - 1)) + SUB;
+		return ((mantissa + 1) << shift) - 1;
+	}
+
+	public long getCount()
+	{
+		return count;
+	}
+
+	public long getMax()
+	{
+		return max;
+	}
+
+	public double getMean()	//Mean of the values recorded, 0 if there are none
+	{
+		long n = count;
+		return n == 0 ? 0 : (double) total/n;
+	}
+
+	public long getValueAtPercentile(double percentile)	//Smallest value that the given percentage of the values are at or below, to within a bucket. 0 if nothing has been recorded
+	{
+		long n = count;
+		if (n == 0)
+			return 0;
+		long rank = Math.max(1, (long) Math.ceil(percentile/100*n));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++)
+		{
+			seen += counts.get(i);
+			if (seen >= rank)
+				return Math.min(highest(i), max);
+		}
+		return max;	//Values recorded while reading are not all in the buckets yet
+	}
+
+	public String summary()	//Count, mean and the usual percentiles on one line
+	{
+		return String.format("n=%d mean=%.0f p50=%d p90=%d p99=%d p99.9=%d max=%d", getCount(), getMean(),
+				getValueAtPercentile(50), getValueAtPercentile(90), getValueAtPercentile(99),
+				getValueAtPercentile(99.9), getMax());
+	}
+}
@@ -0,0 +1,77 @@
+package Version7;
+
+import java.util.concurrent.atomic.*;
+
+/* This class passes timestamped input events from any number of threads (the AWT event thread, the
+ * bot) to the one game loop thread that reads them. It is a fixed ring of slots, each with a sequence
+ * number saying whether it is free for the producer claiming it or full for the consumer, so neither
+ * side ever locks and nothing is allocated per event. A producer claims a slot by moving the tail on
+ * with a compare-and-set, writes the event, then publishes it by setting the slot's sequence number;
+ * the consumer frees the slot the same way once it has read it. When every slot is full, offer fails
+ * instead of waiting. */
+
+public final class InputQueue {
+
+	public static final int RELEASE = 0x10;	//Flag on an event for a key being let go, without it the event is a press
+
+	private final int mask;	//Number of slots minus one
+	private final long[] times;	//Game time of each event
+	private final int[] events;	//Action of each event, with RELEASE for a release
+	private final AtomicLongArray sequence;	//Position a slot can be written at, or that position + 1 once it is written
+	private final AtomicLong tail = new AtomicLong();	//Next position to write
+	private long head = 0;	//Next position to read, only used by the consumer
+	private long polledTime;	//Event read by the last poll
+	private int polledEvent;
+
+	public InputQueue(int bits)	//Creates a queue with 2^bits slots
+	{
+		int capacity = 1 << bits;
+		mask = capacity - 1;
+		times = new long[capacity];
+		events = new int[capacity];
+		sequence = new AtomicLongArray(capacity);
+		for (int i = 0; i < capacity; i++)
+			sequence.set(i, i);
+	}
+
+	public boolean offer(long time, int event)	//Adds an event from any thread, returns false if the queue is full
+	{
+		long position;
+		while (true)
+		{
+			position = tail.get();
+			long seq = sequence.get((int) position & mask);
+			if (seq < position)	//The consumer has not freed this slot yet
+				return false;
+			if (seq == position && tail.compareAndSet(position, position + 1))
+				break;
+		}
+		int slot = (int) position & mask;
+		times[slot] = time;
+		events[slot] = event;
+		sequence.set(slot, position + 1);	//Publishes the event to the consumer
+		return true;
+	}
+
+	public boolean poll()	//Reads the oldest event, call from the consumer thread only. Returns false if there is none
+	{
+		int slot = (int) head & mask;
+		if (sequence.get(slot) != head + 1)
+			return false;
+		polledTime = times[slot];
+		polledEvent = events[slot];
+		sequence.set(slot, head + mask + 1);	//Frees the slot for the producer one lap later
+		head++;
+		return true;
+	}
+
+	public long getTime()	//Game time of the event read by the last poll
+	{
+		return polledTime;
+	}
+
+	public int getEvent()	//Event read by the last poll
+	{
+		return polledEvent;
+	}
+}
@@ -3,7 +3,9 @@
 public class Main {
 	public static void main (String[] args)
 	{
-		ProgramWindow frame = new ProgramWindow();
+		int width = args.length > 0 ? Integer.parseInt(args[0]) : Tetris.WIDTH;	//Board size, e.g. 20 40
+		int height = args.length > 1 ? Integer.parseInt(args[1]) : Tetris.HEIGHT;
+		ProgramWindow frame = new ProgramWindow(width, height);
 	}
 }
  
\ No newline at end of file
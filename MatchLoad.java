@@ -0,0 +1,235 @@
+package Version7;
+
+import java.io.*;
+import java.lang.management.*;
+import java.net.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.*;
+
+/* This class loads a MatchServer the way a ladder of bots would: it opens a number of sessions, starts
+ * a game on each, and has every session play a random action at a steady rate, starting a new game
+ * when one is lost. Every client waits for the reply to its last line before sending the next, and
+ * the time from sending a line to reading its reply is the action latency, kept in a Histogram in
+ * microseconds. All the clients run on one thread with a Selector, so they don't compete with the
+ * server's sessions for threads.
+ *
+ * Without a port it starts a server in this JVM and also reports how busy the server kept the CPU:
+ * the process's CPU time less this thread's, over the run, as cores, and the sessions each core held
+ * at that rate. The first second is warm-up and is not counted.
+ *
+ * Usage: java Version7.MatchLoad [sessions] [seconds] [actions a second per session] [port] */
+
+public class MatchLoad {
+
+	private static final int LINE = 1024;	//Longest reply read, enough for a state line of the default board
+	private static final byte[][] ACTIONS = {ascii("L\n"), ascii("L\n"), ascii("R\n"), ascii("R\n"),
+			ascii("CW\n"), ascii("CCW\n"), ascii("SOFT\n"), ascii("HARD\n")};	//Sent at random, a hard drop one time in eight
+
+	private static final class Client	//One connection's state, only used by the load thread
+	{
+		SocketChannel channel;
+		final ByteBuffer in = ByteBuffer.allocate(LINE);
+		final ByteBuffer out = ByteBuffer.allocate(32);
+		long sentNanos;	//When the line waiting for a reply was sent, 0 if none is
+		boolean timed;	//Whether that line counts towards the latency
+		long nextNanos;	//When the next action is due
+		boolean playing, newGame;	//Said HELLO, and needs a NEW before its next action
+	}
+
+	private final Histogram latency = new Histogram();
+	private final Random random = new Random(42);
+	private long answered, locks, games, busy, errors;
+	private boolean counting;	//Past the warm-up, latencies are recorded
+
+	private static byte[] ascii(String s)
+	{
+		return s.getBytes(java.nio.charset.StandardCharsets.US_ASCII);
+	}
+
+	public static void main(String[] args) throws IOException
+	{
+		int sessions = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+		int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+		int rate = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+		MatchServer server = null;
+		int port;
+		if (args.length > 3)
+			port = Integer.parseInt(args[3]);
+		else
+		{
+			server = new MatchServer(0, sessions);
+			server.start();
+			port = server.getPort();
+		}
+		new MatchLoad().run(sessions, seconds, rate, port, server);
+		if (server != null)
+			server.close();
+	}
+
+	private void run(int sessions, int seconds, int rate, int port, MatchServer server) throws IOException
+	{
+		Selector selector = Selector.open();
+		Client[] clients = new Client[sessions];
+		InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), port);
+		long interval = 1000000000L / rate;
+		long begin = System.nanoTime();
+		for (int i = 0; i < sessions; i++)
+		{
+			Client c = new Client();
+			c.channel = SocketChannel.open(address);
+			c.channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+			c.channel.configureBlocking(false);
+			c.channel.register(selector, SelectionKey.OP_READ, c);
+			c.nextNanos = begin + random.nextInt((int) Math.min(Integer.MAX_VALUE, interval));	//Spread the clients out over an interval
+			clients[i] = c;
+		}
+		System.out.printf("%d sessions open in %d ms, server on %s threads%n", sessions, (System.nanoTime() - begin)/1000000,
+				MatchServer.hasVirtualThreads() ? "virtual" : "platform");
+
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		long start = System.nanoTime() + 1000000000L;	//After the warm-up
+		long stop = start + seconds*1000000000L;
+		long startCpu = 0, startOwnCpu = 0, startAnswered = 0;
+		while (true)
+		{
+			long now = System.nanoTime();
+			if (!counting && now >= start)
+			{
+				counting = true;
+				startCpu = processCpuTime();
+				startOwnCpu = threads.getCurrentThreadCpuTime();
+				startAnswered = answered;
+			}
+			if (now >= stop)
+				break;
+			selector.select(1);
+			Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+			while (keys.hasNext())
+			{
+				SelectionKey key = keys.next();
+				keys.remove();
+				read((Client) key.attachment(), key);
+			}
+			now = System.nanoTime();
+			for (Client c : clients)
+				if (c.playing && c.sentNanos == 0 && now >= c.nextNanos)
+				{
+					if (c.newGame)
+					{
+						c.newGame = false;
+						games++;
+						send(c, ascii("NEW " + random.nextLong() + "\n"), false, now);
+					}
+					else
+						send(c, ACTIONS[random.nextInt(ACTIONS.length)], true, now);
+					c.nextNanos = Math.max(c.nextNanos + interval, now - interval);
+				}
+		}
+		double wall = (System.nanoTime() - start)/1e9;
+		long ownCpu = threads.getCurrentThreadCpuTime() - startOwnCpu;
+		long serverCpu = processCpuTime() - startCpu - ownCpu;
+		System.out.printf("%d s: %d actions answered (%.0f/s), %d LOCK lines, %d games, %d turned away, %d errors%n",
+				seconds, answered - startAnswered, (answered - startAnswered)/wall, locks, games, busy, errors);
+		System.out.println("action latency us: " + latency.summary());
+		System.out.printf("load thread CPU %.2f cores%n", ownCpu/1e9/wall);
+		if (server != null && startCpu >= 0 && serverCpu > 0)
+		{
+			double cores = serverCpu/1e9/wall;
+			System.out.printf("server CPU %.2f of %d cores, %.0f sessions per core%n", cores,
+					Runtime.getRuntime().availableProcessors(), server.getActive()/cores);
+		}
+		for (Client c : clients)
+			c.channel.close();
+		selector.close();
+	}
+
+	private void send(Client c, byte[] line, boolean timed, long now) throws IOException	//Sends a line, which then waits for its reply
+	{
+		c.out.clear();
+		c.out.put(line).flip();
+		c.channel.write(c.out);
+		if (c.out.hasRemaining())	//The server isn't reading, leave this session stuck rather than buffer
+			errors++;
+		c.sentNanos = now;
+		c.timed = timed;
+	}
+
+	private void read(Client c, SelectionKey key) throws IOException	//Takes every whole line a client has been sent
+	{
+		int n = c.channel.read(c.in);
+		if (n < 0)
+		{
+			key.cancel();
+			c.playing = false;
+			return;
+		}
+		ByteBuffer in = c.in;
+		in.flip();
+		int lineStart = 0;
+		for (int i = 0; i < in.limit(); i++)
+			if (in.get(i) == '\n')
+			{
+				line(c, in, lineStart);
+				lineStart = i + 1;
+			}
+		in.position(lineStart);
+		in.compact();
+		if (!in.hasRemaining())	//A line longer than the buffer, drop it
+			in.clear();
+	}
+
+	private void line(Client c, ByteBuffer in, int at)	//Handles one line from the server by its first letter
+	{
+		switch (in.get(at))
+		{
+			case 'H':	//HELLO
+				c.playing = true;
+				c.newGame = true;
+				break;
+			case 'B':	//BUSY
+				busy++;
+				break;
+			case 'L':	//LOCK
+				locks++;
+				if (lost(in, at))
+					c.newGame = true;
+				break;
+			case 'S':	//STATE
+				reply(c);
+				if (lost(in, at))
+					c.newGame = true;
+				break;
+			default:	//ERR
+				errors++;
+				reply(c);
+		}
+	}
+
+	private void reply(Client c)	//Counts the reply to the line waiting for one
+	{
+		if (c.sentNanos == 0)
+			return;
+		if (c.timed && counting)
+			latency.record((System.nanoTime() - c.sentNanos)/1000);
+		answered++;
+		c.sentNanos = 0;
+	}
+
+	private static boolean lost(ByteBuffer in, int at)	//Reads the lost flag of a state line, after its second space
+	{
+		int spaces = 0;
+		for (int i = at; i < in.limit(); i++)
+			if (in.get(i) == ' ' && ++spaces == 2)
+				return in.get(i + 1) == '1';
+		return false;
+	}
+
+	private static long processCpuTime()	//CPU time of this process in nanoseconds, -1 if the JVM doesn't say
+	{
+		OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+		if (os instanceof com.sun.management.OperatingSystemMXBean)
+			return ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime();
+		return -1;
+	}
+}
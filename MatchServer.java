@@ -0,0 +1,197 @@
+package Version7;
+
+import java.io.*;
+import java.lang.reflect.*;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/* This class hosts headless games for bots over TCP, one game per connection, thousands at a time.
+ * Each connection is a MatchSession running on its own virtual thread when the JVM has them (Java 21
+ * on), found by reflection so the game still builds and runs on Java 17, where each session gets a
+ * platform thread with a small stack instead. A session thread blocks reading its socket, with a
+ * timeout set to the game's next gravity step or lock, so a game waiting on its bot takes no thread
+ * time and needs no timer of its own.
+ *
+ * The protocol is lines of ASCII text. The server starts with "HELLO tetris 2", or "BUSY" before
+ * closing when it already has as many sessions as it takes. The client then sends NEW [seed] to start
+ * a game, one of L, R, CW, CCW, SOFT, FIRM, HARD, HOLD to play an action, STATE to ask for the state
+ * or BYE to leave, and gets one line back for every line it sends: the state of the game, or ERR and
+ * a reason. A state line reads
+ *
+ *   STATE time lost piece row col held next pieces lines level rows
+ *
+ * with the game time in milliseconds, lost 0 or 1, the falling piece's PieceTable index and
+ * position, the held type (-1 for none), the next MatchSession.PREVIEW types as digits, pieces
+ * locked, rows cleared in the whole game, the level counting from 0, and the board's rows from its
+ * top filled row down as hex bitboards, separated by commas ('-' for an empty board). When gravity
+ * locks a piece while the client is quiet the server sends the same line starting with LOCK instead.
+ *
+ * Slow clients are held back rather than buffered for: a session reads one line at a time and writes
+ * its reply before reading the next, so a client that doesn't read its replies stops being read once
+ * the socket buffers fill, and a session sends at most MatchSession.MAX_UNREAD LOCK lines between two
+ * lines from the client. Lines longer than MatchSession.MAX_LINE close the connection.
+ *
+ * Usage: java Version7.MatchServer [port] [max sessions] */
+
+public class MatchServer implements Runnable, Closeable {
+
+	public static final int PORT = 7780;
+	public static final int PROTOCOL = 2;	//Version sent in HELLO, 2 added the level and made the rows a game total
+	public static final int MAX_SESSIONS = 10000;	//Default limit on sessions at once
+	private static final int PLATFORM_STACK = 256*1024;	//Stack size of session threads when there are no virtual threads
+
+	private final ServerSocket server;
+	private final int maxSessions;
+	private final ThreadFactory sessionThreads = sessionThreads();
+	private final Set<Socket> sockets = ConcurrentHashMap.newKeySet();	//Connections with a session, for close()
+	private final AtomicInteger active = new AtomicInteger();	//Sessions running
+	private final LongAdder accepted = new LongAdder();
+	private final LongAdder rejected = new LongAdder();	//Connections turned away with BUSY
+	final LongAdder actions = new LongAdder();	//Lines answered by every session, counted by the sessions
+	private volatile boolean running = true;
+	private Thread thread;
+
+	public MatchServer(int port, int maxSessions) throws IOException	//Opens the server socket on the loopback interface, start() accepts connections. Port 0 picks a free port
+	{
+		server = new ServerSocket(port, 1024, InetAddress.getLoopbackAddress());
+		this.maxSessions = maxSessions;
+	}
+
+	public void start()	//Starts the thread accepting connections
+	{
+		thread = new Thread(this, "Match server");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	public void run()	//Accepts connections until closed, starting a session for each
+	{
+		while (running)
+		{
+			Socket socket;
+			try
+			{
+				socket = server.accept();
+			}
+			catch (IOException e)
+			{
+				if (running)
+					System.out.println("Match server stopped: " + e.getMessage());
+				return;
+			}
+			accepted.increment();
+			if (active.incrementAndGet() > maxSessions)
+			{
+				active.decrementAndGet();
+				rejected.increment();
+				refuse(socket);
+				continue;
+			}
+			sockets.add(socket);
+			sessionThreads.newThread(new MatchSession(this, socket)).start();
+		}
+	}
+
+	private static void refuse(Socket socket)	//Tells a client the server is full and hangs up
+	{
+		try
+		{
+			socket.getOutputStream().write("BUSY\n".getBytes("US-ASCII"));
+			socket.close();
+		}
+		catch (IOException e)
+		{
+		}
+	}
+
+	void ended(Socket socket)	//Called by a session as it finishes
+	{
+		sockets.remove(socket);
+		active.decrementAndGet();
+	}
+
+	public void close() throws IOException	//Stops accepting and hangs up on every session
+	{
+		running = false;
+		server.close();
+		for (Socket socket : sockets)
+			socket.close();
+	}
+
+	public int getPort()
+	{
+		return server.getLocalPort();
+	}
+
+	public int getActive()
+	{
+		return active.get();
+	}
+
+	public long getAccepted()
+	{
+		return accepted.sum();
+	}
+
+	public long getRejected()
+	{
+		return rejected.sum();
+	}
+
+	public long getActions()
+	{
+		return actions.sum();
+	}
+
+	public static boolean hasVirtualThreads()	//Whether sessions run on virtual threads in this JVM
+	{
+		return virtualThreads() != null;
+	}
+
+	private static ThreadFactory sessionThreads()	//Virtual threads if the JVM has them, small platform threads if not
+	{
+		ThreadFactory virtual = virtualThreads();
+		if (virtual != null)
+			return virtual;
+		final AtomicInteger count = new AtomicInteger();
+		return new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread th = new Thread(null, r, "Match session " + count.getAndIncrement(), PLATFORM_STACK);
+				th.setDaemon(true);
+				return th;
+			}
+		};
+	}
+
+	private static ThreadFactory virtualThreads()	//Thread.ofVirtual().name(...).factory() through reflection, null before Java 21
+	{
+		try
+		{
+			Class<?> builder = Class.forName("java.lang.Thread$Builder");
+			Object virtual = Thread.class.getMethod("ofVirtual").invoke(null);
+			virtual = builder.getMethod("name", String.class, long.class).invoke(virtual, "Match session ", 0L);
+			return (ThreadFactory) builder.getMethod("factory").invoke(virtual);
+		}
+		catch (ReflectiveOperationException | RuntimeException e)	//Missing, or a preview feature that isn't enabled
+		{
+			return null;
+		}
+	}
+
+	public static void main(String[] args) throws IOException, InterruptedException
+	{
+		int port = args.length > 0 ? Integer.parseInt(args[0]) : PORT;
+		int max = args.length > 1 ? Integer.parseInt(args[1]) : MAX_SESSIONS;
+		MatchServer server = new MatchServer(port, max);
+		server.start();
+		System.out.println("Match server on port " + server.getPort() + ", sessions on " + (hasVirtualThreads() ? "virtual" : "platform") + " threads");
+		while (true)
+		{
+			Thread.sleep(10000);
+			System.out.println(server.getActive() + " sessions, " + server.getAccepted() + " accepted, "
+					+ server.getRejected() + " turned away, " + server.getActions() + " lines answered");
+		}
+	}
+}
@@ -0,0 +1,234 @@
+package Version7;
+
+import java.io.*;
+import java.net.*;
+
+/* This class plays one connection to a MatchServer: it owns a TetrisEngine, reads the client's lines
+ * and answers each with the state of the game, as described in MatchServer. Game time runs with the
+ * wall clock from NEW. While it waits for a line the session's thread blocks in the socket read, with
+ * a timeout at the game's next deadline; when the timeout fires it advances the game, and tells the
+ * client if gravity locked a piece. Everything the session touches is its own, so sessions share
+ * nothing but the server's counters. */
+
+final class MatchSession implements Runnable {
+
+	static final int MAX_LINE = 128;	//Longest line a client may send, in bytes
+	static final int MAX_UNREAD = 4;	//Most LOCK lines sent between two lines from the client
+	static final int PREVIEW = 5;	//Next pieces shown in a state line
+	private static final int IDLE_TIMEOUT = 1000;	//Longest wait in one read, in milliseconds, when the game has no deadline
+
+	private final MatchServer server;
+	private final Socket socket;
+	private final byte[] buffer = new byte[MAX_LINE];	//Bytes read and not yet taken as lines, from start to end
+	private int start, end;
+	private final StringBuilder reply = new StringBuilder(256);
+	private InputStream in;
+	private OutputStream out;
+	private TetrisEngine engine;	//null until the first NEW
+	private long startNanos;	//System.nanoTime() the game started at
+	private int unread;	//LOCK lines sent since the client last sent a line
+
+	MatchSession(MatchServer server, Socket socket)
+	{
+		this.server = server;
+		this.socket = socket;
+	}
+
+	public void run()
+	{
+		try
+		{
+			socket.setTcpNoDelay(true);
+			in = socket.getInputStream();
+			out = new BufferedOutputStream(socket.getOutputStream(), 1024);
+			send("HELLO tetris " + MatchServer.PROTOCOL);
+			while (true)
+			{
+				String line = readLine();
+				if (line == null || !answer(line))
+					break;
+				unread = 0;
+				server.actions.increment();
+			}
+		}
+		catch (IOException e)	//The client went away, broke the protocol, or the server closed
+		{
+		}
+		finally
+		{
+			try
+			{
+				socket.close();
+			}
+			catch (IOException e)
+			{
+			}
+			server.ended(socket);
+		}
+	}
+
+	private String readLine() throws IOException	//Next line from the client without its line end, null once the client has closed. Plays the game between reads
+	{
+		while (true)
+		{
+			for (int i = start; i < end; i++)
+				if (buffer[i] == '\n')
+				{
+					int stop = i > start && buffer[i - 1] == '\r' ? i - 1 : i;
+					String line = new String(buffer, start, stop - start, "US-ASCII");
+					start = i + 1;
+					return line;
+				}
+			if (start > 0)	//Move the part of a line read so far to the front
+			{
+				System.arraycopy(buffer, start, buffer, 0, end - start);
+				end -= start;
+				start = 0;
+			}
+			if (end == buffer.length)
+				throw new IOException("Line too long");
+			socket.setSoTimeout(timeout());
+			try
+			{
+				int n = in.read(buffer, end, buffer.length - end);
+				if (n < 0)
+					return null;
+				end += n;
+			}
+			catch (SocketTimeoutException e)
+			{
+				tick();
+			}
+		}
+	}
+
+	private int timeout()	//Milliseconds until the game next needs a gravity step or lock
+	{
+		if (engine == null || engine.isLost())
+			return IDLE_TIMEOUT;
+		long wait = engine.nextDeadline() - now();
+		return (int) Math.max(1, Math.min(IDLE_TIMEOUT, wait));
+	}
+
+	private void tick() throws IOException	//Brings the game up to the wall clock, telling a client that keeps up when gravity locked a piece
+	{
+		if (engine == null || engine.isLost())
+			return;
+		int events = engine.advance(now());
+		if ((events & TetrisEngine.LOCKED) != 0 && unread < MAX_UNREAD)
+		{
+			unread++;
+			sendState("LOCK");
+		}
+	}
+
+	private boolean answer(String line) throws IOException	//Carries out one line from the client and replies to it, returns false if the client said BYE
+	{
+		String command = line.trim();
+		String argument = "";
+		int space = command.indexOf(' ');
+		if (space >= 0)
+		{
+			argument = command.substring(space + 1).trim();
+			command = command.substring(0, space);
+		}
+		switch (command)
+		{
+			case "BYE":
+				return false;
+			case "NEW":
+				long seed;
+				try
+				{
+					seed = argument.isEmpty() ? Zobrist.mix(System.nanoTime()) : Long.parseLong(argument);
+				}
+				catch (NumberFormatException e)
+				{
+					send("ERR bad seed");
+					return true;
+				}
+				if (engine == null)
+					engine = new TetrisEngine(seed);
+				else
+					engine.reset(seed);
+				startNanos = System.nanoTime();
+				sendState("STATE");
+				return true;
+		}
+		int action = command.equals("STATE") ? TetrisEngine.NONE : actionFor(command);
+		if (action < 0)
+			send("ERR unknown command " + command);
+		else if (engine == null)
+			send("ERR no game, send NEW first");
+		else
+		{
+			if (!engine.isLost())
+				engine.advance(now());
+			if (action != TetrisEngine.NONE && !engine.isLost())
+				engine.step(action);
+			sendState("STATE");
+		}
+		return true;
+	}
+
+	static int actionFor(String command)	//The engine action of a command, -1 if it isn't one
+	{
+		switch (command)
+		{
+			case "L":
+				return TetrisEngine.SHIFT_L;
+			case "R":
+				return TetrisEngine.SHIFT_R;
+			case "CW":
+				return TetrisEngine.ROTATE_CW;
+			case "CCW":
+				return TetrisEngine.ROTATE_CCW;
+			case "SOFT":
+				return TetrisEngine.SOFT_DROP;
+			case "FIRM":
+				return TetrisEngine.FIRM_DROP;
+			case "HARD":
+				return TetrisEngine.HARD_DROP;
+			case "HOLD":
+				return TetrisEngine.HOLD;
+		}
+		return -1;
+	}
+
+	private long now()	//Game time by the wall clock
+	{
+		return (System.nanoTime() - startNanos)/1000000;
+	}
+
+	private void sendState(String tag) throws IOException	//Sends the game as a STATE or LOCK line
+	{
+		TetrisPiece piece = engine.getPiece();
+		Tetris tetris = engine.getTetris();
+		reply.setLength(0);
+		reply.append(tag).append(' ').append(engine.getTime()).append(' ').append(engine.isLost() ? 1 : 0)
+				.append(' ').append(piece.getPiece()).append(' ').append(piece.getRow()).append(' ').append(piece.getCol())
+				.append(' ').append(engine.getHeldType()).append(' ');
+		for (int i = 1; i <= PREVIEW; i++)
+			reply.append(engine.peekType(i));
+		reply.append(' ').append(engine.getPiecesLocked()).append(' ').append(tetris.getTotalRowsCleared())
+				.append(' ').append(tetris.getLevel()).append(' ');
+		int top = tetris.getStackTop();
+		if (top >= tetris.getHeight())
+			reply.append('-');
+		for (int r = top; r < tetris.getHeight(); r++)
+		{
+			if (r > top)
+				reply.append(',');
+			reply.append(Long.toHexString(tetris.getRowBits(r)));
+		}
+		send(reply);
+	}
+
+	private void send(CharSequence line) throws IOException	//Writes a line and flushes it, blocking while the client isn't reading
+	{
+		for (int i = 0; i < line.length(); i++)
+			out.write(line.charAt(i));
+		out.write('\n');
+		out.flush();
+	}
+}
@@ -0,0 +1,185 @@
+package Version7;
+
+import java.io.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.concurrent.atomic.*;
+
+/* This class collects the numbers needed to explain a stutter: how long frames take to draw, how late
+ * the game loop wakes up for gravity steps, and how long a key press takes to reach the screen, each
+ * as a Histogram in microseconds, plus counts of what happened in the game. The game loop reports
+ * every change to the engine through update(), which also emits the matching GameEvents for Java
+ * Flight Recorder. The numbers are kept for the whole session, across games, and can be shown in the
+ * window or written to a file every so often. */
+
+public final class Metrics {
+
+	public final Histogram frameTime = new Histogram();	//Time to draw a frame, recorded by the render thread
+	public final Histogram gravityJitter = new Histogram();	//Time past a gravity step's deadline the game loop woke up, recorded by the game loop
+	public final Histogram inputLatency = new Histogram();	//Time from a key press to the first frame shown after it was applied, recorded by the render thread
+
+	private final LongAdder pieces = new LongAdder();	//Pieces locked
+	private final LongAdder lines = new LongAdder();	//Rows cleared
+	private final LongAdder clears = new LongAdder();	//Locks that cleared at least one row
+	private final LongAdder lockResets = new LongAdder();	//Moves that pushed a lock deadline back
+	private final LongAdder games = new LongAdder();	//Games started
+
+	private long seenLocked, seenResets, seenRows;	//Engine totals at the last update, only used by the game loop
+	private long resetsAtLock;	//Engine lock resets when the last piece locked
+	private int seenLevel;
+	private boolean seenOver;
+	private volatile int level;	//Level of the current game, counting from 1
+	private final long startNanos = System.nanoTime();
+	private Thread dumpThread;
+
+	public void beginGame(TetrisEngine engine)	//Starts counting a new game, call from the game loop
+	{
+		resync(engine);
+		games.increment();
+	}
+
+	public void resync(TetrisEngine engine)	//Carries on counting from where the engine is now, e.g. after it was put back to an earlier state. Call from the game loop
+	{
+		seenLocked = engine.getPiecesLocked();
+		seenResets = engine.getLockResets();
+		resetsAtLock = seenResets;
+		seenRows = engine.getTetris().getTotalRowsCleared();
+		seenLevel = engine.getTetris().getLevel();
+		seenOver = engine.isLost();
+		level = seenLevel + 1;
+	}
+
+	public void update(TetrisEngine engine, int events)	//Counts what the last step or advance of the engine did, given the events it returned. Call from the game loop
+	{
+		long locked = engine.getPiecesLocked();
+		long resets = engine.getLockResets();
+		if (locked != seenLocked)
+		{
+			pieces.add(locked - seenLocked);
+			seenLocked = locked;
+			GameEvents.Lock event = new GameEvents.Lock();
+			if (event.shouldCommit())
+			{
+				event.gameTime = engine.getTime();
+				event.piecesLocked = locked;
+				event.lockResets = (int) (resets - resetsAtLock);	//The next piece can't have moved yet in the step that locked this one
+				event.commit();
+			}
+			resetsAtLock = resets;
+		}
+		if (resets != seenResets)
+		{
+			lockResets.add(resets - seenResets);
+			seenResets = resets;
+		}
+		long rows = engine.getTetris().getTotalRowsCleared();
+		if (rows != seenRows)	//From the game's total, since an advance can lock and clear more than once
+		{
+			lines.add(rows - seenRows);
+			clears.increment();
+			GameEvents.Clear event = new GameEvents.Clear();
+			if (event.shouldCommit())
+			{
+				event.gameTime = engine.getTime();
+				event.rows = (int) (rows - seenRows);
+				event.commit();
+			}
+			seenRows = rows;
+		}
+		int newLevel = engine.getTetris().getLevel();
+		if (newLevel != seenLevel)
+		{
+			seenLevel = newLevel;
+			level = newLevel + 1;
+			GameEvents.LevelUp event = new GameEvents.LevelUp();
+			if (event.shouldCommit())
+			{
+				event.gameTime = engine.getTime();
+				event.level = newLevel + 1;
+				event.commit();
+			}
+		}
+		if ((events & TetrisEngine.GAME_OVER) != 0 && !seenOver)	//step keeps returning GAME_OVER once the game is lost
+		{
+			seenOver = true;
+			GameEvents.GameOver event = new GameEvents.GameOver();
+			if (event.shouldCommit())
+			{
+				event.gameTime = engine.getTime();
+				event.piecesLocked = locked;
+				event.seed = engine.getSeed();
+				event.commit();
+			}
+		}
+	}
+
+	public long getPieces()
+	{
+		return pieces.sum();
+	}
+
+	public long getLines()
+	{
+		return lines.sum();
+	}
+
+	public long getClears()
+	{
+		return clears.sum();
+	}
+
+	public long getLockResets()
+	{
+		return lockResets.sum();
+	}
+
+	public long getGames()
+	{
+		return games.sum();
+	}
+
+	public String[] report()	//Every number, a line each, for the overlay and the dump file
+	{
+		return new String[] {
+			String.format("level %d  games %d  pieces %d  lines %d  clears %d  lock resets %d",
+					level, getGames(), getPieces(), getLines(), getClears(), getLockResets()),
+			"frame us    " + frameTime.summary(),
+			"gravity us  " + gravityJitter.summary(),
+			"input us    " + inputLatency.summary()
+		};
+	}
+
+	public void startDump(final Path file, final long period)	//Appends a report to a file every period milliseconds until the program ends
+	{
+		if (dumpThread != null)
+			return;
+		dumpThread = new Thread(new Runnable(){
+			public void run(){
+				try
+				{
+					while (true)
+					{
+						Thread.sleep(period);
+						dump(file);
+					}
+				}
+				catch (IOException | InterruptedException e)
+				{
+					System.out.println("Metrics not written: " + e.getMessage());
+				}
+			}
+		}, "Tetris metrics");
+		dumpThread.setDaemon(true);
+		dumpThread.start();
+	}
+
+	public void dump(Path file) throws IOException	//Appends one report to a file, headed by the seconds since the metrics were made
+	{
+		StringBuilder text = new StringBuilder();
+		text.append(String.format("t=%.1fs%n", (System.nanoTime() - startNanos)/1e9));
+		for (String line : report())
+			text.append(line).append(System.lineSeparator());
+		Files.write(file, text.toString().getBytes(StandardCharsets.UTF_8),
+				StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+	}
+}
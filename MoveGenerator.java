@@ -0,0 +1,160 @@
+package Version7;
+
+/* This class finds every place a piece can lock. It searches breadth first over the positions of
+ * the piece (row, column and rotation) starting from where the piece spawns, moving it with exactly
+ * the rules of TetrisPiece: a shift left or right, a rotation either way with its wall kicks, or a
+ * soft drop one row down. So it also finds placements a plain drop down a column misses, like pieces
+ * slid under an overhang or spun into a gap. A position where the piece cannot go down any further
+ * is a place it can lock; positions that fill the same squares (e.g. the rotations of an O) are only
+ * reported once. The search remembers how it reached each position, so the moves that reach a
+ * placement can be read back. One generator reuses its arrays for every search, so it does not
+ * allocate, and it is not safe to share between threads. A generator works on boards of one size,
+ * given when it is made. */
+
+public class MoveGenerator {
+
+	private final int width;	//Size of the boards searched
+	private final int cols;	//Columns a piece's corner can be in, -3 to width
+
+	private final int[] seen;	//Search number that last reached each position
+	private final int[] parent;	//Position each position was first reached from
+	private final byte[] move;	//TetrisEngine action that reached it
+	private final int[] queue;
+	private final int[] placements;	//Positions the piece can lock at, one per set of squares
+	private final long[] keys;	//Squares filled by each placement
+	private int search = 0;	//Number of the current search, so seen never has to be cleared
+	private int count = 0;	//Number of placements found by the last search
+	private int type;	//Type searched last
+
+	public MoveGenerator()	//Creates a generator for the default board
+	{
+		this(Tetris.WIDTH, Tetris.HEIGHT);
+	}
+
+	public MoveGenerator(int width, int height)	//Creates a generator for boards of a size
+	{
+		this.width = width;
+		cols = width + 4;
+		int states = (height + 1) * cols * PieceTable.ROTATIONS;	//Rows -1 to height-1
+		seen = new int[states];
+		parent = new int[states];
+		move = new byte[states];
+		queue = new int[states];
+		placements = new int[states];
+		keys = new long[states];
+	}
+
+	public int generate(long[] bits, int pieceType)	//Finds every placement of a new piece of a type, returns how many there are
+	{
+		type = pieceType;
+		count = 0;
+		search++;
+		int head = 0, tail = 0;
+		int spawnCol = TetrisPiece.spawnCol(width);
+		if (!TetrisPiece.noCollisions(bits, 0, width, PieceTable.index(type, 0), TetrisPiece.SPAWN_ROW, spawnCol))
+			return 0;
+		int start = state(TetrisPiece.SPAWN_ROW, spawnCol, 0);
+		seen[start] = search;
+		parent[start] = -1;
+		queue[tail++] = start;
+		while (head < tail)
+		{
+			int s = queue[head++];
+			int row = row(s), col = col(s), rotation = rotation(s);
+			int piece = PieceTable.index(type, rotation);
+			if (TetrisPiece.noCollisions(bits, 0, width, piece, row, col - 1))
+				tail = visit(s, state(row, col - 1, rotation), TetrisEngine.SHIFT_L, tail);
+			if (TetrisPiece.noCollisions(bits, 0, width, piece, row, col + 1))
+				tail = visit(s, state(row, col + 1, rotation), TetrisEngine.SHIFT_R, tail);
+			int cw = (rotation + 1)%4;
+			int kicked = TetrisPiece.kickedCol(bits, 0, width, PieceTable.index(type, cw), row, col, TetrisPiece.CW_KICK);
+			if (kicked != TetrisPiece.NO_FIT)
+				tail = visit(s, state(row, kicked, cw), TetrisEngine.ROTATE_CW, tail);
+			int ccw = (rotation + 3)%4;
+			kicked = TetrisPiece.kickedCol(bits, 0, width, PieceTable.index(type, ccw), row, col, TetrisPiece.CCW_KICK);
+			if (kicked != TetrisPiece.NO_FIT)
+				tail = visit(s, state(row, kicked, ccw), TetrisEngine.ROTATE_CCW, tail);
+			if (TetrisPiece.noCollisions(bits, 0, width, piece, row + 1, col))
+				tail = visit(s, state(row + 1, col, rotation), TetrisEngine.SOFT_DROP, tail);
+			else
+				addPlacement(s, placementKey(piece, row, col));	//Grounded, the piece can lock here
+		}
+		return count;
+	}
+
+	private int visit(int from, int to, int action, int tail)	//Queues a position the first time it is reached
+	{
+		if (seen[to] == search)
+			return tail;
+		seen[to] = search;
+		parent[to] = from;
+		move[to] = (byte) action;
+		queue[tail] = to;
+		return tail + 1;
+	}
+
+	private void addPlacement(int s, long key)
+	{
+		for (int i = 0; i < count; i++)
+			if (keys[i] == key)
+				return;
+		keys[count] = key;
+		placements[count++] = s;
+	}
+
+	public int getPiece(int i)	//Index in PieceTable of placement i of the last search
+	{
+		return PieceTable.index(type, rotation(placements[i]));
+	}
+
+	public int getRow(int i)
+	{
+		return row(placements[i]);
+	}
+
+	public int getCol(int i)
+	{
+		return col(placements[i]);
+	}
+
+	public int path(int i, int[] actions)	//Writes the TetrisEngine actions that move a new piece to placement i, returns how many there are
+	{
+		int length = 0;
+		for (int s = placements[i]; parent[s] >= 0; s = parent[s])
+			length++;
+		int n = length;
+		for (int s = placements[i]; parent[s] >= 0; s = parent[s])
+			actions[--n] = move[s];
+		return length;
+	}
+
+	static long placementKey(int piece, int row, int col)	//Identifies the squares a placement fills, so rotations with the same shape count once
+	{
+		long shape = 0;
+		int minRow = PieceTable.minRow(piece);
+		int minCol = PieceTable.minCol(piece);
+		for (int r = minRow; r <= PieceTable.maxRow(piece); r++)
+			shape |= (PieceTable.rowMask(piece, r) >>> minCol) << (4*(r - minRow));
+		return ((long)(row + minRow + 8) << 24) | ((long)(col + minCol + 8) << 16) | shape;
+	}
+
+	private int state(int row, int col, int rotation)
+	{
+		return ((row + 1)*cols + col + 3)*PieceTable.ROTATIONS + rotation;
+	}
+
+	private int row(int s)
+	{
+		return s / (cols*PieceTable.ROTATIONS) - 1;
+	}
+
+	private int col(int s)
+	{
+		return (s / PieceTable.ROTATIONS) % cols - 3;
+	}
+
+	private static int rotation(int s)
+	{
+		return s % PieceTable.ROTATIONS;
+	}
+}
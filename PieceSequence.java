@@ -0,0 +1,113 @@
+package Version7;
+
+/* This class deals the pieces of one game. Pieces come in bags of all seven types in a random order,
+ * and each bag is shuffled with exactly six draws from a SplitMix64 stream started from the game's
+ * seed, so the same seed always deals the same game. Because a SplitMix64 stream moves by a fixed
+ * step per draw, the stream of any bag can be found without shuffling the bags before it, which lets
+ * jump() skip any number of bags at once. Pieces are shuffled a bag at a time into a ring buffer, so
+ * pieces can be looked at long before they are dealt, across as many bags as the buffer holds, and
+ * neither dealing a piece nor copying a sequence allocates. split() gives a new sequence with its
+ * own seed taken from this one, for running many reproducible games side by side. */
+
+public class PieceSequence {
+
+	public static final int MAX_PEEK = 56;	//Furthest ahead peek can look, in pieces
+
+	private static final long GOLDEN = 0x9E3779B97F4A7C15L;	//SplitMix64 step per draw
+	private static final int DRAWS_PER_BAG = 6;	//Draws made by one Fisher-Yates shuffle of seven pieces
+	private static final int CAPACITY = 63;	//Size of the ring buffer, whole bags and at least MAX_PEEK + 7 so the next piece is never overwritten
+
+	private long seed;	//Stream state at the start of the first bag
+	private final int[] buffer = new int[CAPACITY];	//Shuffled pieces, position i in the game is at i % CAPACITY
+	private long dealt = 0;	//Number of pieces dealt
+	private long shuffled = 0;	//Number of pieces shuffled into the buffer, always a whole number of bags
+	private long splits = 0;	//Number of sequences split off
+
+	public PieceSequence(long seed)	//Creates the sequence of a game
+	{
+		this.seed = seed;
+	}
+
+	public long getSeed()
+	{
+		return seed;
+	}
+
+	public void copyFrom(PieceSequence other)	//Makes this sequence deal exactly what another will from now on, without allocating
+	{
+		seed = other.seed;
+		System.arraycopy(other.buffer, 0, buffer, 0, CAPACITY);
+		dealt = other.dealt;
+		shuffled = other.shuffled;
+		splits = other.splits;
+	}
+
+	void seek(long seed, long dealt)	//Makes this the sequence of a seed with a number of pieces dealt, which is all RewindBuffer keeps of it
+	{
+		this.seed = seed;
+		this.dealt = dealt;
+		shuffled = dealt - dealt % 7;	//The bag the next piece is in is shuffled again when it is needed
+	}
+
+	public int next()	//Deals the next piece
+	{
+		fill(dealt);
+		return buffer[(int) (dealt++ % CAPACITY)];
+	}
+
+	public int peek(int n)	//Looks at the piece n places after the next one without dealing anything, peek(0) is the next piece
+	{
+		if (n < 0 || n > MAX_PEEK)
+			throw new IllegalArgumentException("Can only peek 0 to " + MAX_PEEK + " pieces ahead");
+		fill(dealt + n);
+		return buffer[(int) ((dealt + n) % CAPACITY)];
+	}
+
+	public long getDealt()	//Returns the number of pieces dealt
+	{
+		return dealt;
+	}
+
+	public void jump(long bags)	//Throws away the rest of the current bag and then skips that many whole bags, without shuffling them
+	{
+		long bag = (dealt + 6)/7 + bags;	//First bag not touched yet, then skip
+		dealt = bag*7;
+		shuffled = dealt;
+	}
+
+	public PieceSequence split()	//Makes a new sequence that does not overlap this one, without changing this one
+	{
+		return new PieceSequence(splitSeed(seed, ++splits));
+	}
+
+	static long splitSeed(long seed, long n)	//Seed of the nth sequence split off a sequence with a seed, counting from 1
+	{
+		return Zobrist.mix(seed ^ Zobrist.mix(n*GOLDEN));
+	}
+
+	private void fill(long position)	//Shuffles bags into the buffer until the piece at position is in it
+	{
+		while (shuffled <= position)
+		{
+			int bag = bag(seed, shuffled/7);
+			int start = (int) (shuffled % CAPACITY);
+			for (int i = 0; i < 7; i++)
+				buffer[start + i] = (bag >>> 4*i) & 15;
+			shuffled += 7;
+		}
+	}
+
+	static int bag(long seed, long n)	//Shuffles bag n of the sequence with a seed, returns the seven types packed four bits each, the first to be dealt lowest
+	{
+		long state = seed + n*DRAWS_PER_BAG*GOLDEN;	//Stream state at the start of this bag
+		int bag = 0x7654321;	//Types 1 to 7 in order
+		for (int i = 6; i > 0; i--)	//Fisher-Yates shuffle
+		{
+			state += GOLDEN;
+			int j = (int) (((Zobrist.mix(state) >>> 32)*(i + 1)) >>> 32);	//Uniform in 0 to i
+			int swap = ((bag >>> 4*i) ^ (bag >>> 4*j)) & 15;
+			bag ^= (swap << 4*i) | (swap << 4*j);
+		}
+		return bag;
+	}
+}
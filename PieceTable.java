@@ -0,0 +1,178 @@
+package Version7;
+
+/*
+ * This class holds the shapes of every type of piece in every rotation. Each (type, rotation) pair
+ * is given one index, and everything the game needs to know about that configuration is kept in
+ * plain arrays under that index: the four squares, a bitmask for each row, the bounding box and the
+ * lowest square of each column. The tables are built once when the class loads and are never changed
+ * afterwards, so looking up a piece never allocates or hashes anything. Since each piece type has a
+ * unique colour, the integers for types are also used for colour.
+ */
+
+public final class PieceTable {
+
+	public static final int TYPES = 7;	//Number of piece types, numbered 1 to 7
+	public static final int ROTATIONS = 4;	//Number of rotations of each type
+	public static final int SIZE = 4;	//Size of the grid a piece is drawn in
+	public static final int CELLS = 4;	//Number of squares in a piece
+
+	private static final int[][][] shapes = {	//Hard code the types of pieces and their rotations
+		{{0,0,0,0}, {1,1,1,1}, {0,0,0,0}, {0,0,0,0}},
+		{{0,0,1,0}, {0,0,1,0}, {0,0,1,0}, {0,0,1,0}},
+		{{0,0,0,0}, {0,0,0,0}, {1,1,1,1}, {0,0,0,0}},
+		{{0,1,0,0}, {0,1,0,0}, {0,1,0,0}, {0,1,0,0}},
+
+		{{0,0,0,0}, {2,0,0,0}, {2,2,2,0}, {0,0,0,0}},
+		{{0,0,0,0}, {0,2,2,0}, {0,2,0,0}, {0,2,0,0}},
+		{{0,0,0,0}, {0,0,0,0}, {2,2,2,0}, {0,0,2,0}},
+		{{0,0,0,0}, {0,2,0,0}, {0,2,0,0}, {2,2,0,0}},
+
+		{{0,0,0,0}, {0,0,3,0}, {3,3,3,0}, {0,0,0,0}},
+		{{0,0,0,0}, {0,3,0,0}, {0,3,0,0}, {0,3,3,0}},
+		{{0,0,0,0}, {0,0,0,0}, {3,3,3,0}, {3,0,0,0}},
+		{{0,0,0,0}, {3,3,0,0}, {0,3,0,0}, {0,3,0,0}},
+
+		{{0,0,0,0}, {0,4,4,0}, {0,4,4,0}, {0,0,0,0}},
+		{{0,0,0,0}, {0,4,4,0}, {0,4,4,0}, {0,0,0,0}},
+		{{0,0,0,0}, {0,4,4,0}, {0,4,4,0}, {0,0,0,0}},
+		{{0,0,0,0}, {0,4,4,0}, {0,4,4,0}, {0,0,0,0}},
+
+		{{0,0,0,0}, {0,5,5,0}, {5,5,0,0}, {0,0,0,0}},
+		{{0,0,0,0}, {0,5,0,0}, {0,5,5,0}, {0,0,5,0}},
+		{{0,0,0,0}, {0,5,5,0}, {5,5,0,0}, {0,0,0,0}},
+		{{0,0,0,0}, {0,5,0,0}, {0,5,5,0}, {0,0,5,0}},
+
+		{{0,0,0,0}, {0,6,0,0}, {6,6,6,0}, {0,0,0,0}},
+		{{0,0,0,0}, {0,6,0,0}, {0,6,6,0}, {0,6,0,0}},
+		{{0,0,0,0}, {0,0,0,0}, {6,6,6,0}, {0,6,0,0}},
+		{{0,0,0,0}, {0,6,0,0}, {6,6,0,0}, {0,6,0,0}},
+
+		{{0,0,0,0}, {7,7,0,0}, {0,7,7,0}, {0,0,0,0}},
+		{{0,0,0,0}, {0,0,7,0}, {0,7,7,0}, {0,7,0,0}},
+		{{0,0,0,0}, {7,7,0,0}, {0,7,7,0}, {0,0,0,0}},
+		{{0,0,0,0}, {0,0,7,0}, {0,7,7,0}, {0,7,0,0}}
+	};
+
+	private static final int count = (TYPES + 1) * ROTATIONS;	//Index 0 to 3 is left empty so type 1 starts at index 4
+	private static final int[] cellRows = new int[count * CELLS];	//Row and column of every square inside the 4x4 grid
+	private static final int[] cellCols = new int[count * CELLS];
+	private static final long[] rowMasks = new long[count * SIZE];	//Bitmask of each row of the grid, bit c is column c
+	private static final int[] bottoms = new int[count * SIZE];	//Lowest filled row of each column of the grid, -1 if the column is empty
+	private static final int[] minRows = new int[count];	//Bounding box of the filled squares
+	private static final int[] maxRows = new int[count];
+	private static final int[] minCols = new int[count];
+	private static final int[] maxCols = new int[count];
+
+	static {	//Work out every table from the hard coded shapes
+		for (int p = ROTATIONS; p < count; p++)
+		{
+			int[][] conf = shapes[p - ROTATIONS];
+			int cell = 0;
+			minRows[p] = SIZE;
+			maxRows[p] = -1;
+			minCols[p] = SIZE;
+			maxCols[p] = -1;
+			for (int c = 0; c < SIZE; c++)
+				bottoms[p*SIZE + c] = -1;
+			for (int r = 0; r < SIZE; r++)
+				for (int c = 0; c < SIZE; c++)
+				{
+					if (conf[r][c] == 0)
+						continue;
+					cellRows[p*CELLS + cell] = r;
+					cellCols[p*CELLS + cell] = c;
+					cell++;
+					rowMasks[p*SIZE + r] |= 1L << c;
+					bottoms[p*SIZE + c] = r;
+					minRows[p] = Math.min(minRows[p], r);
+					maxRows[p] = Math.max(maxRows[p], r);
+					minCols[p] = Math.min(minCols[p], c);
+					maxCols[p] = Math.max(maxCols[p], c);
+				}
+		}
+	}
+
+	private PieceTable()	//Only static lookups, never instantiated
+	{
+	}
+
+	public static int index(int type, int rotation)	//Gets the table index of a type in a rotation
+	{
+		return type*ROTATIONS + rotation;
+	}
+
+	public static int type(int piece)	//Gets the type (and colour) back from a table index
+	{
+		return piece / ROTATIONS;
+	}
+
+	public static int rotation(int piece)	//Gets the rotation back from a table index
+	{
+		return piece % ROTATIONS;
+	}
+
+	public static int cellRow(int piece, int cell)	//Gets the row of one of the four squares
+	{
+		return cellRows[piece*CELLS + cell];
+	}
+
+	public static int cellCol(int piece, int cell)	//Gets the column of one of the four squares
+	{
+		return cellCols[piece*CELLS + cell];
+	}
+
+	public static long rowMask(int piece, int r)	//Gets the bitmask of row r of the grid
+	{
+		return rowMasks[piece*SIZE + r];
+	}
+
+	public static int bottom(int piece, int c)	//Gets the lowest filled row of column c of the grid, -1 if it is empty
+	{
+		return bottoms[piece*SIZE + c];
+	}
+
+	public static int minRow(int piece)
+	{
+		return minRows[piece];
+	}
+
+	public static int maxRow(int piece)
+	{
+		return maxRows[piece];
+	}
+
+	public static int minCol(int piece)
+	{
+		return minCols[piece];
+	}
+
+	public static int maxCol(int piece)
+	{
+		return maxCols[piece];
+	}
+
+	public static boolean fits(long[] bits, int width, int piece, int r, int c)	//Checks a piece against a bitboard with a long per row, one AND per row of the piece
+	{
+		return fits(bits, 0, width, piece, r, c);
+	}
+	
+	public static boolean fits(long[] bits, int base, int width, int piece, int r, int c)	//Checks a piece against a bitboard kept as a ring of rows starting at slot base, like Tetris keeps it
+	{
+		int height = bits.length;
+		if (c + minCols[piece] < 0 || c + maxCols[piece] >= width)	//Checks if a column is outside the board
+			return false;
+		if (r + minRows[piece] < 0 || r + maxRows[piece] >= height)	//Checks if a row is outside the board
+			return false;
+		int index = piece*SIZE;
+		for (int a = minRows[piece]; a <= maxRows[piece]; a++)
+		{
+			long shifted = c >= 0 ? rowMasks[index + a] << c : rowMasks[index + a] >>> -c;	//Line the row of the piece up with the board
+			int s = base + r + a;
+			if (s >= height)
+				s -= height;
+			if ((bits[s] & shifted) != 0)	//Checks if piece collides with existing structures on board
+				return false;
+		}
+		return true;
+	}
+}
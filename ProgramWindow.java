@@ -4,9 +4,15 @@ import java.awt.*;
 
 public class ProgramWindow extends Frame{
 	
-	TetrisPanel panel = new TetrisPanel();
+	TetrisPanel panel;
 	public ProgramWindow()
 	{
+		this(Tetris.WIDTH, Tetris.HEIGHT);
+	}
+	
+	public ProgramWindow(int width, int height)	//A window playing on a board of a size
+	{
+		panel = new TetrisPanel(width, height);
 		setTitle("Tetris");
 		setSize(800, 1000);
 		setMinimumSize(new Dimension(400, 500));
@@ -14,5 +20,6 @@ public class ProgramWindow extends Frame{
 		setResizable(true);
 		add(panel);
 		setVisible(true);
+		panel.requestFocus();
 	}
 }
\ No newline at end of file
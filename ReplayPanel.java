@@ -0,0 +1,146 @@
+package Version7;
+
+import java.awt.*;
+import java.awt.event.*;
+import java.awt.image.*;
+import java.io.*;
+import java.nio.file.*;
+
+/* This class shows the games in a replay file in a window. A thread moves a playback clock forward in
+ * real time, times the playback speed, and seeks the ReplayPlayer to it, then repaints with the same
+ * TetrisRenderer the game uses. Keys: right arrow doubles the speed (fast forward), down arrow goes
+ * back to normal speed, left arrow jumps back ten seconds, space pauses, N skips to the next game and
+ * ESC closes the window. */
+
+public class ReplayPanel extends Panel implements KeyListener, Runnable
+{
+	private static final long serialVersionUID = 1L;
+	private static final int FRAME = 16;	//Milliseconds between repaints
+	private static final int MAX_SPEED = 64;
+
+	private final ReplayReader reader;
+	private final ReplayPlayer player;
+	private final TetrisRenderer renderer = new TetrisRenderer();
+	private BufferedImage osi = null;	//Off-screen image, kept until the panel is resized
+	private Graphics osg = null;
+	private volatile int speed = 1;	//Game milliseconds per real millisecond
+	private volatile boolean paused = false;
+	private volatile boolean skip = false;	//Set by N, moves to the next game
+	private volatile long rewind = 0;	//Milliseconds to jump back, set by the left arrow
+
+	public ReplayPanel(ReplayReader reader)
+	{
+		this.reader = reader;
+		player = new ReplayPlayer(reader);
+		addKeyListener(this);
+	}
+
+	public static void show(Path path) throws IOException	//Opens a window playing every game in a replay file
+	{
+		ReplayPanel panel = new ReplayPanel(new ReplayReader(path));
+		Frame frame = new Frame("Tetris replay - " + path.getFileName());
+		frame.setSize(800, 1000);
+		frame.add(panel);
+		frame.addWindowListener(new WindowAdapter() {
+			public void windowClosing(WindowEvent we) {
+				System.exit(0);
+			}
+		});
+		frame.setVisible(true);
+		panel.requestFocus();
+		Thread thread = new Thread(panel, "Replay");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	public void run()	//Playback loop, one game after another
+	{
+		try
+		{
+			while (player.nextGame())
+			{
+				long clock = 0;	//Playback time in game milliseconds
+				skip = false;
+				renderer.invalidate();
+				while (!player.isEnded() && !skip)
+				{
+					Thread.sleep(FRAME);
+					if (!paused)
+						clock += (long) FRAME*speed;
+					if (rewind > 0)
+					{
+						clock = Math.max(0, clock - rewind);
+						rewind = 0;
+					}
+					synchronized (player)
+					{
+						player.seek(clock);
+					}
+					repaint();
+				}
+				Thread.sleep(1000);	//Leave the end of the game on screen for a moment
+			}
+			reader.close();
+		}
+		catch (IOException | InterruptedException e)
+		{
+			System.out.println("Replay stopped: " + e.getMessage());
+		}
+	}
+
+	public void keyPressed(KeyEvent ke)
+	{
+		switch (ke.getKeyCode())
+		{
+			case KeyEvent.VK_RIGHT:
+				speed = Math.min(speed*2, MAX_SPEED);
+				break;
+			case KeyEvent.VK_DOWN:
+				speed = 1;
+				break;
+			case KeyEvent.VK_LEFT:
+				rewind = 10000;
+				break;
+			case KeyEvent.VK_SPACE:
+				paused = !paused;
+				break;
+			case KeyEvent.VK_N:
+				skip = true;
+				break;
+			case KeyEvent.VK_ESCAPE:
+				System.exit(0);
+				break;
+		}
+	}
+	public void keyReleased(KeyEvent ke){}
+	public void keyTyped(KeyEvent ke){}
+
+	public void paint(Graphics g)
+	{
+		renderer.invalidate();
+		update(g);
+	}
+
+	public void update(Graphics g)	//Draws the game as far as it has been played, copying only what changed
+	{
+		Dimension d = getSize();
+		if (d.width <= 0 || d.height <= 0)
+			return;
+		if (osi == null || osi.getWidth() != d.width || osi.getHeight() != d.height)
+		{
+			if (osg != null)
+				osg.dispose();
+			osi = new BufferedImage(d.width, d.height, BufferedImage.TYPE_INT_RGB);
+			osg = osi.getGraphics();
+			renderer.invalidate();
+		}
+		Rectangle dirty;
+		synchronized (player)
+		{
+			dirty = renderer.render(osg, GameSnapshot.capture(player.getEngine()), d.width, d.height);
+		}
+		if (!dirty.isEmpty())
+			g.drawImage(osi, dirty.x, dirty.y, dirty.x + dirty.width, dirty.y + dirty.height,
+					dirty.x, dirty.y, dirty.x + dirty.width, dirty.y + dirty.height, this);
+	}
+}
@@ -0,0 +1,148 @@
+package Version7;
+
+import java.io.*;
+import java.nio.file.*;
+
+/* This class plays back games recorded by ReplayWriter on a TetrisEngine. Each game starts from its
+ * recorded seed and settings, and each action is applied by advancing the engine to the action's
+ * game time and stepping it, which is all TetrisPanel does when a key is pressed, so the game plays
+ * out exactly as it was recorded. seek() moves the game to any game time: forward by applying the
+ * actions on the way, backward by starting the game over from its first action.
+ *
+ * Usage: java Version7.ReplayPlayer file	plays every game headlessly as fast as possible
+ *        java Version7.ReplayPlayer file watch	shows the games in a window in real time */
+
+public class ReplayPlayer {
+
+	private final ReplayReader reader;
+	private final TetrisEngine engine = new TetrisEngine(0);
+	private boolean started = false;	//A game has been started
+	private boolean pending;	//An action has been read but not applied yet
+	private boolean ended;	//The END of the current game has been applied
+	private long lines;	//Rows cleared in the current game so far
+
+	public ReplayPlayer(ReplayReader reader)
+	{
+		this.reader = reader;
+	}
+
+	public boolean nextGame() throws IOException	//Moves to the start of the next game, skipping what is left of this one, returns false if there are no more
+	{
+		if (started && !ended && !(pending && reader.getAction() == ReplayWriter.END))
+			while (reader.nextAction())
+				;
+		if (!reader.nextGame())
+			return false;
+		started = true;
+		restart();
+		return true;
+	}
+
+	private void restart()	//Starts the current game over from its first action
+	{
+		engine.setBoardSize(reader.getWidth(), reader.getHeight());
+		engine.reset(reader.getSeed());
+		engine.setLockDelay(reader.getLockDelay(), reader.getMaxLockResets());
+		pending = false;
+		ended = false;
+		lines = 0;
+	}
+
+	public boolean step() throws IOException	//Applies the next action, returns false once the game has ended
+	{
+		if (ended)
+			return false;
+		if (!pending)
+			reader.nextAction();
+		pending = false;
+		int action = reader.getAction();
+		engine.advance(reader.getTime());
+		lines += engine.getLinesCleared();
+		if (action == ReplayWriter.END)
+		{
+			ended = true;
+			return false;
+		}
+		engine.step(action);
+		lines += engine.getLinesCleared();
+		return true;
+	}
+
+	public void runToEnd() throws IOException	//Plays the rest of the game as fast as possible
+	{
+		while (step())
+			;
+	}
+
+	public void seek(long time) throws IOException	//Moves the game to a game time, applying every action up to it
+	{
+		if (time < engine.getTime())
+		{
+			reader.restartGame();
+			restart();
+		}
+		while (!ended)
+		{
+			if (!pending)
+			{
+				reader.nextAction();
+				pending = true;
+			}
+			if (reader.getTime() > time)
+				break;
+			step();
+		}
+		if (!ended)
+		{
+			engine.advance(time);
+			lines += engine.getLinesCleared();
+		}
+	}
+
+	public boolean isEnded()	//Returns whether the whole recording of the current game has been played
+	{
+		return ended;
+	}
+
+	public TetrisEngine getEngine()
+	{
+		return engine;
+	}
+
+	public long getLines()	//Returns the rows cleared so far in the current game
+	{
+		return lines;
+	}
+
+	public static void main(String[] args) throws IOException
+	{
+		if (args.length == 0)
+		{
+			System.out.println("Usage: java Version7.ReplayPlayer file [watch]");
+			return;
+		}
+		Path path = Paths.get(args[0]);
+		if (args.length > 1 && args[1].equals("watch"))
+		{
+			ReplayPanel.show(path);
+			return;
+		}
+		try (ReplayReader reader = new ReplayReader(path))
+		{
+			ReplayPlayer player = new ReplayPlayer(reader);
+			long start = System.nanoTime();
+			int games = 0;
+			long pieces = 0;
+			while (player.nextGame())
+			{
+				player.runToEnd();
+				TetrisEngine engine = player.getEngine();
+				System.out.println("Game " + (++games) + ": seed " + engine.getSeed() + ", " + engine.getPiecesDropped() + " pieces, "
+						+ player.getLines() + " rows, " + engine.getTime() + " ms" + (engine.isLost() ? ", lost" : ""));
+				pieces += engine.getPiecesDropped();
+			}
+			double seconds = (System.nanoTime() - start) / 1e9;
+			System.out.printf("%d games, %d pieces in %.3f s, %.0f pieces/s%n", games, pieces, seconds, pieces / seconds);
+		}
+	}
+}
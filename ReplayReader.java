@@ -0,0 +1,148 @@
+package Version7;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+
+/* This class reads a replay file written by ReplayWriter, one game and one action at a time. It reads
+ * the file through a FileChannel in large blocks and decodes the varints from the buffer, so reading
+ * does not allocate per action. It can go back to the first action of the current game, which is how
+ * ReplayPlayer seeks backwards. */
+
+public class ReplayReader implements Closeable {
+
+	private final FileChannel channel;
+	private final ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16);
+	private long bufferStart;	//File position of the first byte in the buffer
+	private long gameStart;	//File position of the first action of the current game
+	private long seed;	//Settings of the current game
+	private int lockDelay, maxLockResets;
+	private int width, height;
+	private final int version;	//Version of the file, 1 has no board sizes
+	private long time;	//Game time of the last action read
+	private int action;	//Last action read
+
+	public ReplayReader(Path path) throws IOException	//Opens a replay file and checks its header
+	{
+		channel = FileChannel.open(path, StandardOpenOption.READ);
+		buffer.limit(0);
+		bufferStart = 0;
+		if (!fill(5) || buffer.getInt() != ReplayWriter.MAGIC)
+			throw new IOException(path + " is not a replay file");
+		version = buffer.get();
+		if (version < 1 || version > ReplayWriter.VERSION)
+			throw new IOException("Unsupported replay version " + version);
+	}
+
+	public boolean nextGame() throws IOException	//Reads the header of the next game, returns false at the end of the file
+	{
+		if (!fill(1))
+			return false;
+		lockDelay = (int) getVarint();
+		maxLockResets = (int) getVarint();
+		width = Tetris.WIDTH;
+		height = Tetris.HEIGHT;
+		if (version >= 2)
+		{
+			width = (int) getVarint();
+			height = (int) getVarint();
+		}
+		if (!fill(8))
+			throw new EOFException("Replay ends inside a game header");
+		seed = buffer.getLong();
+		gameStart = bufferStart + buffer.position();
+		time = 0;
+		return true;
+	}
+
+	public boolean nextAction() throws IOException	//Reads the next action of the game, returns false once the game has ended
+	{
+		if (!fill(1))
+			throw new EOFException("Replay ends inside a game");
+		long record = getVarint();
+		time += record >>> ReplayWriter.ACTION_BITS;
+		action = (int) (record & ((1 << ReplayWriter.ACTION_BITS) - 1));
+		return action != ReplayWriter.END;
+	}
+
+	public long getSeed()
+	{
+		return seed;
+	}
+
+	public int getLockDelay()
+	{
+		return lockDelay;
+	}
+
+	public int getMaxLockResets()
+	{
+		return maxLockResets;
+	}
+
+	public int getWidth()	//Board size of the current game
+	{
+		return width;
+	}
+
+	public int getHeight()
+	{
+		return height;
+	}
+
+	public long getTime()	//Game time of the last action read, or of the end of the game
+	{
+		return time;
+	}
+
+	public int getAction()
+	{
+		return action;
+	}
+
+	public void restartGame() throws IOException	//Goes back to the first action of the current game
+	{
+		if (gameStart >= bufferStart && gameStart <= bufferStart + buffer.limit())
+			buffer.position((int) (gameStart - bufferStart));
+		else
+		{
+			buffer.limit(0);
+			bufferStart = gameStart;
+		}
+		time = 0;
+	}
+
+	public void close() throws IOException
+	{
+		channel.close();
+	}
+
+	private boolean fill(int bytes) throws IOException	//Makes sure at least some bytes are in the buffer, reading more from the file if needed. Returns false at the end of the file
+	{
+		if (buffer.remaining() >= bytes)
+			return true;
+		bufferStart += buffer.position();
+		buffer.compact();
+		channel.position(bufferStart + buffer.position());
+		while (buffer.position() < bytes)
+			if (channel.read(buffer) < 0)
+				break;
+		buffer.flip();
+		return buffer.remaining() >= bytes;
+	}
+
+	private long getVarint() throws IOException
+	{
+		long value = 0;
+		for (int shift = 0; ; shift += 7)
+		{
+			if (!fill(1))
+				throw new EOFException("Replay ends inside a number");
+			byte b = buffer.get();
+			value |= (long) (b & 0x7F) << shift;
+			if (b >= 0)
+				return value;
+		}
+	}
+}
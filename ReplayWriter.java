@@ -0,0 +1,99 @@
+package Version7;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+
+/* This class records games to a replay file. A game is the seed it was started from, its lock delay
+ * settings, and every action passed to TetrisEngine.step with the game time it was applied at. Gravity
+ * and lock delay are not recorded: they only depend on game time, so replaying each action at its time
+ * with advance() brings them back exactly. Times are written as the difference from the previous
+ * action and packed with the action into one varint, so most actions take one or two bytes. Bytes are
+ * collected in a buffer and written through a FileChannel when it fills up.
+ *
+ * File layout: the magic "TRPL" and a version byte, then any number of games. A game is the lock
+ * delay, maximum lock resets, board width and board height as varints, the seed as 8 bytes, then one
+ * varint per action holding (time since the previous action << 4) | action, ending with the action
+ * END. Version 1 files have no board size, their games are on the default board. */
+
+public class ReplayWriter implements Closeable {
+
+	public static final int MAGIC = 0x5452504C;	//"TRPL"
+	public static final int VERSION = 2;
+	public static final int END = 15;	//Action that ends a game, its time is when recording stopped
+	static final int ACTION_BITS = 4;	//Actions fit in the low bits of each record
+
+	private final FileChannel channel;
+	private final ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16);
+	private long lastTime;	//Game time of the previous action
+	private boolean inGame = false;
+
+	public ReplayWriter(Path path) throws IOException	//Creates a replay file, replacing any file already there
+	{
+		channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		buffer.putInt(MAGIC);
+		buffer.put((byte) VERSION);
+	}
+
+	public void beginGame(long seed, int lockDelay, int maxLockResets, int width, int height) throws IOException	//Starts recording a game, ending the previous one if it was not ended
+	{
+		if (inGame)
+			endGame(lastTime);
+		ensure(30);
+		putVarint(lockDelay);
+		putVarint(maxLockResets);
+		putVarint(width);
+		putVarint(height);
+		buffer.putLong(seed);
+		lastTime = 0;
+		inGame = true;
+	}
+
+	public void record(long time, int action) throws IOException	//Records an action applied at a game time
+	{
+		ensure(10);
+		putVarint(((time - lastTime) << ACTION_BITS) | action);
+		lastTime = time;
+	}
+
+	public void endGame(long time) throws IOException	//Ends the current game at a game time
+	{
+		if (!inGame)
+			return;
+		record(time, END);
+		inGame = false;
+	}
+
+	public void flush() throws IOException	//Writes everything recorded so far to the file
+	{
+		buffer.flip();
+		while (buffer.hasRemaining())
+			channel.write(buffer);
+		buffer.clear();
+	}
+
+	public void close() throws IOException	//Ends the current game, flushes and closes the file
+	{
+		if (inGame)
+			endGame(lastTime);
+		flush();
+		channel.close();
+	}
+
+	private void ensure(int bytes) throws IOException	//Makes room in the buffer
+	{
+		if (buffer.remaining() < bytes)
+			flush();
+	}
+
+	private void putVarint(long value)	//Seven bits per byte, low bits first, the high bit set on every byte but the last
+	{
+		while ((value & ~0x7FL) != 0)
+		{
+			buffer.put((byte) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		buffer.put((byte) value);
+	}
+}
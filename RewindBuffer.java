@@ -0,0 +1,129 @@
+package Version7;
+
+import java.util.*;
+
+/* This class keeps the last states of a game so it can be put back to any of them at once, for
+ * practice and for search tools that try a move and take it back. record() saves the state after a
+ * tick: the engine's counters, piece and sequence position go into one long[] row of a ring, and the
+ * board goes in as a Tetris.Rows, which shares every chunk of rows that didn't change with the state
+ * before it. A tick where the board didn't change (most of them, the piece just moved) reuses the last
+ * Rows outright, so a state costs TetrisEngine.STATE longs plus the chunks a lock or garbage touched.
+ *
+ * Finding a state is one index into the ring, whatever its age; restoring it copies the board's rows
+ * from the top of the higher of the two stacks down, and the counters. Restoring forgets the states
+ * after it, the game goes on from there. Only the thread that owns the engine may use a RewindBuffer. */
+
+public final class RewindBuffer {
+
+	public static final int CAPACITY = 8192;	//Default number of states kept, over two minutes of play at one state a tick of 60 a second
+
+	private final int capacity;
+	private final long[] states;	//capacity rows of TetrisEngine.STATE longs
+	private final Tetris.Rows[] boards;
+	private long recorded;	//States recorded so far, state n is in slot n % capacity
+	private int size;	//States kept, up to capacity
+	private Tetris lastTetris;	//The board the last Rows was saved from
+	private long lastChanges;	//Its change count at the time
+
+	public RewindBuffer()
+	{
+		this(CAPACITY);
+	}
+
+	public RewindBuffer(int capacity)	//Keeps the last capacity states
+	{
+		if (capacity < 1)
+			throw new IllegalArgumentException("Capacity must be at least 1");
+		this.capacity = capacity;
+		states = new long[capacity*TetrisEngine.STATE];
+		boards = new Tetris.Rows[capacity];
+	}
+
+	public void record(TetrisEngine engine)	//Saves the state the game is in now, dropping the oldest if the buffer is full
+	{
+		int slot = (int) (recorded % capacity);
+		Tetris tetris = engine.getTetris();
+		Tetris.Rows last = size > 0 ? boards[(int) ((recorded - 1) % capacity)] : null;
+		Tetris.Rows rows;
+		if (last != null && tetris == lastTetris && tetris.getChanges() == lastChanges)
+			rows = last;
+		else
+			rows = tetris.save(last);
+		engine.saveState(states, slot*TetrisEngine.STATE);
+		boards[slot] = rows;
+		lastTetris = tetris;
+		lastChanges = tetris.getChanges();
+		recorded++;
+		if (size < capacity)
+			size++;
+	}
+
+	public int size()	//States kept
+	{
+		return size;
+	}
+
+	public void clear()	//Forgets every state
+	{
+		Arrays.fill(boards, null);
+		size = 0;
+		lastTetris = null;
+	}
+
+	private int slot(int back)	//Slot of the state back states before the latest, 0 being the latest
+	{
+		if (back < 0 || back >= size)
+			throw new IndexOutOfBoundsException("No state " + back + " back, " + size + " kept");
+		return (int) ((recorded - 1 - back) % capacity);
+	}
+
+	public void restore(int back, TetrisEngine engine)	//Puts the game back to the state back states before the latest, forgetting the ones after it
+	{
+		int slot = slot(back);
+		engine.restoreState(states, slot*TetrisEngine.STATE, boards[slot]);
+		for (int i = 0; i < back; i++)	//Let the chunks only they used go
+			boards[(int) ((recorded - 1 - i) % capacity)] = null;
+		recorded -= back;
+		size -= back;
+		lastTetris = engine.getTetris();
+		lastChanges = lastTetris.getChanges();
+	}
+
+	public long getTime(int back)	//Game time of a state
+	{
+		return states[slot(back)*TetrisEngine.STATE + TetrisEngine.STATE_TIME];
+	}
+
+	public long getPiecesLocked(int back)	//Pieces locked by a state
+	{
+		return states[slot(back)*TetrisEngine.STATE + TetrisEngine.STATE_LOCKED];
+	}
+
+	private long getSeed(int back)
+	{
+		return states[slot(back)*TetrisEngine.STATE + TetrisEngine.STATE_SEED];
+	}
+
+	public boolean undoPiece(TetrisEngine engine)	//Puts the game back to when the last piece locked had just spawned, returns false if no state that old is kept
+	{
+		if (size == 0)
+			return false;
+		long seed = getSeed(0);
+		long target = getPiecesLocked(0) - 1;
+		int found = -1;
+		for (int back = 0; back < size; back++)	//States are in order of pieces locked, so the earliest one with target is just after the lock before it
+		{
+			if (getSeed(back) != seed)	//An earlier game
+				break;
+			long locked = getPiecesLocked(back);
+			if (locked == target)
+				found = back;
+			else if (locked < target)
+				break;
+		}
+		if (found < 0)
+			return false;
+		restore(found, engine);
+		return true;
+	}
+}
@@ -0,0 +1,134 @@
+package Version7;
+
+import java.io.*;
+import java.net.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.*;
+
+/* This class carries a RollbackSession's inputs to the other side of the match over UDP on the
+ * loopback interface. Every packet holds all the local input the other side has not acknowledged yet,
+ * so a lost packet costs nothing but the wait for the next one, and it acknowledges the remote input
+ * received so far. For testing the netcode on one machine, packets can be held back for a fixed
+ * delay before they are sent and dropped at random, like a slow and lossy network would.
+ *
+ * Packet, big-endian: first frame (int), last remote frame received (int), frames played (int),
+ * frames ahead of the other side (byte), number of inputs (byte), then one input byte per frame. The
+ * link is used only by the thread running the session, and never blocks it. */
+
+public final class RollbackLink implements Closeable {
+
+	private static final int MAX_INPUTS = 2*RollbackSession.MAX_ROLLBACK + 4;	//Most inputs one packet holds, more than can go unacknowledged
+	private static final int HEADER = 14;
+	private static final int PACKET = HEADER + MAX_INPUTS;
+	private static final int DELAY_SLOTS = 256;	//Packets that can be held back at once, later ones are dropped
+
+	private final DatagramChannel channel;
+	private final InetSocketAddress remote;
+	private final long delayNanos;	//Time every packet is held back for
+	private final double loss;	//Fraction of packets dropped
+	private final Random random;
+	private final ByteBuffer out = ByteBuffer.allocate(PACKET);
+	private final ByteBuffer in = ByteBuffer.allocate(PACKET);
+	private final ByteBuffer[] delayed = new ByteBuffer[DELAY_SLOTS];	//Packets held back, in the order they were sent
+	private final long[] due = new long[DELAY_SLOTS];	//System.nanoTime() each held back packet goes out at
+	private int head, count;	//Oldest held back packet and number held back
+	private long sent, dropped, received;
+
+	public RollbackLink(int localPort, int remotePort, int delay, double loss, long seed) throws IOException	//Opens a link between two loopback ports, holding packets back delay milliseconds and dropping a fraction loss of them
+	{
+		InetAddress loopback = InetAddress.getLoopbackAddress();
+		channel = DatagramChannel.open();
+		channel.bind(new InetSocketAddress(loopback, localPort));
+		channel.configureBlocking(false);
+		remote = new InetSocketAddress(loopback, remotePort);
+		delayNanos = delay*1000000L;
+		this.loss = loss;
+		random = new Random(seed);
+		for (int i = 0; i < DELAY_SLOTS; i++)
+			delayed[i] = ByteBuffer.allocate(PACKET);
+	}
+
+	public void send(RollbackSession session) throws IOException	//Sends the inputs the other side is missing, then anything held back that is due
+	{
+		int frame = session.getFrame();
+		int first = Math.max(session.getRemoteAck() + 1, frame - MAX_INPUTS);
+		out.clear();
+		out.putInt(first);
+		out.putInt(session.getConfirmed());
+		out.putInt(frame);
+		out.put((byte) Math.max(Byte.MIN_VALUE, Math.min(Byte.MAX_VALUE, session.getAdvantage())));
+		out.put((byte) (frame - first));
+		for (int f = first; f < frame; f++)
+			out.put((byte) session.getInput(f));
+		out.flip();
+		if (random.nextDouble() < loss || count == DELAY_SLOTS)
+			dropped++;
+		else
+		{
+			int slot = (head + count) % DELAY_SLOTS;
+			delayed[slot].clear();
+			delayed[slot].put(out).flip();
+			due[slot] = System.nanoTime() + delayNanos;
+			count++;
+		}
+		flush();
+	}
+
+	public void flush() throws IOException	//Sends the held back packets whose delay is over
+	{
+		long now = System.nanoTime();
+		while (count > 0 && due[head] <= now)
+		{
+			channel.send(delayed[head], remote);
+			sent++;
+			head = (head + 1) % DELAY_SLOTS;
+			count--;
+		}
+	}
+
+	public void receive(RollbackSession session) throws IOException	//Passes every packet waiting from the other side to the session
+	{
+		while (true)
+		{
+			in.clear();
+			SocketAddress from = channel.receive(in);
+			if (from == null)
+				return;
+			if (!from.equals(remote) || in.position() < HEADER)
+				continue;
+			in.flip();
+			int first = in.getInt();
+			int ack = in.getInt();
+			int frames = in.getInt();
+			int advantage = in.get();
+			int inputs = in.get() & 0xFF;
+			if (in.remaining() < inputs)
+				continue;
+			received++;
+			for (int i = 0; i < inputs; i++)
+				session.receive(first + i, in.get() & 0xFF);
+			session.acknowledge(ack, frames, advantage);
+		}
+	}
+
+	public long getSent()
+	{
+		return sent;
+	}
+
+	public long getDropped()
+	{
+		return dropped;
+	}
+
+	public long getReceived()
+	{
+		return received;
+	}
+
+	public void close() throws IOException
+	{
+		channel.close();
+	}
+}
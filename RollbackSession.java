@@ -0,0 +1,177 @@
+package Version7;
+
+/* This class is one side of a networked versus match, played with rollback the way GGPO does it.
+ * Both sides simulate the whole match. The local player's input for a frame is used at once; the
+ * remote player's input is not known until it arrives over the network, so until then it is
+ * predicted to be nothing pressed, which is right for most frames, and the match runs ahead on the
+ * prediction. The match is saved before every frame. When the remote input for a frame arrives and
+ * differs from the prediction, the match is restored to the save from before that frame and every
+ * frame since is played again with what is now known, all before the next frame is shown, so the
+ * local player never waits for the network and only sees the remote player's moves jump a few frames.
+ *
+ * Saves are kept in a ring of MAX_ROLLBACK + 1 matches made up front, and saving and restoring copy
+ * into them, so rollback allocates nothing. The local side never runs more than MAX_ROLLBACK frames
+ * past the last remote input it has, it waits instead, so the save it needs is always in the ring.
+ * Remote inputs must arrive in frame order, the network link resends them until they are
+ * acknowledged. The time taken by each rollback is kept in a Histogram. Only the thread running the
+ * match may use a session. */
+
+public final class RollbackSession {
+
+	public static final int MAX_ROLLBACK = 12;	//Most frames played on predicted input, so the most played again at once
+
+	private static final int SAVES = 16;	//Size of the ring of saves, a power of two above MAX_ROLLBACK
+	private static final int INPUTS = 64;	//Frames of input kept per player, enough for every input not yet acknowledged
+
+	private final int local, remote;	//Player numbers of the two sides
+	private final VersusMatch match;	//The match at the start of frame
+	private final VersusMatch[] saves = new VersusMatch[SAVES];	//The match at the start of frame f is in saves[f % SAVES]
+	private final byte[][] inputs = new byte[VersusMatch.PLAYERS][INPUTS];	//Input of each player in frame f at [f % INPUTS], the remote player's predicted past confirmed
+	private int frame;	//Next frame to play
+	private int pendingInput;	//Local buttons pressed since the last frame played
+	private int confirmed = -1;	//Last frame the remote input is known for, it is known for every frame before too
+	private int rollbackFrom = Integer.MAX_VALUE;	//Earliest frame played on a prediction that turned out wrong
+	private int remoteAck = -1;	//Last frame of local input the remote side has acknowledged
+	private int remoteFrame;	//Frames the remote side had played when it last sent
+	private int remoteAdvantage;	//How far ahead of this side the remote side last said it was
+	private long rollbacks;	//Rollbacks done
+	private long framesReplayed;	//Frames played again by rollbacks
+	private int deepest;	//Most frames played again by one rollback
+	private long stalls;	//Frames waited for the remote side
+
+	public final Histogram rollbackTime = new Histogram();	//Time to restore and play the frames again, in microseconds
+
+	public RollbackSession(long seed, int localPlayer)	//Creates one side of a match from a seed both sides agree on
+	{
+		local = localPlayer;
+		remote = 1 - localPlayer;
+		match = new VersusMatch(seed);
+		for (int i = 0; i < SAVES; i++)
+			saves[i] = new VersusMatch(seed);
+	}
+
+	public void press(int action)	//Presses a button for the next frame played
+	{
+		pendingInput |= VersusMatch.input(action);
+	}
+
+	public boolean advance()	//Rolls back if a prediction was wrong, then plays the next frame. Returns false, playing nothing, when too far ahead of the remote side
+	{
+		rollback();
+		if (frame - confirmed > MAX_ROLLBACK)
+		{
+			stalls++;
+			return false;
+		}
+		inputs[local][frame % INPUTS] = (byte) pendingInput;
+		pendingInput = 0;
+		if (frame > confirmed)
+			inputs[remote][frame % INPUTS] = 0;	//Predict that nothing is pressed
+		play();
+		return true;
+	}
+
+	private void rollback()	//Restores the match to before the first wrongly predicted frame and plays up to the current frame again
+	{
+		if (rollbackFrom >= frame)
+			return;
+		long start = System.nanoTime();
+		int end = frame;
+		int replayed = end - rollbackFrom;
+		match.copyFrom(saves[rollbackFrom % SAVES]);
+		frame = rollbackFrom;
+		rollbackFrom = Integer.MAX_VALUE;
+		while (frame < end)
+			play();
+		rollbacks++;
+		framesReplayed += replayed;
+		deepest = Math.max(deepest, replayed);
+		rollbackTime.record((System.nanoTime() - start)/1000);
+	}
+
+	private void play()	//Saves the match and plays the current frame with the inputs known or predicted for it
+	{
+		saves[frame % SAVES].copyFrom(match);
+		int slot = frame % INPUTS;
+		match.step(inputs[0][slot] & 0xFF, inputs[1][slot] & 0xFF);
+		frame++;
+	}
+
+	public void receive(int remoteFrame, int input)	//Takes the remote input for a frame, ignoring frames already known or out of order
+	{
+		if (remoteFrame != confirmed + 1)
+			return;
+		int slot = remoteFrame % INPUTS;
+		if (remoteFrame < frame && inputs[remote][slot] != (byte) input)	//Played on a wrong prediction
+			rollbackFrom = Math.min(rollbackFrom, remoteFrame);
+		inputs[remote][slot] = (byte) input;
+		confirmed = remoteFrame;
+	}
+
+	public void acknowledge(int ack, int frames, int advantage)	//Takes the remote side's acknowledgement of local input, its frame count and how far ahead it is
+	{
+		remoteAck = Math.max(remoteAck, ack);
+		remoteFrame = Math.max(remoteFrame, frames);
+		remoteAdvantage = advantage;
+	}
+
+	public boolean shouldWait()	//Whether this side is ahead of the remote side by more than the remote side is ahead of it, so skipping a frame evens the lag out
+	{
+		return getAdvantage() - remoteAdvantage >= 2;
+	}
+
+	public int getAdvantage()	//Frames this side is ahead of what it last heard from the remote side
+	{
+		return frame - remoteFrame;
+	}
+
+	public int getInput(int f)	//Local input of a frame that has not been acknowledged yet
+	{
+		return inputs[local][f % INPUTS] & 0xFF;
+	}
+
+	public VersusMatch getMatch()	//The match as currently predicted, only to read from
+	{
+		return match;
+	}
+
+	public int getLocalPlayer()
+	{
+		return local;
+	}
+
+	public int getFrame()
+	{
+		return frame;
+	}
+
+	public int getConfirmed()	//Last frame the remote input is known for
+	{
+		return confirmed;
+	}
+
+	public int getRemoteAck()	//Last frame of local input the remote side has
+	{
+		return remoteAck;
+	}
+
+	public long getRollbacks()
+	{
+		return rollbacks;
+	}
+
+	public long getFramesReplayed()
+	{
+		return framesReplayed;
+	}
+
+	public int getDeepest()
+	{
+		return deepest;
+	}
+
+	public long getStalls()
+	{
+		return stalls;
+	}
+}
@@ -0,0 +1,333 @@
+package Version7;
+
+import java.io.*;
+import java.net.*;
+import java.nio.*;
+import java.nio.channels.*;
+
+/* This class watches a game from a SpectatorStream: it reads the events into its own board, falling
+ * piece, hold and queue, and keeps them as the player's game was when each event was written. Until
+ * the first keyframe it ignores everything, a SpectatorServer starts every subscriber on one anyway.
+ * An event is only applied once all its bytes are in, so the stream can arrive in pieces of any size.
+ * Locked pieces and garbage go into a Tetris, whose clearRows and addGarbage do exactly what they did
+ * in the player's game; a keyframe sets its level and rows cleared too, so it counts them the same way.
+ *
+ * Usage: java Version7.SpectatorClient [port] [spectators] [seconds]	watches a SpectatorServer with
+ * any number of spectators from one thread, then reports the bytes they got per piece and shows the
+ * board the first one ended with. */
+
+public class SpectatorClient {
+
+	private Tetris tetris;	//null until the first keyframe
+	private int piece, row, col;	//The falling piece
+	private int heldType = -1;
+	private final int[] queue = new int[SpectatorStream.PREVIEW];
+	private long piecesLocked;
+	private int pendingGarbage;	//As of the last keyframe, garbage waiting is not streamed
+	private boolean lost;
+	private long time;	//Game time of the last keyframe
+
+	public int read(ByteBuffer in)	//Applies every whole event in a buffer, leaving it at the first one that isn't all there. Returns the events applied
+	{
+		int events = 0;
+		while (in.hasRemaining())
+		{
+			in.mark();
+			try
+			{
+				event(in);
+				events++;
+			}
+			catch (BufferUnderflowException e)	//Wait for the rest of it
+			{
+				in.reset();
+				break;
+			}
+		}
+		return events;
+	}
+
+	private void event(ByteBuffer in)	//Reads one event, then applies it
+	{
+		int b = in.get() & 0xFF;
+		int payload = b & 0x1F;
+		if (b == SpectatorStream.KEYFRAME)
+		{
+			keyframe(in);
+			return;
+		}
+		switch (b & 0xE0)
+		{
+			case SpectatorStream.FALL:
+				if (tetris != null)
+					row += payload;
+				break;
+			case SpectatorStream.MOVE:
+				int c = in.get();
+				int r = (int) getVarint(in);
+				if (tetris != null)
+				{
+					piece = payload;
+					col = c;
+					row = r;
+				}
+				break;
+			case SpectatorStream.SHIFT:
+				if (tetris != null)
+					col += payload - 16;
+				break;
+			case SpectatorStream.SPAWN:
+				int next = in.get();
+				if (tetris != null)
+				{
+					fromQueue(next);
+					spawn(payload);
+				}
+				break;
+			case SpectatorStream.LOCK:
+				if (tetris != null)
+					lock(payload);
+				break;
+			case SpectatorStream.HOLD:
+				boolean fromQueue = heldType == -1;	//Known before the rest is read, a hold from the queue has one more byte
+				int joined = fromQueue && tetris != null ? in.get() : 0;
+				if (tetris != null)
+				{
+					heldType = PieceTable.type(piece);
+					if (fromQueue)
+						fromQueue(joined);
+					spawn(payload);
+				}
+				break;
+			case SpectatorStream.GARBAGE:
+				int hole = in.get();
+				if (tetris != null)
+					tetris.addGarbage(payload, hole);
+				break;
+			default:
+				if (b == SpectatorStream.LOST)
+					lost = true;
+		}
+	}
+
+	private void keyframe(ByteBuffer in)	//Reads the whole game, then replaces this one with it
+	{
+		int width = in.get() & 0xFF;
+		int height = (int) getVarint(in);
+		long t = getVarint(in);
+		long locked = getVarint(in);
+		long rows = getVarint(in);
+		int level = in.get();
+		int held = in.get();
+		int[] types = new int[queue.length];
+		for (int i = 0; i < types.length; i++)
+			types[i] = in.get();
+		int p = in.get(), c = in.get();
+		int r = (int) getVarint(in);
+		int garbage = (int) getVarint(in);
+		boolean over = in.get() != 0;
+		int top = (int) getVarint(in);
+		int bytesPerRow = (width + 1)/2;
+		byte[] cells = new byte[(height - top)*bytesPerRow];
+		in.get(cells);
+		int[][] chunks = new int[(height + Tetris.CHUNK - 1)/Tetris.CHUNK][];	//The rows as Tetris.save keeps them, so the level and row count go in with them
+		for (int row = top; row < height; row++)
+			for (int col = 0; col < width; col++)
+			{
+				int pair = cells[(row - top)*bytesPerRow + col/2];
+				int colour = (col & 1) == 0 ? pair & 0xF : (pair >> 4) & 0xF;
+				if (colour == 0)
+					continue;
+				int[] chunk = chunks[row/Tetris.CHUNK];
+				if (chunk == null)
+					chunk = chunks[row/Tetris.CHUNK] = new int[Tetris.CHUNK*width];
+				chunk[(row % Tetris.CHUNK)*width + col] = colour;
+			}
+		Tetris board = new Tetris(width, height);
+		board.restore(new Tetris.Rows(width, height, chunks, level, (int) (rows - (long) level*Tetris.ROWS_PER_LEVEL)));
+		tetris = board;
+		time = t;
+		piecesLocked = locked;
+		heldType = held;
+		System.arraycopy(types, 0, queue, 0, types.length);
+		piece = p;
+		col = c;
+		row = r;
+		pendingGarbage = garbage;
+		lost = over;
+	}
+
+	private void fromQueue(int joined)	//Takes the first piece off the queue, and a new one joins the end
+	{
+		System.arraycopy(queue, 1, queue, 0, queue.length - 1);
+		queue[queue.length - 1] = joined;
+	}
+
+	private void spawn(int type)
+	{
+		piece = PieceTable.index(type, 0);
+		row = TetrisPiece.SPAWN_ROW;
+		col = TetrisPiece.spawnCol(tetris.getWidth());
+	}
+
+	private void lock(int cleared)	//Puts the piece into the board and clears its rows that filled up
+	{
+		int type = PieceTable.type(piece);
+		for (int i = 0; i < 4; i++)
+			tetris.setCell(row + PieceTable.cellRow(piece, i), col + PieceTable.cellCol(piece, i), type);
+		piecesLocked++;
+		if (cleared != 0)
+			tetris.clearRows(row + PieceTable.minRow(piece), row + PieceTable.maxRow(piece));
+	}
+
+	private static long getVarint(ByteBuffer in)
+	{
+		long z = 0;
+		for (int shift = 0; ; shift += 7)
+		{
+			int b = in.get();
+			z |= (long) (b & 0x7F) << shift;
+			if (b >= 0)
+				break;
+		}
+		return (z >>> 1) ^ -(z & 1);
+	}
+
+	public boolean isSynced()	//Whether a keyframe has been read yet
+	{
+		return tetris != null;
+	}
+
+	public Tetris getTetris()	//The board as streamed, only to read from
+	{
+		return tetris;
+	}
+
+	public int getPiece()	//PieceTable index of the falling piece
+	{
+		return piece;
+	}
+
+	public int getRow()
+	{
+		return row;
+	}
+
+	public int getCol()
+	{
+		return col;
+	}
+
+	public int getHeldType()
+	{
+		return heldType;
+	}
+
+	public int getQueue(int i)	//Type i+1 places after the falling piece
+	{
+		return queue[i];
+	}
+
+	public long getPiecesLocked()
+	{
+		return piecesLocked;
+	}
+
+	public long getRowsCleared()	//Rows cleared in the whole game
+	{
+		return tetris == null ? 0 : tetris.getTotalRowsCleared();
+	}
+
+	public int getLevel()
+	{
+		return tetris == null ? 0 : tetris.getLevel();
+	}
+
+	public int getPendingGarbage()
+	{
+		return pendingGarbage;
+	}
+
+	public long getKeyframeTime()	//Game time of the last keyframe
+	{
+		return time;
+	}
+
+	public boolean isLost()
+	{
+		return lost;
+	}
+
+	public String toString()	//The board with the falling piece, a line a row
+	{
+		if (tetris == null)
+			return "(no keyframe yet)";
+		int width = tetris.getWidth();
+		char[][] rows = new char[tetris.getHeight()][width + 1];
+		for (int r = 0; r < rows.length; r++)
+		{
+			for (int c = 0; c < width; c++)
+				rows[r][c] = tetris.getCell(r, c) != 0 ? '#' : '.';
+			rows[r][width] = '\n';
+		}
+		for (int i = 0; i < 4; i++)
+		{
+			int r = row + PieceTable.cellRow(piece, i), c = col + PieceTable.cellCol(piece, i);
+			if (r >= 0 && r < rows.length && c >= 0 && c < width)
+				rows[r][c] = '@';
+		}
+		StringBuilder sb = new StringBuilder();
+		for (int r = Tetris.HIDDEN; r < rows.length; r++)
+			sb.append(rows[r]);
+		return sb.toString();
+	}
+
+	public static void main(String[] args) throws IOException
+	{
+		int port = args.length > 0 ? Integer.parseInt(args[0]) : SpectatorServer.PORT;
+		int spectators = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+		int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 30;
+		Selector selector = Selector.open();
+		InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), port);
+		SpectatorClient[] clients = new SpectatorClient[spectators];
+		ByteBuffer[] buffers = new ByteBuffer[spectators];
+		for (int i = 0; i < spectators; i++)
+		{
+			SocketChannel channel = SocketChannel.open(address);
+			channel.configureBlocking(false);
+			channel.register(selector, SelectionKey.OP_READ, i);
+			clients[i] = new SpectatorClient();
+			buffers[i] = ByteBuffer.allocate(64*1024);
+		}
+		long bytes = 0;
+		long firstLocked = -1;
+		long stop = System.nanoTime() + seconds*1000000000L;
+		while (System.nanoTime() < stop)
+		{
+			selector.select(100);
+			for (SelectionKey key : selector.selectedKeys())
+			{
+				int i = (Integer) key.attachment();
+				ByteBuffer in = buffers[i];
+				int n = ((SocketChannel) key.channel()).read(in);
+				if (n < 0)
+				{
+					key.cancel();
+					continue;
+				}
+				bytes += n;
+				in.flip();
+				clients[i].read(in);
+				in.compact();
+				if (firstLocked < 0 && clients[0].isSynced())
+					firstLocked = clients[0].getPiecesLocked();
+			}
+			selector.selectedKeys().clear();
+		}
+		long pieces = Math.max(1, clients[0].getPiecesLocked() - Math.max(firstLocked, 0));
+		System.out.println(clients[0]);
+		System.out.printf("%d spectators got %d bytes, %.1f bytes a piece each over %d pieces%n", spectators, bytes,
+				(double) bytes/spectators/pieces, pieces);
+		selector.close();
+	}
+}
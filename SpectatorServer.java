@@ -0,0 +1,267 @@
+package Version7;
+
+import java.io.*;
+import java.net.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.*;
+
+/* This class sends a SpectatorStream to everyone watching, hundreds of subscribers on local TCP
+ * sockets, from one thread. Every subscriber has a position in the stream, starting at the latest
+ * keyframe, and nothing else: the bytes are never copied out of the stream's ring. Every BATCH
+ * milliseconds the thread sends each subscriber everything from its position to the end of the stream
+ * with one gathering write of the one or two slices of the ring it spans, and moves its position on
+ * by what the socket took. Subscribers never block the game or each other; one that falls more than
+ * half the ring behind, say because it stopped reading, is dropped, which also keeps the game from
+ * overwriting bytes that are still being sent. Subscribers don't send anything, a subscriber closing
+ * its socket unsubscribes.
+ *
+ * Usage: java Version7.SpectatorServer [port]	streams games the bot plays, one after another */
+
+public class SpectatorServer implements Runnable, Closeable {
+
+	public static final int PORT = 7790;
+	public static final int MAX_SUBSCRIBERS = 1024;
+	private static final int BATCH = 10;	//Milliseconds between sends, everything written in between goes in one write per subscriber
+	private static final long MAX_LAG = SpectatorStream.RING/2;	//Bytes a subscriber can fall behind before it is dropped
+
+	private static final class Subscriber
+	{
+		final SocketChannel channel;
+		long position;	//Stream position of the next byte to send it
+
+		Subscriber(SocketChannel channel, long position)
+		{
+			this.channel = channel;
+			this.position = position;
+		}
+	}
+
+	private final SpectatorStream stream;
+	private final ServerSocketChannel server;
+	private final Selector selector;
+	private final List<Subscriber> subscribers = new ArrayList<Subscriber>();	//Only used by the server thread
+	private final ByteBuffer[] views;	//The slices of the ring one write sends
+	private final ByteBuffer discard = ByteBuffer.allocate(256);	//Whatever subscribers send is read into this and ignored
+	private volatile int count;	//Subscribers connected
+	private volatile long joined, dropped, bytesSent;
+	private volatile boolean running = true;
+	private Thread thread;
+
+	public SpectatorServer(int port, SpectatorStream stream) throws IOException	//Opens the server socket on the loopback interface, start() begins sending. Port 0 picks a free port
+	{
+		this.stream = stream;
+		views = new ByteBuffer[] {stream.view(), stream.view()};
+		selector = Selector.open();
+		server = ServerSocketChannel.open();
+		server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 256);
+		server.configureBlocking(false);
+		server.register(selector, SelectionKey.OP_ACCEPT);
+	}
+
+	public void start()	//Starts the sending thread
+	{
+		thread = new Thread(this, "Spectator server");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	public void run()
+	{
+		try
+		{
+			while (running)
+			{
+				selector.select(BATCH);
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext())
+				{
+					SelectionKey key = keys.next();
+					keys.remove();
+					if (key.isAcceptable())
+						accept();
+					else if (key.isReadable())
+						read(key);
+				}
+				sendAll();
+			}
+		}
+		catch (IOException e)
+		{
+			if (running)
+				System.out.println("Spectator server stopped: " + e.getMessage());
+		}
+	}
+
+	private void accept() throws IOException	//Takes every waiting connection, starting it at the latest keyframe
+	{
+		SocketChannel channel;
+		while ((channel = server.accept()) != null)
+		{
+			if (subscribers.size() >= MAX_SUBSCRIBERS)
+			{
+				channel.close();
+				continue;
+			}
+			channel.configureBlocking(false);
+			channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+			Subscriber s = new Subscriber(channel, stream.getKeyframe());
+			channel.register(selector, SelectionKey.OP_READ, s);
+			subscribers.add(s);
+			count = subscribers.size();
+			joined++;
+		}
+	}
+
+	private void read(SelectionKey key)	//Ignores anything a subscriber sends, and unsubscribes it once it closes
+	{
+		Subscriber s = (Subscriber) key.attachment();
+		try
+		{
+			discard.clear();
+			if (s.channel.read(discard) >= 0)
+				return;
+		}
+		catch (IOException e)
+		{
+		}
+		remove(s);
+	}
+
+	private void sendAll()	//Sends every subscriber what it is missing, dropping the ones too far behind
+	{
+		long end = stream.published();
+		for (int i = subscribers.size() - 1; i >= 0; i--)
+		{
+			Subscriber s = subscribers.get(i);
+			if (end - s.position > MAX_LAG)
+			{
+				remove(s);
+				dropped++;
+				continue;
+			}
+			if (s.position >= end)	//Up to date, or joined at a keyframe still being written
+				continue;
+			try
+			{
+				long sent = send(s.channel, s.position, end);
+				s.position += sent;
+				bytesSent += sent;
+			}
+			catch (IOException e)
+			{
+				remove(s);
+			}
+		}
+	}
+
+	private long send(SocketChannel channel, long from, long to) throws IOException	//Writes the stream from one position to another in one gathering write, returns the bytes the socket took
+	{
+		int start = (int) (from & (SpectatorStream.RING - 1));
+		int length = (int) (to - from);
+		int first = Math.min(length, SpectatorStream.RING - start);	//Up to the end of the ring, the rest wraps round to its start
+		views[0].clear();
+		views[0].position(start).limit(start + first);
+		views[1].clear();
+		views[1].limit(length - first);
+		return channel.write(views, 0, length > first ? 2 : 1);
+	}
+
+	private void remove(Subscriber s)
+	{
+		subscribers.remove(s);
+		count = subscribers.size();
+		try
+		{
+			s.channel.close();
+		}
+		catch (IOException e)
+		{
+		}
+	}
+
+	public void close() throws IOException	//Stops sending and hangs up on every subscriber
+	{
+		running = false;
+		selector.wakeup();
+		Thread th = thread;
+		if (th != null)
+		{
+			try
+			{
+				th.join();
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
+		}
+		for (Subscriber s : subscribers)
+			s.channel.close();
+		server.close();
+		selector.close();
+	}
+
+	public int getPort() throws IOException
+	{
+		return ((InetSocketAddress) server.getLocalAddress()).getPort();
+	}
+
+	public int getSubscribers()
+	{
+		return count;
+	}
+
+	public long getJoined()
+	{
+		return joined;
+	}
+
+	public long getDropped()	//Subscribers dropped for falling behind
+	{
+		return dropped;
+	}
+
+	public long getBytesSent()
+	{
+		return bytesSent;
+	}
+
+	public static void main(String[] args) throws IOException, InterruptedException
+	{
+		int port = args.length > 0 ? Integer.parseInt(args[0]) : PORT;
+		TetrisEngine engine = new TetrisEngine();
+		SpectatorStream stream = new SpectatorStream(engine);
+		SpectatorServer server = new SpectatorServer(port, stream);
+		server.start();
+		System.out.println("Streaming the bot's games on port " + server.getPort());
+		while (true)
+		{
+			long start = stream.published();
+			final GameScheduler scheduler = new GameScheduler(engine, null, new Runnable(){
+				public void run(){
+				}
+			});
+			scheduler.start();
+			BotPlayer bot = new BotPlayer(new BotPlayer.Game(){
+				public GameSnapshot getSnapshot(){
+					return scheduler.getSnapshot();
+				}
+				public void act(int action){
+					scheduler.press(action);
+					scheduler.release(action);
+				}
+			}, new TetrisBot(), 50);
+			bot.start();
+			while (!scheduler.getSnapshot().isLost())
+				Thread.sleep(100);
+			bot.stop();
+			scheduler.stop();
+			GameSnapshot game = scheduler.getSnapshot();
+			System.out.printf("Game over after %d pieces, %d bytes streamed (%.1f a piece), %d watching, %d dropped%n",
+					game.getPiecesLocked(), stream.published() - start, (double) (stream.published() - start)/Math.max(1, game.getPiecesLocked()),
+					server.getSubscribers(), server.getDropped());
+			engine.reset();	//The loop has stopped, so this thread can start the next game, which writes a keyframe
+		}
+	}
+}
@@ -0,0 +1,205 @@
+package Version7;
+
+import java.nio.*;
+
+/* This class turns one game into a compact stream of events for spectators. It listens to a
+ * TetrisEngine and writes each change as a byte or a few into a ring buffer, which a SpectatorServer
+ * sends on to every subscriber; SpectatorClient reads it back into a board. The stream is a series of
+ * events, each starting with a byte whose top three bits say what it is:
+ *
+ *   000nnnnn	FALL: the piece fell n rows (1 to 31)
+ *   001ppppp col row	MOVE: the piece is now shape and rotation p (PieceTable index) at a column (signed byte) and row (varint)
+ *   010ddddd	SHIFT: the piece moved d - 16 columns
+ *   011ttttt next	SPAWN: the first piece in the queue, of type t, started falling at the spawn position, and next joined the end of the queue
+ *   100ccccc	LOCK: the piece locked, and the rows of it with a bit set in c, from its top row, were cleared
+ *   101ttttt [next]	HOLD: the piece went into hold and a piece of type t started falling at the spawn position. If hold was empty, t came from the queue and next joined it
+ *   110nnnnn hole	GARBAGE: n rows with a hole in column hole came up
+ *   11100000 ...	KEYFRAME: the whole game, see writeKeyframe()
+ *   11100001	LOST: the game is over
+ *
+ * Varints are zigzag-encoded, seven bits a byte, low bits first. A game costs a few dozen bytes a
+ * piece: two to spawn it, one per shift or row of gravity, four per turn and one to lock it. A
+ * keyframe of the whole board goes out when a game starts and every KEYFRAME_PIECES pieces, so a
+ * spectator can join at the latest keyframe and be in step from there.
+ *
+ * The ring is written only by the thread playing the game. published() is the stream position up to
+ * which the ring holds whole events; the sender reads any bytes below it that are still in the ring,
+ * the last RING bytes written. */
+
+public final class SpectatorStream implements TetrisEngine.Listener {
+
+	public static final int RING = 1 << 20;	//Bytes of stream kept, a power of two
+	public static final int PREVIEW = TetrisRenderer.previewLength;	//Pieces in the queue
+	public static final int KEYFRAME_PIECES = 32;	//Pieces locked between keyframes
+
+	static final int FALL = 0x00, MOVE = 0x20, SHIFT = 0x40, SPAWN = 0x60, LOCK = 0x80, HOLD = 0xA0, GARBAGE = 0xC0;
+	static final int KEYFRAME = 0xE0, LOST = 0xE1;
+
+	private final TetrisEngine engine;
+	private final ByteBuffer ring = ByteBuffer.allocateDirect(RING);	//Direct, so the sender's gathering writes copy straight from it
+	private long written;	//Stream position of the next byte, only used by the game thread
+	private volatile long published;	//Bytes of whole events written
+	private volatile long keyframe;	//Stream position of the latest keyframe
+	private int lastPiece, lastRow, lastCol;	//Where the spectators last saw the falling piece
+	private int lastDropped;	//Pieces dealt when the spectators last saw the piece, tells a hold from the queue from a swap
+	private int locksSinceKeyframe;
+
+	public SpectatorStream(TetrisEngine engine)	//Starts streaming a game from a keyframe of its state now, call from the thread playing it
+	{
+		this.engine = engine;
+		engine.setListener(this);
+		writeKeyframe();
+		publish();
+	}
+
+	public void stop()	//Stops listening to the game
+	{
+		engine.setListener(null);
+	}
+
+	public long published()	//Stream position the ring holds whole events up to
+	{
+		return published;
+	}
+
+	public long getKeyframe()	//Stream position of the latest keyframe, where a new subscriber starts
+	{
+		return keyframe;
+	}
+
+	public ByteBuffer view()	//A view of the ring for one reader thread to send from. Stream position p is at index p % RING
+	{
+		return ring.duplicate();
+	}
+
+	public void started()
+	{
+		writeKeyframe();
+		publish();
+	}
+
+	public void spawned()
+	{
+		put(SPAWN | engine.getPiece().getType());
+		put(engine.peekType(PREVIEW));
+		seen();
+		if (locksSinceKeyframe >= KEYFRAME_PIECES)	//After the spawn, once the rows are cleared and the garbage is in
+			writeKeyframe();
+		publish();
+	}
+
+	public void moved()
+	{
+		TetrisPiece piece = engine.getPiece();
+		int p = piece.getPiece(), r = piece.getRow(), c = piece.getCol();
+		if (p == lastPiece && c == lastCol && r > lastRow && r - lastRow < 32)
+			put(FALL | (r - lastRow));
+		else if (p == lastPiece && r == lastRow && Math.abs(c - lastCol) < 16)
+			put(SHIFT | (c - lastCol + 16));
+		else
+			writeMove(p, r, c);
+		seen();
+		publish();
+	}
+
+	public void held()
+	{
+		put(HOLD | engine.getPiece().getType());
+		if (engine.getPiecesDropped() != lastDropped)	//Hold was empty, so the piece came from the queue
+			put(engine.peekType(PREVIEW));
+		seen();
+		publish();
+	}
+
+	public void locked(int cleared)
+	{
+		put(LOCK | cleared);
+		locksSinceKeyframe++;
+		publish();
+	}
+
+	public void garbage(int rows, int hole)
+	{
+		while (rows > 0)	//More than 31 rows at once go as several events
+		{
+			int n = Math.min(rows, 31);
+			put(GARBAGE | n);
+			put(hole);
+			rows -= n;
+		}
+		publish();
+	}
+
+	public void lost()
+	{
+		put(LOST);
+		publish();
+	}
+
+	private void seen()	//Notes where the spectators now think the piece is
+	{
+		TetrisPiece piece = engine.getPiece();
+		lastPiece = piece.getPiece();
+		lastRow = piece.getRow();
+		lastCol = piece.getCol();
+		lastDropped = engine.getPiecesDropped();
+	}
+
+	private void writeMove(int p, int r, int c)
+	{
+		put(MOVE | p);
+		put(c);
+		putVarint(r);
+	}
+
+	private void writeKeyframe()	//Size, time, pieces locked, rows cleared in the whole game and level, hold, queue, falling piece, garbage waiting and every filled row with its colours, two squares a byte
+	{
+		Tetris tetris = engine.getTetris();
+		TetrisPiece piece = engine.getPiece();
+		keyframe = written;
+		locksSinceKeyframe = 0;
+		put(KEYFRAME);
+		put(tetris.getWidth());
+		putVarint(tetris.getHeight());
+		putVarint(engine.getTime());
+		putVarint(engine.getPiecesLocked());
+		putVarint(tetris.getTotalRowsCleared());
+		put(tetris.getLevel());
+		put(engine.getHeldType());
+		for (int i = 1; i <= PREVIEW; i++)
+			put(engine.peekType(i));
+		put(piece.getPiece());
+		put(piece.getCol());
+		putVarint(piece.getRow());
+		putVarint(engine.getPendingGarbage());
+		put(engine.isLost() ? 1 : 0);
+		int top = Math.min(tetris.getStackTop(), tetris.getHeight());
+		putVarint(top);
+		for (int r = top; r < tetris.getHeight(); r++)
+			for (int c = 0; c < tetris.getWidth(); c += 2)
+				put(tetris.getCell(r, c) | (c + 1 < tetris.getWidth() ? tetris.getCell(r, c + 1) << 4 : 0));
+		seen();
+	}
+
+	private void put(int b)
+	{
+		ring.put((int) (written & (RING - 1)), (byte) b);
+		written++;
+	}
+
+	private void putVarint(long v)	//Zigzag, then seven bits a byte with the top bit set on all but the last
+	{
+		long z = (v << 1) ^ (v >> 63);
+		while ((z & ~0x7FL) != 0)
+		{
+			put((int) (z & 0x7F) | 0x80);
+			z >>>= 7;
+		}
+		put((int) z);
+	}
+
+	private void publish()	//Lets the sender have everything written so far
+	{
+		published = written;
+	}
+}
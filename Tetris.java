@@ -1,279 +1,491 @@
 package Version7;
 
-import java.awt.*;
 import java.util.*;
 
-/* This class holds the current instance of the Tetris game. When requested, it sends to TetrisPanel
- * the current configuration of the board excluding the current piece in motion, the window displaying
- * the next piece, and the window displaying the held piece. It is responsible for storing the current
- * level and number of rows cleared but not for incrementing the speed (TetrisPanel does that). */
+/* This class holds the current instance of the Tetris game. It stores the configuration of the board
+ * excluding the current piece in motion, both as colours for TetrisRenderer and as a bitboard for
+ * collision checks. It is responsible for clearing rows and storing the current level and number of
+ * rows cleared but not for the speed of each level (TetrisEngine does that).
+ *
+ * The size of the board is set per game, from 4 to 64 columns (a row is one long) and any number of
+ * rows. The rows are kept in a ring: logical row r is in slot (base + r) mod height. Clearing rows
+ * either drops the rows above them, as usual, or lifts the rows below them and turns the ring, which
+ * moves everything above down for free, whichever moves fewer rows. Either way only the rows between
+ * the cleared ones and the top of the stack or the floor are touched, never the empty rows above the
+ * stack, so clearing and collision checks cost the same on a board thousands of rows tall. Garbage
+ * rows from the other player in versus come in at the bottom the same way, by turning the ring.
+ *
+ * save() makes an immutable copy of the rows for RewindBuffer, in chunks of CHUNK rows, sharing every
+ * chunk that hasn't changed with the copy it is given, so saving after a lock copies the few rows
+ * the lock touched rather than the whole board. getChanges() counts changes to the rows, so a caller
+ * can tell the board hasn't changed at all without looking at it. */
 
 public class Tetris {
 	
-	public static final int height = 22;	//Size of the grid
-	public static final int width = 10;
-	public static final int windowSize = 6;	//Size of next and hold window grids
+	public static final int WIDTH = 10;	//Default size of the grid
+	public static final int HEIGHT = 22;
+	public static final int HIDDEN = 2;	//Rows at the top that are not shown, the game is lost when anything locks in them
+	public static final int MIN_WIDTH = 4;	//Smallest board a piece can turn in
+	public static final int MAX_WIDTH = 64;	//Every square of a row has to fit in one long
+	public static final int MIN_HEIGHT = HIDDEN + 4;
+	public static final int GARBAGE = PieceTable.TYPES + 2;	//Colour of garbage squares, after the pieces and the ghost
+	public static final int ROWS_PER_LEVEL = 10;	//Rows to clear for the next level
+	public static final int CHUNK = 4;	//Rows in one chunk of a saved board
 	
+	static final class Rows	//An immutable copy of a board's rows, level and row count, made by save()
+	{
+		final int width, height;
+		final int[][] chunks;	//Colours of CHUNK rows each, row by row, null for a chunk of empty rows. Shared between copies
+		final int level, rowsCleared;
+		
+		Rows(int width, int height, int[][] chunks, int level, int rowsCleared)
+		{
+			this.width = width;
+			this.height = height;
+			this.chunks = chunks;
+			this.level = level;
+			this.rowsCleared = rowsCleared;
+		}
+	}
+	
+	private final int width, height;	//Size of the grid
+	private final long fullRow;	//Bitboard value of a row with every square filled
 	private int level = 0;	//Level of the current game
 	private int rowsCleared = 0;	//Number of rows cleared in the current game
 	
-	public int[][] board;	//array for the board
-	public int[][] nextWindow;	//array for the window containing the next piece
-	public int[][] holdWindow;	//array for the window containing the currently held piece
+	private final int[][] board;	//Colour of every square for drawing, by slot like rowBits
+	final long[] rowBits;	//Bitboard of the board by slot, bit c of a row is set when column c is filled. Logical row r is in slot (base + r) mod height
+	int base = 0;	//Slot of row 0
+	private final int[] surface;	//Highest filled row of each column, height if the column is empty
+	private int stackTop;	//Highest filled row of the whole board, height if the board is empty
+	private long hash = 0;	//Zobrist hash of the rows, kept up to date as squares change
+	private boolean hashValid = true;	//Cleared when rows move, getHash works the hash out again when asked
+	private int[][] spareRows = new int[4][];	//Rows taken out by clearRows, at most four can be full at once
+	private final int[] clearedRows = new int[4];	//Rows found full by the last clearRows, top first
+	private long changes = 0;	//Counts every change to the rows, level or row count
 	
-	public Tetris()	//Creates an instance of Tetris
+	public Tetris()	//Creates an instance of Tetris with the default size
 	{
+		this(WIDTH, HEIGHT);
+	}
+	
+	public Tetris(int width, int height)	//Creates an instance of Tetris with a board of any size from MIN_WIDTH x MIN_HEIGHT to MAX_WIDTH wide
+	{
+		if (width < MIN_WIDTH || width > MAX_WIDTH || height < MIN_HEIGHT)
+			throw new IllegalArgumentException("Board size " + width + "x" + height + " is out of range");
+		this.width = width;
+		this.height = height;
+		fullRow = width == 64 ? -1L : (1L << width) - 1;
 		board = new int[height][width];
-		nextWindow = new int[windowSize][windowSize];
-		holdWindow = new int[windowSize][windowSize];
+		rowBits = new long[height];
+		surface = new int[width];
+		Arrays.fill(surface, height);
+		stackTop = height;
 	}
 	
-	public int getLevel()	//Gets the current level
+	public void copyFrom(Tetris other)	//Makes this board, level and row count the same as another instance of the same size
 	{
-		return level;
+		if (other.width != width || other.height != height)
+			throw new IllegalArgumentException("Boards are different sizes");
+		for (int r = Math.min(stackTop, other.stackTop); r < height; r++)	//Rows above both stacks are empty in both
+		{
+			int s = slot(r), o = other.slot(r);
+			System.arraycopy(other.board[o], 0, board[s], 0, width);
+			rowBits[s] = other.rowBits[o];
+		}
+		System.arraycopy(other.surface, 0, surface, 0, width);
+		stackTop = other.stackTop;
+		hash = other.hash;
+		hashValid = other.hashValid;
+		level = other.level;
+		rowsCleared = other.rowsCleared;
+		changes++;
 	}
 	
-	public int getRowsCleared()	//Gets the number of rows cleared
+	Rows save(Rows previous)	//Copies the board, sharing unchanged chunks with a previous copy of a board of the same size (or null). Returns previous itself if nothing changed
 	{
-		return rowsCleared;
+		int count = (height + CHUNK - 1)/CHUNK;
+		if (previous != null && (previous.width != width || previous.height != height))
+			previous = null;
+		int[][] chunks = null;	//Only made once a chunk differs
+		for (int k = 0; k < count; k++)
+		{
+			int[] old = previous == null ? null : previous.chunks[k];
+			if (previous != null && sameChunk(k, old))
+				continue;
+			if (chunks == null)
+			{
+				chunks = new int[count][];
+				if (previous != null)
+					System.arraycopy(previous.chunks, 0, chunks, 0, count);
+			}
+			chunks[k] = copyChunk(k);
+		}
+		if (chunks == null)
+		{
+			if (previous.level == level && previous.rowsCleared == rowsCleared)
+				return previous;
+			chunks = previous.chunks;
+		}
+		return new Rows(width, height, chunks, level, rowsCleared);
 	}
-
-	public void displayBoard(Graphics g, int w, int h)	//draws the current configuration of the board array with Graphics g
-	{	
-		for (int r = 2; r < height; r++)
+	
+	private boolean sameChunk(int k, int[] chunk)	//Whether the rows of chunk k have the colours of a saved chunk
+	{
+		int first = k*CHUNK, last = Math.min(first + CHUNK, height);
+		if (last <= stackTop)	//Above the stack, so empty
+			return chunk == null;
+		if (chunk == null)
+			return false;
+		for (int r = first; r < last; r++)
 		{
+			int[] row = board[slot(r)];
+			int at = (r - first)*width;
 			for (int c = 0; c < width; c++)
+				if (row[c] != chunk[at + c])
+					return false;
+		}
+		return true;
+	}
+	
+	private int[] copyChunk(int k)	//Copies the colours of the rows of chunk k, null if they are all empty
+	{
+		int first = k*CHUNK, last = Math.min(first + CHUNK, height);
+		if (last <= stackTop)
+			return null;
+		int[] chunk = new int[CHUNK*width];
+		for (int r = first; r < last; r++)
+			System.arraycopy(board[slot(r)], 0, chunk, (r - first)*width, width);
+		return chunk;
+	}
+	
+	void restore(Rows rows)	//Makes this board the same as a saved one of the same size
+	{
+		if (rows.width != width || rows.height != height)
+			throw new IllegalArgumentException("Boards are different sizes");
+		int savedTop = height;	//First row of the first chunk that isn't empty
+		for (int k = 0; k < rows.chunks.length && savedTop == height; k++)
+			if (rows.chunks[k] != null)
+				savedTop = k*CHUNK;
+		for (int r = Math.min(stackTop, savedTop); r < height; r++)	//Rows above both stacks are empty in both
+		{
+			int[] chunk = rows.chunks[r/CHUNK];
+			int[] row = board[slot(r)];
+			long bits = 0;
+			if (chunk == null)
+				Arrays.fill(row, 0);
+			else
 			{
-				switch (board[r][c])	//find the color of the square
-				{
-					case 0:
-						g.setColor(Color.BLACK);
-						break;
-					case 1:
-						g.setColor(Color.CYAN);
-						break;
-					case 2:
-						g.setColor(Color.BLUE);
-						break;
-					case 3:
-						g.setColor(new Color(16737792));
-						break;
-					case 4:
-						g.setColor(Color.YELLOW);
-						break;
-					case 5:
-						g.setColor(Color.GREEN);
-						break;
-					case 6:
-						g.setColor(Color.MAGENTA);
-						break;
-					case 7:
-						g.setColor(Color.RED);
-						break;
-				}
-				
-				g.fillRect(c*(h/25)+ w/2-width/2*(h/25), r*(h/25)+h/50, h/25, h/25);	//Fill the square
+				System.arraycopy(chunk, (r % CHUNK)*width, row, 0, width);
+				for (int c = 0; c < width; c++)
+					if (row[c] != 0)
+						bits |= 1L << c;
 			}
+			rowBits[slot(r)] = bits;
 		}
+		for (int c = 0; c < width; c++)
+			surface[c] = columnTop(c, savedTop);
+		updateStackTop();
+		hashValid = false;
+		level = rows.level;
+		rowsCleared = rows.rowsCleared;
+		changes++;
+	}
+	
+	public long getChanges()	//Number of changes made to the board so far, the same number means the same board
+	{
+		return changes;
+	}
+	
+	private int slot(int r)	//Slot in the ring that holds row r
+	{
+		int s = base + r;
+		return s >= height ? s - height : s;
+	}
+	
+	public int getWidth()
+	{
+		return width;
+	}
+	
+	public int getHeight()
+	{
+		return height;
+	}
+	
+	public long getFullRow()	//Bitboard value of a full row
+	{
+		return fullRow;
+	}
+	
+	public int getCell(int r, int c)	//Gets the colour of a square, 0 if it is empty
+	{
+		return board[slot(r)][c];
+	}
+	
+	public long getRowBits(int r)	//Gets the bitboard of a row
+	{
+		return rowBits[slot(r)];
+	}
+	
+	public void copyRowBits(long[] dest)	//Copies the bitboard into an array of height longs, row 0 first
+	{
+		System.arraycopy(rowBits, base, dest, 0, height - base);
+		System.arraycopy(rowBits, 0, dest, height - base, base);
+	}
+	
+	public void copyRows(int r, int[] dest, int offset, int rows)	//Copies the colours of some whole rows into an array, row by row
+	{
+		for (int i = 0; i < rows; i++)
+			System.arraycopy(board[slot(r + i)], 0, dest, offset + i*width, width);
+	}
+	
+	public int getStackTop()	//Gets the highest filled row, height if the board is empty
+	{
+		return stackTop;
+	}
+	
+	public boolean fits(int piece, int r, int c)	//Checks whether a piece fits at a row and column without going through the walls, the floor or the stack
+	{
+		return PieceTable.fits(rowBits, base, width, piece, r, c);
 	}
 	
-	public void drawLines(Graphics g, int w, int h)	//Draw the outside border and grid for pieces
+	public void setCell(int r, int c, int colour)	//Fills a square of the board, keeping the bitboard and column heights in step with the colours
 	{
-		g.setColor(Color.WHITE);
-		g.drawLine(w/2 - width/2*(h/25), h/10, w/2 - width/2*(h/25), h/10 + 20*(h/25));
-		g.drawLine(w/2 + width/2*(h/25), h/10, w/2 + width/2*(h/25), h/10 + 20*(h/25));
-		g.drawLine(w/2 - width/2*(h/25), h/10, w/2 + width/2*(h/25) , h/10);
-		g.drawLine(w/2 - width/2*(h/25), h/10 + (height-2)*(h/25), w/2 + width/2*(h/25), h/10 + (height-2)*(h/25));
-		for (int r = 2; r < 22; r++)
+		int s = slot(r);
+		board[s][c] = colour;
+		changes++;
+		if (hashValid)
+			hash ^= Zobrist.row(r, rowBits[s]);
+		if (colour != 0)
 		{
-			for (int c = 0; c < 10; c++)
+			rowBits[s] |= 1L << c;
+			if (r < surface[c])
 			{
-				if (board[r][c] == 0)
-					continue;
-				g.drawRect(c*(h/25)+ w/2-5*(h/25), r*(h/25)+h/50, h/25, h/25);
+				surface[c] = r;
+				stackTop = Math.min(stackTop, r);
 			}
 		}
+		else
+		{
+			rowBits[s] &= ~(1L << c);
+			if (r == surface[c])	//The top of the column was emptied, look further down for the new top
+			{
+				surface[c] = columnTop(c, r + 1);
+				updateStackTop();
+			}
+		}
+		if (hashValid)
+			hash ^= Zobrist.row(r, rowBits[s]);
+	}
+	
+	private int columnTop(int c, int from)	//Gets the highest filled square of a column at or below row from, height if there is none
+	{
+		int r = from;
+		while (r < height && (rowBits[slot(r)] & (1L << c)) == 0)
+			r++;
+		return r;
+	}
+	
+	public int getSurface(int c)	//Gets the highest filled row of a column, height if it is empty
+	{
+		return surface[c];
 	}
 	
-	public void clearRows()	//Checks to see if a row is filled all the way, clears it, drops higher rows down
+	public int dropDistance(int piece, int row, int col)	//Gets how many rows a piece can fall before it lands
 	{
-		boolean[] rowsToClear = new boolean[23];
-		boolean moreRows = checkClear(rowsToClear);
-		while (moreRows)
+		int distance = height;
+		for (int c = PieceTable.minCol(piece); c <= PieceTable.maxCol(piece); c++)
 		{
-			for (int r = 2; r < 22; r++)
-				if (rowsToClear[r])
-				{
-					for (int c = 0; c < 10; c++)
-						board[r][c] = 0;
-					for (int rw = r; rw >= 2; rw--)
-					{
-						for (int c = 0; c < 10; c++)
-							board[rw][c] = board[rw-1][c];
-					}
-					rowsCleared++;
-				}
-			moreRows = checkClear(rowsToClear);
+			int bottom = PieceTable.bottom(piece, c);
+			if (bottom < 0)
+				continue;
+			int d = surface[col + c] - 1 - (row + bottom);
+			if (d < 0)	//The piece is under an overhang in this column, the heights can't answer that
+				return probeDropDistance(piece, row, col);
+			distance = Math.min(distance, d);
 		}
-		levelUp();
+		return distance;
 	}
 	
-	private void levelUp()	//Increases the level
+	private int probeDropDistance(int piece, int row, int col)	//Gets the drop distance by checking collisions one row at a time
 	{
-		if (rowsCleared >= 10 && level <4)	//If you pass a certain number of rows cleared, increase the speed
-		{
-			level++;
-			rowsCleared -= 10;
-			System.out.println("Level " + (level+1));
-		}	
+		int d = 0;
+		while (fits(piece, row + d + 1, col))
+			d++;
+		return d;
 	}
 	
-	private boolean checkClear(boolean[] rows)	//Checks if a row is filled all the way across
+	public long getHash()	//Gets the Zobrist hash of the board
 	{
-		boolean haveMoreRows = false;
-		rows[0] = true;
-		rows[1] = true;
-		rows[22] = true;
-		for (int r = 2; r < 22; r++)
+		if (!hashValid)	//Only rows from the top of the stack down have keys
 		{
-			rows[r] = true;
-			for (int c = 0; c < 10; c++)
-				if (board[r][c] == 0)
-				{
-					rows[r] = false;
-					break;
-				}
-			if (rows[r])
-				haveMoreRows = true;
+			hash = 0;
+			for (int r = stackTop; r < height; r++)
+				hash ^= Zobrist.row(r, rowBits[slot(r)]);
+			hashValid = true;
 		}
+		return hash;
+	}
+	
+	public int getLevel()	//Gets the current level
+	{
+		return level;
+	}
+	
+	public int getRowsCleared()	//Gets the number of rows cleared since the last level up
+	{
+		return rowsCleared;
+	}
+	
+	public long getTotalRowsCleared()	//Gets the number of rows cleared in the whole game, every level up took ROWS_PER_LEVEL off rowsCleared
+	{
+		return (long) level*ROWS_PER_LEVEL + rowsCleared;
+	}
+
+	public int clearRows(int top, int bottom)	//Clears the full rows between top and bottom (the rows a piece just locked into) and closes the gap, returns the number of rows cleared
+	{
+		top = Math.max(top, HIDDEN);	//Only visible rows can be cleared
+		bottom = Math.min(bottom, height - 1);
+		int cleared = 0;
+		for (int r = top; r <= bottom; r++)
+			if (rowBits[slot(r)] == fullRow)	//A row is full when every one of its bits is set
+				clearedRows[cleared++] = r;
+		if (cleared == 0)
+			return 0;
 		
-		return haveMoreRows;
+		hashValid = false;	//Every row above the cleared ones moves, so the hash is worked out again when it is next needed
+		changes++;
+		if (bottom - stackTop + 1 <= height - top)	//Move whichever side of the full rows has fewer rows
+			dropRowsAbove(top, bottom, cleared);
+		else
+			liftRowsBelow(top, bottom, cleared);
+		for (int c = 0; c < width; c++)
+			surface[c] = clearedSurface(c, cleared);
+		updateStackTop();
+		rowsCleared += cleared;
+		levelUp();
+		return cleared;
 	}
 	
-	public boolean lostGame()	//Checks if this instance of Tetris is over
+	private void dropRowsAbove(int top, int bottom, int cleared)	//Moves the rows from the top of the stack down over the full rows, then empties the rows left at the top of the stack
 	{
-		for (int c = 0; c < 10; c++)
+		int found = 0;
+		int write = bottom;	//Rows below bottom never move
+		for (int r = bottom; r >= stackTop; r--)
 		{
-			if (board[0][c] != 0 || board[1][c] != 0)
-				return true;
+			int s = slot(r);
+			if (r >= top && rowBits[s] == fullRow)	//Keep the row's array to reuse as an empty row
+			{
+				spareRows[found++] = board[s];
+				continue;
+			}
+			int w = slot(write);	//Move the row down by the number of full rows found below it
+			board[w] = board[s];
+			rowBits[w] = rowBits[s];
+			write--;
 		}
-		return false;
+		for (int r = stackTop; r < stackTop + cleared; r++)	//The rows freed up become empty rows above the stack
+			emptyRow(slot(r), --found);
 	}
 	
-	public void displayNextWindow(Graphics g, int type, int w, int h)	//Draw the window showing the next piece
+	private void liftRowsBelow(int top, int bottom, int cleared)	//Moves the rows below the full rows up over them, then turns the ring so the rows above move down by the same amount
 	{
-		fillNextWindow(type);
-		for (int r = 0; r < windowSize; r++)
+		int found = 0;
+		int write = top;
+		for (int r = top; r < height; r++)
 		{
-			for (int c = 0; c < windowSize; c++)
+			int s = slot(r);
+			if (r <= bottom && rowBits[s] == fullRow)
 			{
-				switch (nextWindow[r][c])	//find the color of the square
-				{
-					case 0:
-						g.setColor(Color.BLACK);
-						break;
-					case 1:
-						g.setColor(Color.CYAN);
-						break;
-					case 2:
-						g.setColor(Color.BLUE);
-						break;
-					case 3:
-						g.setColor(new Color(16737792));
-						break;
-					case 4:
-						g.setColor(Color.YELLOW);
-						break;
-					case 5:
-						g.setColor(Color.GREEN);
-						break;
-					case 6:
-						g.setColor(Color.MAGENTA);
-						break;
-					case 7:
-						g.setColor(Color.RED);
-						break;
-				}
-				g.fillRect(c*(h/50)+ (w/2) + width/2*(h/25), r*(h/50) + h/10, h/50, h/50);	//Fill the square
+				spareRows[found++] = board[s];
+				continue;
 			}
+			int w = slot(write);	//Move the row up by the number of full rows found above it
+			board[w] = board[s];
+			rowBits[w] = rowBits[s];
+			write++;
 		}
-		g.setColor(Color.WHITE);
-		for (int r = 0; r < windowSize; r++)
-			for (int c = 0; c < windowSize; c++)
-				if (nextWindow[r][c] !=0)
-				{
-					g.drawRect(c*(h/50)+ (w/2) + width/2*(h/25), r*(h/50)+ h/10, h/50, h/50);
-				}
-		g.drawRect(width/2*(h/25)+ (w/2), h/10, 6*h/50, 6*h/50);
+		for (int r = write; r < height; r++)	//The slots left at the bottom become the empty rows at the top once the ring turns
+			emptyRow(slot(r), --found);
+		base -= cleared;
+		if (base < 0)
+			base += height;
 	}
-		
-	private void fillNextWindow(int type)	//Copies a type of piece into the next window array
+	
+	private void emptyRow(int s, int spare)	//Puts an emptied spare row into a slot
 	{
-		int[][] config = TetrisPiece.configurations.get(new Integer(type*10));
-		for (int r = 1; r < 5; r++)
+		Arrays.fill(spareRows[spare], 0);
+		board[s] = spareRows[spare];
+		rowBits[s] = 0;
+		spareRows[spare] = null;
+	}
+	
+	private int clearedSurface(int c, int cleared)	//Gets where the top of a column ends up once the rows in clearedRows have been taken out
+	{
+		int top = surface[c];
+		if (top == height)
+			return height;
+		int below = 0;	//Cleared rows under the top of the column
+		boolean topCleared = false;
+		for (int i = 0; i < cleared; i++)
 		{
-			for (int c = 1; c < 5; c++)
-				nextWindow[r][c] = config[r-1][c-1];
+			if (clearedRows[i] > top)
+				below++;
+			else if (clearedRows[i] == top)
+				topCleared = true;
 		}
+		if (!topCleared)	//The top square moves down by the rows taken out under it
+			return top + below;
+		return columnTop(c, top + 1);	//Its top square was cleared, nothing in the column is above the next one down
 	}
 	
-	public void displayHoldWindow(Graphics g, int type, int w, int h)	//Draw the hold window
+	public void addGarbage(int rows, int hole)	//Pushes the stack up by some rows and fills the rows freed at the bottom, every square but the hole column. Squares pushed above row 0 are gone, and the game is lost
 	{
-		fillHoldWindow(type);
-		for (int r = 0; r < windowSize; r++)
+		rows = Math.min(rows, height);
+		if (rows <= 0)
+			return;
+		hashValid = false;
+		changes++;
+		base += rows;	//Turning the ring moves every row up, the old top rows come round to the bottom
+		if (base >= height)
+			base -= height;
+		long bits = fullRow & ~(1L << hole);
+		for (int r = height - rows; r < height; r++)
 		{
-			for (int c = 0; c < windowSize; c++)
-			{
-				switch (holdWindow[r][c])	//find the color of the square
-				{
-					case 0:
-						g.setColor(Color.BLACK);
-						break;
-					case 1:
-						g.setColor(Color.CYAN);
-						break;
-					case 2:
-						g.setColor(Color.BLUE);
-						break;
-					case 3:
-						g.setColor(new Color(16737792));
-						break;
-					case 4:
-						g.setColor(Color.YELLOW);
-						break;
-					case 5:
-						g.setColor(Color.GREEN);
-						break;
-					case 6:
-						g.setColor(Color.MAGENTA);
-						break;
-					case 7:
-						g.setColor(Color.RED);
-						break;
-				}
-				g.fillRect(c*(h/50)+ (w/2) + width/2*(h/25), r*(h/50) + h/10 + width/2*(h/25), h/50, h/50);	//Fill the square
-			}
+			int s = slot(r);
+			Arrays.fill(board[s], GARBAGE);
+			board[s][hole] = 0;
+			rowBits[s] = bits;
 		}
-		g.setColor(Color.WHITE);
-		for (int r = 0; r < windowSize; r++)
-			for (int c = 0; c < windowSize; c++)
-				if (holdWindow[r][c] !=0)
-				{
-					g.drawRect(c*(h/50)+ (w/2) + width/2*(h/25), r*(h/50)+ h/10 + width/2*(h/25), h/50, h/50);
-				}
-		g.drawRect(width/2*(h/25)+ (w/2), width/2*(h/25)+ h/10, 6*h/50, 6*h/50);
+		for (int c = 0; c < width; c++)
+		{
+			if (surface[c] < height)
+				surface[c] = Math.max(0, surface[c] - rows);	//Only clipped at 0 when the stack went over the top, which loses the game
+			else if (c != hole)
+				surface[c] = height - rows;
+		}
+		updateStackTop();
 	}
 	
-	private void fillHoldWindow(int type)	//Copies an image of a piece type to the hold window array
+	private void levelUp()	//Increases the level
 	{
-		if (type != -1)
+		if (rowsCleared >= ROWS_PER_LEVEL && level <4)	//If you pass a certain number of rows cleared, increase the speed
 		{
-			int [][] config = TetrisPiece.configurations.get(new Integer(type*10));
-			for (int r = 1; r < 5; r++)
-			{
-				for (int c = 1; c < 5; c++)
-					holdWindow[r][c] = config[r-1][c-1];
-			}
-		}
+			level++;
+			rowsCleared -= ROWS_PER_LEVEL;
+		}	
+	}
+	
+	private void updateStackTop()
+	{
+		stackTop = height;
+		for (int c = 0; c < width; c++)
+			stackTop = Math.min(stackTop, surface[c]);
+	}
+	
+	public boolean lostGame()	//Checks if this instance of Tetris is over, which is when anything is in the hidden rows
+	{
+		return stackTop < HIDDEN;
 	}
 }
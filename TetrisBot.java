@@ -0,0 +1,312 @@
+package Version7;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/* This class is an autoplayer. For the current piece, and for the held piece (or the next piece if
+ * the hold is empty), it tries every rotation at every column, moving the piece from its spawn
+ * position with the same rotations, wall kicks and shifts TetrisPiece uses, so only placements the
+ * player could really reach are kept. Each placement is followed by every placement of the next
+ * pieces in the preview, up to the search depth, and the board at the end is scored by a Heuristic.
+ * The placements of the first piece are split across cores with a ForkJoinPool. The result is the
+ * list of TetrisEngine actions that plays the best placement, ending with a hard drop.
+ *
+ * Different placements often lead to the same board, and the next search goes over boards the last
+ * one already scored, so the best score below each board is kept in a TranspositionTable, keyed by
+ * the Zobrist hash of the board and of the pieces still to be placed on it. The hash of each board
+ * is worked out from its parent's by rehashing only the rows the placement changed. */
+
+public class TetrisBot {
+
+	private static final double LOST = -1e9;	//Score of a placement that tops out
+
+	private final Heuristic heuristic;
+	private final int depth;	//Number of pieces searched, counting the current one
+	private final ForkJoinPool pool;
+	private final TranspositionTable table;	//Best score below each board searched, shared by every thread
+
+	public static class Position	//A copy of everything the search needs from the engine, so the search can run without holding the engine
+	{
+		final int width;	//Size of the board
+		final long[] bits;	//A long per row, row 0 first
+		long hash;	//Zobrist hash of bits
+		int current;	//Type of the falling piece
+		int held;	//Held type, -1 if nothing is held
+		boolean canHold;
+		int[] preview = new int[6];	//Types of the next pieces that are known
+		int previewCount;
+
+		public Position(int width, int height)	//An empty board of a size
+		{
+			this.width = width;
+			bits = new long[height];
+		}
+	}
+
+	public TetrisBot(Heuristic heuristic, int depth, ForkJoinPool pool, TranspositionTable table)	//Creates a bot searching depth pieces deep on the given pool
+	{
+		this.heuristic = heuristic;
+		this.depth = depth;
+		this.pool = pool;
+		this.table = table;
+	}
+
+	public TetrisBot()	//Creates a bot with the default heuristic, three pieces deep, on the common pool, with a 16 MB table
+	{
+		this(Heuristic.DEFAULT, 3, ForkJoinPool.commonPool(), new TranspositionTable(20));
+	}
+
+	public TranspositionTable getTable()
+	{
+		return table;
+	}
+
+	public Position capture(TetrisEngine engine)	//Copies the state of the engine, call from the thread that owns it
+	{
+		Tetris tetris = engine.getTetris();
+		Position position = new Position(tetris.getWidth(), tetris.getHeight());
+		tetris.copyRowBits(position.bits);
+		position.hash = engine.getTetris().getHash();
+		position.current = engine.getPiece().getType();
+		position.held = engine.getHeldType();
+		position.canHold = engine.canHold();
+		while (position.previewCount < position.preview.length)
+		{
+			position.preview[position.previewCount] = engine.peekType(position.previewCount + 1);
+			position.previewCount++;
+		}
+		return position;
+	}
+
+	public Position capture(GameSnapshot game)	//Copies the state of a snapshot of the game
+	{
+		Position position = new Position(game.getWidth(), game.getHeight());
+		game.copyRowBits(position.bits);
+		position.hash = Zobrist.board(position.bits, position.bits.length);
+		position.current = game.getType();
+		position.held = game.getHeldType();
+		position.canHold = game.canHold();
+		position.previewCount = Math.min(position.preview.length, GameSnapshot.PREVIEW);
+		for (int i = 0; i < position.previewCount; i++)
+			position.preview[i] = game.getPreview(i);
+		return position;
+	}
+
+	public int[] plan(Position position)	//Searches the position and returns the actions that play the best placement
+	{
+		ArrayList<PlacementTask> tasks = new ArrayList<PlacementTask>();
+		addTasks(tasks, position, false);
+		if (position.canHold && (position.held != -1 || position.previewCount > 0))
+			addTasks(tasks, position, true);
+		if (tasks.isEmpty())	//Nothing fits, the game is lost whatever we do
+			return new int[] {TetrisEngine.HARD_DROP};
+		table.newSearch();
+
+		pool.invoke(new ForkJoinTask<Void>() {	//Runs every root placement in parallel and waits for all of them
+			public Void getRawResult() { return null; }
+			protected void setRawResult(Void v) {}
+			protected boolean exec()
+			{
+				ForkJoinTask.invokeAll(tasks);
+				return true;
+			}
+		});
+
+		PlacementTask best = tasks.get(0);
+		for (PlacementTask task : tasks)
+			if (task.score > best.score)
+				best = task;
+
+		int[] moves = new int[16];
+		land(position.bits, position.width, best.type, best.rotation, best.col, moves);
+		int[] actions = new int[moves[0] + 2];
+		int count = 0;
+		if (best.hold)
+			actions[count++] = TetrisEngine.HOLD;
+		for (int i = 1; i <= moves[0]; i++)
+			actions[count++] = moves[i];
+		actions[count++] = TetrisEngine.HARD_DROP;
+		return Arrays.copyOf(actions, count);
+	}
+
+	private void addTasks(ArrayList<PlacementTask> tasks, Position position, boolean hold)	//Adds a task for every distinct placement of the piece that would be played
+	{
+		int type = position.current;
+		int previewStart = 0;	//First preview piece still to come after this one
+		if (hold)
+		{
+			if (position.held != -1)
+				type = position.held;
+			else
+			{
+				type = position.preview[0];	//Holding into an empty slot brings in the next piece
+				previewStart = 1;
+			}
+		}
+		long[] keys = new long[PieceTable.ROTATIONS * (position.width + 4)];
+		int keyCount = 0;
+		for (int rotation = 0; rotation < PieceTable.ROTATIONS; rotation++)
+			for (int col = -3; col < position.width; col++)
+			{
+				int row = land(position.bits, position.width, type, rotation, col, null);
+				if (row == TetrisPiece.NO_FIT)
+					continue;
+				long key = MoveGenerator.placementKey(PieceTable.index(type, rotation), row, col);
+				if (contains(keys, keyCount, key))
+					continue;
+				keys[keyCount++] = key;
+				tasks.add(new PlacementTask(position, hold, type, rotation, col, row, previewStart));
+			}
+	}
+
+	private class PlacementTask extends RecursiveAction	//Scores one placement of the first piece and everything searched after it
+	{
+		private static final long serialVersionUID = 1L;
+		private final Position position;
+		final boolean hold;
+		final int type, rotation, col, row;
+		private final int previewStart;
+		double score;
+
+		PlacementTask(Position position, boolean hold, int type, int rotation, int col, int row, int previewStart)
+		{
+			this.position = position;
+			this.hold = hold;
+			this.type = type;
+			this.rotation = rotation;
+			this.col = col;
+			this.row = row;
+			this.previewStart = previewStart;
+		}
+
+		protected void compute()
+		{
+			int height = position.bits.length;
+			long[][] boards = new long[depth][height];	//One board for each level of the search, reused by every branch
+			System.arraycopy(position.bits, 0, boards[0], 0, height);
+			int piece = PieceTable.index(type, rotation);
+			int lines = place(boards[0], position.width, piece, row, col);
+			if (lines < 0)
+			{
+				score = LOST;
+				return;
+			}
+			long hash = Zobrist.update(position.hash, position.bits, boards[0], lines > 0 ? 0 : row + PieceTable.minRow(piece), row + PieceTable.maxRow(piece));
+			score = heuristic.linesScore(lines) + search(boards, position.width, 1, position.preview, previewStart, position.previewCount, hash);
+		}
+	}
+
+	private double search(long[][] boards, int width, int level, int[] preview, int next, int previewCount, long hash)	//Best score reachable from boards[level-1], whose hash is given, placing the next preview pieces. Rows cleared before this board are not counted
+	{
+		long[] bits = boards[level - 1];
+		int remaining = Math.min(depth - level, previewCount - next);	//Pieces left to place
+		if (remaining <= 0)
+			return heuristic.score(bits, bits.length, width, 0);
+
+		long key = hash ^ Zobrist.depth(remaining);
+		for (int i = 0; i < remaining; i++)
+			key ^= Zobrist.preview(i, preview[next + i]);
+		long cached = table.probe(key);
+		if (cached != 0)
+			return TranspositionTable.score(cached);
+
+		int type = preview[next];
+		double best = LOST;
+		int bestMove = 0;
+		long[] keys = new long[PieceTable.ROTATIONS * (width + 4)];
+		int keyCount = 0;
+		long[] child = boards[level];
+		for (int rotation = 0; rotation < PieceTable.ROTATIONS; rotation++)
+			for (int col = -3; col < width; col++)
+			{
+				int row = land(bits, width, type, rotation, col, null);
+				if (row == TetrisPiece.NO_FIT)
+					continue;
+				int piece = PieceTable.index(type, rotation);
+				long placement = MoveGenerator.placementKey(piece, row, col);
+				if (contains(keys, keyCount, placement))
+					continue;
+				keys[keyCount++] = placement;
+				System.arraycopy(bits, 0, child, 0, bits.length);
+				int cleared = place(child, width, piece, row, col);
+				if (cleared < 0)
+					continue;
+				long childHash = Zobrist.update(hash, bits, child, cleared > 0 ? 0 : row + PieceTable.minRow(piece), row + PieceTable.maxRow(piece));
+				double score = heuristic.linesScore(cleared) + search(boards, width, level + 1, preview, next + 1, previewCount, childHash);
+				if (score > best)
+				{
+					best = score;
+					bestMove = rotation*(width + 4) + col + 3;
+				}
+			}
+		table.store(key, (float) best, remaining, bestMove);
+		return best;
+	}
+
+	static int land(long[] bits, int width, int type, int rotation, int targetCol, int[] moves)	//Moves a new piece to a rotation and column the way a player would and drops it. Returns the row it lands on or NO_FIT. If moves is given, moves[0] is set to the number of actions and the actions follow
+	{
+		int piece = PieceTable.index(type, 0);
+		int row = TetrisPiece.SPAWN_ROW;
+		int col = TetrisPiece.spawnCol(width);
+		int count = 0;
+		if (!TetrisPiece.noCollisions(bits, 0, width, piece, row, col))
+			return TetrisPiece.NO_FIT;
+		int turns = rotation == 3 ? 1 : rotation;	//Rotation 3 is one turn counterclockwise
+		int kick = rotation == 3 ? TetrisPiece.CCW_KICK : TetrisPiece.CW_KICK;
+		for (int t = 0; t < turns; t++)
+		{
+			int next = rotation == 3 ? 3 : t + 1;
+			piece = PieceTable.index(type, next);
+			col = TetrisPiece.kickedCol(bits, 0, width, piece, row, col, kick);
+			if (col == TetrisPiece.NO_FIT)
+				return TetrisPiece.NO_FIT;
+			if (moves != null)
+				moves[++count] = rotation == 3 ? TetrisEngine.ROTATE_CCW : TetrisEngine.ROTATE_CW;
+		}
+		while (col != targetCol)
+		{
+			int step = targetCol > col ? 1 : -1;
+			if (!TetrisPiece.noCollisions(bits, 0, width, piece, row, col + step))
+				return TetrisPiece.NO_FIT;
+			col += step;
+			if (moves != null)
+				moves[++count] = step > 0 ? TetrisEngine.SHIFT_R : TetrisEngine.SHIFT_L;
+		}
+		while (TetrisPiece.noCollisions(bits, 0, width, piece, row + 1, col))
+			row++;
+		if (moves != null)
+			moves[0] = count;
+		return row;
+	}
+
+	static int place(long[] bits, int width, int piece, int row, int col)	//Locks a piece into a bitboard with a long per row and clears full rows. Returns the number of rows cleared, -1 if the piece topped out
+	{
+		for (int r = PieceTable.minRow(piece); r <= PieceTable.maxRow(piece); r++)
+		{
+			long mask = PieceTable.rowMask(piece, r);
+			bits[row + r] |= col >= 0 ? mask << col : mask >>> -col;
+		}
+		if ((bits[0] | bits[1]) != 0)
+			return -1;
+		long full = width == 64 ? -1L : (1L << width) - 1;
+		int write = bits.length - 1;
+		for (int r = bits.length - 1; r >= 0; r--)	//Compact the board in one pass, skipping full rows
+		{
+			if (bits[r] == full)
+				continue;
+			bits[write--] = bits[r];
+		}
+		int cleared = write + 1;
+		for (int r = 0; r <= write; r++)
+			bits[r] = 0;
+		return cleared;
+	}
+
+	private static boolean contains(long[] keys, int count, long key)
+	{
+		for (int i = 0; i < count; i++)
+			if (keys[i] == key)
+				return true;
+		return false;
+	}
+}
@@ -0,0 +1,504 @@
+package Version7;
+
+/* This class runs the rules of one game of Tetris without drawing anything. It owns the current
+ * instance of Tetris, the piece in motion, the sequence of pieces to come and the held piece. Every input, including
+ * gravity, goes through step(), which moves the piece, locks it, clears rows, spawns the next piece and
+ * reports what happened as a set of event flags. Game time only moves when advance() is called, which
+ * applies the gravity steps and lock deadlines due by then. Lock delay is a deadline in game time
+ * kept by the piece, so no thread or timer is needed to lock a piece. TetrisPanel only feeds it actions
+ * and draws its state, so a game can be simulated as fast as step() can be called. The size of the
+ * board is part of the engine's settings, like the lock delay, and applies from the next reset.
+ *
+ * For versus, clearing two or more rows at once sends garbage rows to the other player, first
+ * cancelling garbage waiting to come in, and garbage received waits until a piece locks without
+ * clearing anything before it pushes the stack up. copyFrom() makes one engine the same as another
+ * without allocating, and the engine reuses one piece for the whole game, so a game can be saved,
+ * restored and played forward again as often as rollback needs with nothing for the garbage
+ * collector to do.
+ *
+ * A Listener, if one is set, is told about each change to the game as it happens, on the thread
+ * calling step() or advance(): pieces spawning, moving, going into hold and locking, garbage coming
+ * in and the game being lost. That is what SpectatorStream encodes for spectators. */
+
+public class TetrisEngine {
+
+	public interface Listener	//Told about every change to a game as it happens, reads the rest of the state from the engine
+	{
+		void started();	//A new game started, or the game was put back to an earlier state
+		void spawned();	//The next piece in the sequence started falling
+		void moved();	//The falling piece moved or turned
+		void held();	//The falling piece went into hold and the held piece, or the next in the sequence, started falling
+		void locked(int cleared);	//The falling piece locked, cleared has a bit for each of its rows that filled up, from its top row
+		void garbage(int rows, int hole);	//Garbage rows with a hole in one column pushed the stack up
+		void lost();
+	}
+
+	public static final int NONE = 0;	//Actions that can be passed to step
+	public static final int GRAVITY = 1;
+	public static final int SHIFT_L = 2;
+	public static final int SHIFT_R = 3;
+	public static final int ROTATE_CW = 4;
+	public static final int ROTATE_CCW = 5;
+	public static final int SOFT_DROP = 6;
+	public static final int FIRM_DROP = 7;
+	public static final int HARD_DROP = 8;
+	public static final int HOLD = 9;
+
+	public static final int[] GRAVITY_SPEEDS = {262, 328, 437, 655, 1311, 2621};	//Gravity of each level in 1/65536 rows per millisecond, can go past one row per millisecond
+	public static final int ONE_ROW = 65536;	//Gravity that moves the piece one row every millisecond
+
+	public static final int LOCK_DELAY = 400;	//Default time a grounded piece waits before locking, in milliseconds
+	public static final int MAX_LOCK_RESETS = 15;	//Default number of moves that can push the lock deadline back
+
+	public static final int LOCKED = 1;	//Event flags returned by step
+	public static final int CLEARED = 2;
+	public static final int GAME_OVER = 4;
+
+	static final int STATE = 14;	//Longs saveState writes per game state
+	static final int STATE_TIME = 0, STATE_LOCKED = 3, STATE_SEED = 5, STATE_DEALT = 6;	//Where some of them are
+	static final int STATE_HELD = 7, STATE_FLAGS = 10, STATE_PIECE = 11;	//Held type in the low half, alreadyHeld and lost in bits 0 and 1, then the piece as TetrisPiece.saveTo packs it
+
+	private static final int[] ATTACK = {0, 0, 1, 2, 4};	//Garbage rows sent by clearing 0 to 4 rows at once
+	private static final long GOLDEN = 0x9E3779B97F4A7C15L;	//Step between the draws that place garbage holes
+
+	private Tetris tetris;	//The current game of Tetris
+	private TetrisPiece currPiece;	//The current Tetris piece
+	private int piecesDropped;	//Total number of pieces dropped
+	private long piecesLocked;	//Total number of pieces locked into the board
+	private long lockResets;	//Total number of times a move pushed a lock deadline back
+	private int heldType;	//Shape of piece that is in the "hold" box
+	private boolean alreadyHeld;	//If the hold mechanic has been used for the current falling piece
+	private boolean lostGame;	//Have you lost the game
+	private int linesCleared;	//Number of rows cleared by the last step
+	private PieceSequence sequence;	//Deals the pieces of the current game from its seed
+	private long time;	//Game time in milliseconds, moved forward by advance
+	private long gravityStart;	//Time the current piece started falling
+	private long gravitySteps;	//Number of gravity steps the current piece has had since gravityStart
+	private int lockDelay = LOCK_DELAY;	//Lock delay settings, kept across resets
+	private int maxLockResets = MAX_LOCK_RESETS;
+	private int width = Tetris.WIDTH, height = Tetris.HEIGHT;	//Board size of every game started from now on
+	private int pendingGarbage;	//Garbage rows received and not yet pushed into the board
+	private int garbageOut;	//Garbage rows sent by clears and not yet taken by takeGarbage
+	private int garbageAdded;	//Times garbage has been pushed in this game, picks the next hole
+	private Listener listener;	//Told about every change, null if none. Not copied by copyFrom
+
+	public TetrisEngine()	//Starts a new game with a random seed
+	{
+		reset();
+	}
+
+	public TetrisEngine(long seed)	//Starts a new game that deals the pieces given by a seed
+	{
+		reset(seed);
+	}
+
+	public TetrisEngine(long seed, int width, int height)	//Starts a new game on a board of a size from a seed
+	{
+		setBoardSize(width, height);
+		reset(seed);
+	}
+
+	public void reset()	//Throws away the current game and starts a new one with a random seed
+	{
+		reset(Zobrist.mix(System.nanoTime()));
+	}
+
+	public void reset(long seed)	//Throws away the current game and starts a new one from a seed
+	{
+		tetris = new Tetris(width, height);
+		piecesDropped = 0;
+		piecesLocked = 0;
+		lockResets = 0;
+		sequence = new PieceSequence(seed);
+		createPiece();
+		heldType = -1;
+		alreadyHeld = false;
+		lostGame = false;
+		linesCleared = 0;
+		time = 0;
+		gravityStart = 0;
+		gravitySteps = 0;
+		pendingGarbage = 0;
+		garbageOut = 0;
+		garbageAdded = 0;
+		if (listener != null)
+			listener.started();
+	}
+
+	public void setListener(Listener listener)	//Sets the listener told about every change from now on, null for none
+	{
+		this.listener = listener;
+	}
+
+	public void copyFrom(TetrisEngine other)	//Makes this engine the same as another, settings included, without allocating unless the board size differs
+	{
+		Tetris board = other.tetris;
+		if (tetris.getWidth() != board.getWidth() || tetris.getHeight() != board.getHeight())
+			tetris = new Tetris(board.getWidth(), board.getHeight());
+		tetris.copyFrom(board);
+		currPiece.copyFrom(other.currPiece);
+		sequence.copyFrom(other.sequence);
+		piecesDropped = other.piecesDropped;
+		piecesLocked = other.piecesLocked;
+		lockResets = other.lockResets;
+		heldType = other.heldType;
+		alreadyHeld = other.alreadyHeld;
+		lostGame = other.lostGame;
+		linesCleared = other.linesCleared;
+		time = other.time;
+		gravityStart = other.gravityStart;
+		gravitySteps = other.gravitySteps;
+		lockDelay = other.lockDelay;
+		maxLockResets = other.maxLockResets;
+		width = other.width;
+		height = other.height;
+		pendingGarbage = other.pendingGarbage;
+		garbageOut = other.garbageOut;
+		garbageAdded = other.garbageAdded;
+	}
+
+	void saveState(long[] state, int at)	//Writes everything about the game but the board into state[at] to state[at + STATE - 1], for RewindBuffer and Checkpoint
+	{
+		state[at] = time;
+		state[at + 1] = gravityStart;
+		state[at + 2] = gravitySteps;
+		state[at + 3] = piecesLocked;
+		state[at + 4] = lockResets;
+		state[at + 5] = sequence.getSeed();
+		state[at + 6] = sequence.getDealt();
+		state[at + 7] = (long) piecesDropped << 32 | (heldType & 0xFFFFFFFFL);
+		state[at + 8] = (long) pendingGarbage << 32 | (garbageOut & 0xFFFFFFFFL);
+		state[at + 9] = (long) garbageAdded << 32 | (linesCleared & 0xFFFFFFFFL);
+		state[at + 10] = (alreadyHeld ? 1 : 0) | (lostGame ? 2 : 0);
+		currPiece.saveTo(state, at + 11);
+	}
+
+	void restoreState(long[] state, int at, Tetris.Rows rows)	//Puts the game back to one written by saveState, with a board saved by Tetris.save. Settings stay as they are
+	{
+		if (tetris.getWidth() != rows.width || tetris.getHeight() != rows.height)
+			tetris = new Tetris(rows.width, rows.height);
+		tetris.restore(rows);
+		time = state[at];
+		gravityStart = state[at + 1];
+		gravitySteps = state[at + 2];
+		piecesLocked = state[at + 3];
+		lockResets = state[at + 4];
+		sequence.seek(state[at + 5], state[at + 6]);
+		piecesDropped = (int) (state[at + 7] >> 32);
+		heldType = (int) state[at + 7];
+		pendingGarbage = (int) (state[at + 8] >> 32);
+		garbageOut = (int) state[at + 8];
+		garbageAdded = (int) (state[at + 9] >> 32);
+		linesCleared = (int) state[at + 9];
+		alreadyHeld = (state[at + 10] & 1) != 0;
+		lostGame = (state[at + 10] & 2) != 0;
+		currPiece.restoreFrom(state, at + 11);
+		if (listener != null)
+			listener.started();
+	}
+
+	public int advance(long now)	//Moves game time forward to now, applying every gravity step that falls due on the way. Returns the events that happened
+	{
+		int events = 0;
+		int lines = 0;
+		long deadline = nextDeadline();
+		while (!lostGame && deadline <= now)
+		{
+			time = deadline;
+			if (deadline == nextGravity())
+			{
+				gravitySteps++;
+				events |= step(GRAVITY);
+			}
+			else	//The lock deadline came first, no move, just let the piece lock
+				events |= step(NONE);
+			lines += linesCleared;
+			deadline = nextDeadline();
+		}
+		if (now > time)
+			time = now;
+		linesCleared = lines;
+		return events;
+	}
+
+	public long nextDeadline()	//Returns the game time of the next gravity step or lock, whichever comes first
+	{
+		long gravity = nextGravity();
+		long lock = currPiece.getLockDeadline();
+		if (lock >= 0 && lock < gravity)
+			return lock;
+		return gravity;
+	}
+
+	public long getNextGravity()	//Returns the game time of the next gravity step
+	{
+		return nextGravity();
+	}
+
+	public double getGravityInterval()	//Returns the time between gravity steps at the current level, in milliseconds
+	{
+		return (double) ONE_ROW / GRAVITY_SPEEDS[tetris.getLevel()];
+	}
+
+	private long nextGravity()	//Returns the game time of the next gravity step, worked out from the level speed so fractions of a row carry over
+	{
+		long speed = GRAVITY_SPEEDS[tetris.getLevel()];
+		return gravityStart + ((gravitySteps + 1)*ONE_ROW + speed - 1)/speed;
+	}
+
+	public int step(int action)	//Applies one action at the current game time, then locks, clears and spawns as needed. Returns the events that happened
+	{
+		linesCleared = 0;
+		if (lostGame)
+			return GAME_OVER;
+		boolean moved = false;
+		long before = listener == null ? 0 : position();
+		switch (action)
+		{
+			case GRAVITY:
+				currPiece.fall(tetris);
+				break;
+			case SHIFT_L:
+				moved = currPiece.shiftL(tetris);
+				break;
+			case SHIFT_R:
+				moved = currPiece.shiftR(tetris);
+				break;
+			case ROTATE_CW:
+				moved = currPiece.rotateCW(tetris);
+				break;
+			case ROTATE_CCW:
+				moved = currPiece.rotateCCW(tetris);
+				break;
+			case SOFT_DROP:
+				currPiece.softDrop(tetris);
+				break;
+			case FIRM_DROP:
+				currPiece.firmDrop(tetris);
+				break;
+			case HARD_DROP:
+				currPiece.hardDrop(tetris);
+				break;
+			case HOLD:
+				hold();
+				break;
+		}
+
+		if (listener != null && action != HOLD && position() != before)
+			listener.moved();
+		if (moved)
+		{
+			int resets = currPiece.getLockResets();
+			currPiece.resetLockDelay(time, lockDelay, maxLockResets);
+			lockResets += currPiece.getLockResets() - resets;
+		}
+		currPiece.updateLockDeadline(tetris, time, lockDelay);
+		if (!currPiece.tryLock(tetris, time))
+			return 0;
+		int events = LOCKED;
+		piecesLocked++;
+		int piece = currPiece.getPiece();	//Only the rows the piece locked into can have filled up
+		int top = currPiece.getRow() + PieceTable.minRow(piece), bottom = currPiece.getRow() + PieceTable.maxRow(piece);
+		if (listener != null)
+			listener.locked(fullRows(top, bottom));
+		if (tetris.lostGame())	//terminate if hidden rows are filled
+			return events | lose();
+		linesCleared = tetris.clearRows(top, bottom);
+		if (linesCleared > 0)
+		{
+			events |= CLEARED;
+			int attack = ATTACK[Math.min(linesCleared, 4)];
+			int cancelled = Math.min(attack, pendingGarbage);
+			pendingGarbage -= cancelled;
+			garbageOut += attack - cancelled;
+		}
+		else if (pendingGarbage > 0 && pushGarbage())	//The garbage pushed the stack into the hidden rows
+			return events | lose();
+		createPiece();	//Drop a new piece since the current piece is locked into grid
+		alreadyHeld = false;
+		gravityStart = time;	//The new piece starts falling at the speed of the (possibly new) level
+		gravitySteps = 0;
+		if (listener != null)
+			listener.spawned();
+		return events;
+	}
+
+	private int lose()	//Ends the game, returns GAME_OVER
+	{
+		lostGame = true;
+		if (listener != null)
+			listener.lost();
+		return GAME_OVER;
+	}
+
+	private long position()	//The falling piece's shape, rotation, row and column in one number, to tell whether a step moved it
+	{
+		return (long) currPiece.getPiece() << 48 | (currPiece.getRow() & 0xFFFFFFFFL) << 16 | (currPiece.getCol() & 0xFFFF);
+	}
+
+	private int fullRows(int top, int bottom)	//Bitmask of the full rows from top to bottom, bit 0 for top
+	{
+		long full = tetris.getFullRow();
+		int mask = 0;
+		for (int r = Math.max(top, 0); r <= bottom && r < tetris.getHeight(); r++)
+			if (tetris.getRowBits(r) == full)
+				mask |= 1 << (r - top);
+		return mask;
+	}
+
+	private boolean pushGarbage()	//Pushes the waiting garbage into the bottom of the board with one hole, returns whether that lost the game
+	{
+		long draw = Zobrist.mix(sequence.getSeed() + (++garbageAdded)*GOLDEN);
+		int hole = (int) (((draw >>> 32)*tetris.getWidth()) >>> 32);	//Uniform across the columns
+		tetris.addGarbage(pendingGarbage, hole);
+		if (listener != null)
+			listener.garbage(pendingGarbage, hole);
+		pendingGarbage = 0;
+		return tetris.lostGame();
+	}
+
+	public void addGarbage(int rows)	//Queues garbage rows sent by the other player, they come in when a piece next locks without clearing
+	{
+		pendingGarbage += rows;
+	}
+
+	public int takeGarbage()	//Returns the garbage rows this player's clears have sent since the last call, for the other player
+	{
+		int rows = garbageOut;
+		garbageOut = 0;
+		return rows;
+	}
+
+	public int getPendingGarbage()	//Garbage rows waiting to come in
+	{
+		return pendingGarbage;
+	}
+
+	private void hold()	//Swaps the current piece with the held one, once per piece
+	{
+		if (alreadyHeld)
+			return;
+		int tempHeld = heldType;
+		heldType = currPiece.getType();
+		if (tempHeld == -1)
+			createPiece();
+		else
+			currPiece.spawn(tempHeld, piecesDropped, tetris.getWidth());
+		alreadyHeld = true;
+		if (listener != null)
+			listener.held();
+	}
+
+	private void createPiece()	//Makes the piece a new piece of the next type in the sequence
+	{
+		if (currPiece == null)
+			currPiece = new TetrisPiece(sequence.next(), piecesDropped, 0, tetris.getWidth());
+		else
+			currPiece.spawn(sequence.next(), piecesDropped, tetris.getWidth());
+		piecesDropped++;
+	}
+
+	public Tetris getTetris()
+	{
+		return tetris;
+	}
+
+	public TetrisPiece getPiece()
+	{
+		return currPiece;
+	}
+
+	public int getNextType()	//Returns the type of the piece that comes after the current one
+	{
+		return sequence.peek(0);
+	}
+
+	public int peekType(int n)	//Returns the type n pieces after the current one (1 is the next piece), up to PieceSequence.MAX_PEEK + 1
+	{
+		return sequence.peek(n - 1);
+	}
+
+	public long getSeed()	//Returns the seed the current game was started from
+	{
+		return sequence.getSeed();
+	}
+
+	public boolean canHold()	//Returns whether the hold can still be used for the current piece
+	{
+		return !alreadyHeld;
+	}
+
+	public long getHash()	//Returns the Zobrist hash of the board, the falling piece's type, the held type and the position in the bag
+	{
+		return tetris.getHash() ^ Zobrist.piece(currPiece.getType()) ^ Zobrist.hold(heldType) ^ Zobrist.bag(piecesDropped%7);
+	}
+
+	public int getHeldType()	//Returns the held type, -1 if nothing is held
+	{
+		return heldType;
+	}
+
+	public int getPiecesDropped()
+	{
+		return piecesDropped;
+	}
+
+	public long getPiecesLocked()
+	{
+		return piecesLocked;
+	}
+
+	public long getLockResets()	//Returns the number of times a move has pushed a lock deadline back this game
+	{
+		return lockResets;
+	}
+
+	public void setLockDelay(int delay, int maxResets)	//Sets how long a grounded piece waits before locking and how many moves can push that back
+	{
+		lockDelay = delay;
+		maxLockResets = maxResets;
+	}
+
+	public void setBoardSize(int width, int height)	//Sets the size of the board for games started by the next reset
+	{
+		if (width < Tetris.MIN_WIDTH || width > Tetris.MAX_WIDTH || height < Tetris.MIN_HEIGHT)
+			throw new IllegalArgumentException("Board size " + width + "x" + height + " is out of range");
+		this.width = width;
+		this.height = height;
+	}
+
+	public int getWidth()	//Width of the board of games started from now on
+	{
+		return width;
+	}
+
+	public int getHeight()
+	{
+		return height;
+	}
+
+	public int getLockDelay()
+	{
+		return lockDelay;
+	}
+
+	public int getMaxLockResets()
+	{
+		return maxLockResets;
+	}
+
+	public long getTime()	//Returns the game time in milliseconds
+	{
+		return time;
+	}
+
+	public int getLinesCleared()	//Returns the number of rows cleared by the last step or advance
+	{
+		return linesCleared;
+	}
+
+	public boolean isLost()
+	{
+		return lostGame;
+	}
+}
@@ -1,9 +1,12 @@
 package Version7;
 
 import java.awt.*;
-import java.util.*;
 import java.awt.event.*;
 import java.awt.image.*;
+import java.io.*;
+import java.nio.file.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
 
 /* This class works as the "game outside of the actual game". It handles the interactions between
  * Tetris and TetrisPiece, and handles all user input to pass to TetrisPiece and screen output.
@@ -12,9 +15,23 @@ import java.awt.image.*;
  * the board information to the piece to determine whether it has collided with anything. If the
  * current instance of Tetris shows that the player has lost, this class halts all processes and
  * lets the player start the game again.
+ *
+ * It draws actively: instead of waiting for AWT to call paint, a render thread draws a frame into a
+ * BufferStrategy and flips it once per refresh of the display. Each frame copies the board, which is
+ * kept up to date in an off-screen image, and draws the falling piece over it part of the way to its
+ * next row, from the latest snapshot the game loop published, so the piece moves smoothly at any
+ * refresh rate and drawing never holds up the game.
+ *
+ * Frame times, gravity timing and input latency are kept in a Metrics, which F3 shows over the game
+ * and which is written to metrics-<time>.txt every ten seconds.
+ *
+ * For practice, BACKSPACE takes back the last piece, as many times as the RewindBuffer goes back,
+ * even after the game is lost. F5 saves the game to a Checkpoint file and F9 carries on from it. A
+ * game carried on from an undo after a loss or from a checkpoint isn't in the replay, which only
+ * holds games played from the start.
  * */
 
-public class TetrisPanel extends Panel implements KeyListener, MouseListener
+public class TetrisPanel extends Canvas implements KeyListener, MouseListener, Runnable, BotPlayer.Game
 {
 	
 	private static final int SHIFT_R = KeyEvent.VK_RIGHT;
@@ -26,110 +43,321 @@ public class TetrisPanel extends Panel implements KeyListener, MouseListener
 	private static final int SOFT_DROP = KeyEvent.VK_DOWN;
 	private static final int FIRM_DROP = KeyEvent.VK_CONTROL;
 	private static final int EXIT = KeyEvent.VK_ESCAPE;
-	private static final int[] idleCounts = {5000, 4000, 3000, 2000, 1000, 500};
+	private static final int AUTOPLAY = KeyEvent.VK_A;
+	private static final int METRICS = KeyEvent.VK_F3;
+	private static final int UNDO = KeyEvent.VK_BACK_SPACE;
+	private static final int SAVE = KeyEvent.VK_F5;
+	private static final int LOAD = KeyEvent.VK_F9;
+	private static final Path CHECKPOINT = Paths.get("checkpoint.tckp");	//Where F5 saves the game
+	private static final int DUMP_PERIOD = 10000;	//Milliseconds between writes of the metrics file
+	private static final long METRICS_PERIOD = 250000000;	//Nanoseconds between updates of the metrics shown, formatting them every frame would cost more than the frame
+	private static final Font METRICS_FONT = new Font("Monospaced", Font.PLAIN, 12);
+	private static final Color METRICS_BACK = new Color(0, 0, 0, 192);
 	
-
-	private long idleCounter;	//Counts the amount of time since the last piece drop in milliseconds
-	private int piecesDropped;	//Total number of pieces dropped
-	private int heldType;	//Shape of piece that is in the "hold" box
-	private boolean alreadyHeld;	//If the hold mechanic has been used for the current falling piece
-	private boolean lostGame;	//Have you lost the game
-	private int [] dropQueue = {1,2,3,4,5,6,7};	//Queue of piece types to drop
-	
-	private BufferedImage osi = null;	//BufferedImage for double-buffered graphics
+	private volatile boolean lostGame;	//Have you lost the game
+	
+	private BufferedImage osi = null;	//Off-screen image of everything but the falling piece, kept until the panel is resized
 	private Graphics osg = null;	//Graphics off-screen for double-buffered graphics
-	private Timer t;	// Timer
-	private TetrisPiece currPiece;	//The current Tetris piece
-	private Color backColor = Color.GRAY;	// a background color of the panel
+	private volatile GameScheduler scheduler;	//Game loop of the current game, the only thread that touches the engine
+	private final Object gameLock = new Object();	//Held while a game ends or another takes its place, so the render thread and the key handler never stop each other's loops
+	private Thread renderThread;	//Draws a frame every refresh of the display
 	private Dimension curDim = null;	// a current Dimensions of the panel
-	private Tetris tetris;	//The current game of Tetris
+	private TetrisEngine engine;	//The rules of the current game of Tetris
+	private TetrisRenderer renderer;	//Draws snapshots of the game
+	private final AtomicReference<BotPlayer> botPlayer = new AtomicReference<BotPlayer>();	//Plays the game when autoplay is on, null when it is off. Set by the key handler, cleared by the render thread too
+	private ReplayWriter replay;	//Records every game of this session, null if the file could not be written
+	private final Metrics metrics = new Metrics();	//Timings and counts for this session
+	private final RewindBuffer rewind = new RewindBuffer();	//The last states of the game, for undo. Only used by the game loop, or this thread once it has stopped
+	private volatile boolean showMetrics;	//Draw the metrics over the game, toggled by F3
+	private final AtomicLong pressNanos = new AtomicLong();	//System.nanoTime() of the oldest key press not on screen yet, 0 if none
+	private GameSnapshot shownGame;	//Snapshot the last frame was drawn from, only used by the render thread
+	private String[] metricsText;	//Metrics last drawn, only used by the render thread
+	private long metricsNanos;	//System.nanoTime() they were made
 	
 	public TetrisPanel()	//constructors
+	{
+		this(Tetris.WIDTH, Tetris.HEIGHT);
+	}
+	
+	public TetrisPanel(int width, int height)	//Plays on a board of a size, every game of the session
 	{
 		addKeyListener(this);
 		addMouseListener(this);
-		randomize(dropQueue);
-		tetris = new Tetris();
-		piecesDropped = 0;
-		createPiece();
-		idleCounter = 0;
-		heldType = -1;
-		alreadyHeld = false;
+		setIgnoreRepaint(true);	//Frames are drawn by the render thread, not by paint
+		engine = new TetrisEngine(Zobrist.mix(System.nanoTime()), width, height);
+		renderer = new TetrisRenderer();
 		lostGame = false;
 		
-		
-		t = new Timer();
-		t.scheduleAtFixedRate(new TimerTask(){
+		try
+		{
+			replay = new ReplayWriter(Paths.get("replay-" + System.currentTimeMillis() + ".trpl"));
+		}
+		catch (IOException e)
+		{
+			System.out.println("Not recording a replay: " + e.getMessage());
+		}
+		metrics.startDump(Paths.get("metrics-" + System.currentTimeMillis() + ".txt"), DUMP_PERIOD);
+		startScheduler(true);
+	}
+	
+	private void startScheduler(boolean fromStart)	//Starts the game loop for the current game, the render thread picks up its snapshots. Only a game from the start is recorded
+	{
+		scheduler = new GameScheduler(engine, fromStart ? replay : null, metrics, new Runnable(){
 			public void run(){
-				if (idleCounter % (idleCounts[tetris.getLevel()]/20) == 0)	//Drops pieces at rate according to level
+			}
+		});
+		scheduler.setRewind(rewind);
+		scheduler.start();
+	}
+	
+	public void addNotify()	//Once the canvas is on screen it can have a BufferStrategy, so start drawing
+	{
+		super.addNotify();
+		if (renderThread == null)
+		{
+			createBufferStrategy(2);
+			renderThread = new Thread(this, "Tetris render");
+			renderThread.setDaemon(true);
+			renderThread.start();
+		}
+	}
+	
+	public void run()	//Render loop, one frame per refresh of the display
+	{
+		long period = 1000000000L / refreshRate();
+		long next = System.nanoTime();
+		while (true)
+		{
+			BufferStrategy strategy = getBufferStrategy();
+			if (strategy != null)
+			{
+				do
 				{
-					currPiece.fall(tetris.board);
-					repaint();
+					do
+					{
+						long start = System.nanoTime();
+						Graphics g = strategy.getDrawGraphics();
+						drawFrame(g);
+						g.dispose();
+						metrics.frameTime.record((System.nanoTime() - start)/1000);
+					}
+					while (strategy.contentsRestored());
+					strategy.show();
 				}
-				idleCounter++;				
+				while (strategy.contentsLost());
+				Toolkit.getDefaultToolkit().sync();
+				recordLatency();
 			}
-		}, 0, 1);
-		System.out.println("Level 1");
+			next += period;
+			long wait = next - System.nanoTime();
+			if (wait > 0)
+				LockSupport.parkNanos(wait);
+			else if (wait < -period)	//Fell more than a frame behind, don't try to catch up
+				next = System.nanoTime();
+		}
 	}
 	
-	public void createPiece()	//Makes a new piece according to the current position of dropqueue, reshuffles the drop queue if you've reached the end
+	private void recordLatency()	//Once a frame from after the oldest waiting key press is on screen, records how long that took
 	{
-		currPiece = new TetrisPiece(dropQueue[piecesDropped%7], piecesDropped, 0);
-		piecesDropped++;
-		if (piecesDropped%7 == 0)
-			randomize(dropQueue);
+		long pressed = pressNanos.get();
+		GameScheduler current = scheduler;
+		if (pressed == 0 || shownGame == null || shownGame.getTime() < current.timeAt(pressed))	//Close to a millisecond, the game time of the press
+			return;
+		metrics.inputLatency.record((System.nanoTime() - pressed)/1000);
+		pressNanos.compareAndSet(pressed, 0);
+	}
+	
+	private int refreshRate()	//Refresh rate of the screen the canvas is on, 60 if it can't be found
+	{
+		GraphicsConfiguration gc = getGraphicsConfiguration();
+		if (gc != null)
+		{
+			int rate = gc.getDevice().getDisplayMode().getRefreshRate();
+			if (rate != DisplayMode.REFRESH_RATE_UNKNOWN)
+				return rate;
+		}
+		return 60;
+	}
+	
+	private void drawFrame(Graphics g)	//Brings the off-screen board up to date, copies it and draws the falling piece over it
+	{
+		if (!prepareBuffer())
+			return;
+		GameScheduler current = scheduler;
+		GameSnapshot game = current.getSnapshot();
+		shownGame = game;
+		renderer.renderStatic(osg, game, curDim.width, curDim.height);
+		g.drawImage(osi, 0, 0, null);
+		if (game.isLost())	//terminate if hidden rows are filled, display game over screen
+			gameOverScreen(g, current);
+		else
+			renderer.renderPiece(g, game, curDim.width, curDim.height, game.getFall(current.now()));
+		if (showMetrics)
+			drawMetrics(g);
+	}
+	
+	private void drawMetrics(Graphics g)	//Draws the metrics in a box over the top left of the frame, as they were at most METRICS_PERIOD ago
+	{
+		long nanos = System.nanoTime();
+		if (metricsText == null || nanos - metricsNanos >= METRICS_PERIOD)
+		{
+			metricsText = metrics.report();
+			metricsNanos = nanos;
+		}
+		String[] lines = metricsText;
+		int lineHeight = 16;
+		g.setFont(METRICS_FONT);
+		g.setColor(METRICS_BACK);
+		g.fillRect(0, 0, curDim.width, lines.length*lineHeight + 8);
+		g.setColor(Color.WHITE);
+		for (int i = 0; i < lines.length; i++)
+			g.drawString(lines[i], 6, (i + 1)*lineHeight);
+	}
+	
+	public GameSnapshot getSnapshot()	//Latest state of the current game
+	{
+		return scheduler.getSnapshot();
+	}
+	
+	public void act(int action)	//Presses and lets go of the key for an action, for players other than the keyboard
+	{
+		scheduler.press(action);
+		scheduler.release(action);
+	}
+	
+	static int actionFor(int keyCode)	//The engine action a key controls, NONE if it controls none, also used by VersusPanel
+	{
+		switch (keyCode)
+		{
+			case SHIFT_L:
+				return TetrisEngine.SHIFT_L;
+			case SHIFT_R:
+				return TetrisEngine.SHIFT_R;
+			case HARD_DROP:
+				return TetrisEngine.HARD_DROP;
+			case ROTATE_CW:
+				return TetrisEngine.ROTATE_CW;
+			case ROTATE_CCW:
+				return TetrisEngine.ROTATE_CCW;
+			case SOFT_DROP:
+				return TetrisEngine.SOFT_DROP;
+			case FIRM_DROP:
+				return TetrisEngine.FIRM_DROP;
+			case HOLD:
+				return TetrisEngine.HOLD;
+		}
+		return TetrisEngine.NONE;
 	}
 	 
 	//KeyListener methods
-	public void keyPressed(KeyEvent ke)	//react to key commands
+	public void keyPressed(KeyEvent ke)	//react to key commands, the game loop applies them
 	{
 		int keyCode = ke.getKeyCode();
 		if (!lostGame)
 		{
 			switch (keyCode)
 			{
-				case SHIFT_L:
-					currPiece.shiftL(tetris.board);
-					break;
-				case SHIFT_R:
-					currPiece.shiftR(tetris.board);
+				case AUTOPLAY:
+					toggleAutoplay();
 					break;
-				case HARD_DROP:
-					currPiece.hardDrop(tetris.board);
-					idleCounter = 0;
+				case METRICS:
+					showMetrics = !showMetrics;
 					break;
-				case ROTATE_CW:
-					currPiece.rotateCW(tetris.board);
+				case UNDO:
+					scheduler.undo();
 					break;
-				case ROTATE_CCW:
-					currPiece.rotateCCW(tetris.board);
+				case SAVE:
+					scheduler.checkpoint(CHECKPOINT);
 					break;
-				case SOFT_DROP:
-					currPiece.softDrop(tetris.board);
+				case LOAD:
+					loadGame();
 					break;
-				case FIRM_DROP:
-					currPiece.firmDrop(tetris.board);
-					break;
-				case HOLD:
-					if (!alreadyHeld)
+				case EXIT:
+					scheduler.stop();	//Finishes the game's replay
+					try
 					{
-						int tempHeld = heldType;
-						heldType = currPiece.getType()/10;
-						if (tempHeld == -1)
-							createPiece();
-						else
-							currPiece = new TetrisPiece(tempHeld, piecesDropped, 0);
-						alreadyHeld = true;
+						if (replay != null)
+							replay.close();
+					}
+					catch (IOException e)
+					{
+						System.out.println("Replay not saved: " + e.getMessage());
 					}
-					break;
-				case EXIT:
 					System.exit(0);
 					break;
+				default:
+					int action = actionFor(keyCode);
+					if (action != TetrisEngine.NONE)
+					{
+						pressNanos.compareAndSet(0, System.nanoTime());
+						scheduler.press(action);
+					}
 			}
-			repaint();
 		}
+		else if (keyCode == UNDO)
+			undoLostGame();
+		else if (keyCode == LOAD)
+			loadGame();
+	}
+	
+	private void loadGame()	//Carries on from the saved game, if there is one, in place of the current game
+	{
+		synchronized (gameLock)
+		{
+			TetrisEngine saved = new TetrisEngine(0, engine.getWidth(), engine.getHeight());	//Settings don't change while the loop runs, only the game does
+			saved.setLockDelay(engine.getLockDelay(), engine.getMaxLockResets());
+			try
+			{
+				Checkpoint.load(CHECKPOINT, saved);
+			}
+			catch (IOException e)
+			{
+				System.out.println("No game loaded: " + e.getMessage());	//The current game plays on untouched
+				return;
+			}
+			scheduler.stop();	//Finishes the game's replay, nothing else is using the engine after this
+			engine.copyFrom(saved);
+			rewind.clear();	//Undo doesn't go back past the saved game
+			pressNanos.set(0);
+			startScheduler(false);
+			lostGame = false;
+		}
+	}
+	
+	private void undoLostGame()	//Takes back the piece that lost the game and plays on from there
+	{
+		synchronized (gameLock)
+		{
+			if (!lostGame)
+				return;
+			scheduler.stop();	//Stopped already, this only waits for its thread
+			if (!rewind.undoPiece(engine))	//The old game loop has stopped, so nothing else is using the engine
+				return;
+			pressNanos.set(0);
+			startScheduler(false);
+			lostGame = false;
+		}
+	}
+	
+	private void toggleAutoplay()	//Starts or stops the bot playing the current game
+	{
+		BotPlayer old = botPlayer.getAndSet(null);
+		if (old != null && old.isRunning())
+		{
+			old.stop();
+			return;
+		}
+		BotPlayer bot = new BotPlayer(this, new TetrisBot(), 15);
+		bot.start();	//Before it is published, so a stop from the render thread can't come before the start
+		botPlayer.set(bot);
+	}
+	
+	public void keyReleased(KeyEvent ke)	//Lets go of a key, which stops its auto-repeat
+	{
+		int action = actionFor(ke.getKeyCode());
+		if (action != TetrisEngine.NONE && !lostGame)
+			scheduler.release(action);
 	}
-	public void keyReleased(KeyEvent ke){}
 	public void keyTyped(KeyEvent ke){}
 	
 	public void mouseClicked(MouseEvent me){	//Reacts to mouse (For resetting the game when you lose)
@@ -142,94 +370,60 @@ public class TetrisPanel extends Panel implements KeyListener, MouseListener
 	public void mousePressed(MouseEvent me){}
 	public void mouseReleased(MouseEvent me){}
 	
-	public void paint(Graphics g)	//System-triggered painting
+	private boolean prepareBuffer()	//Keeps the off-screen image, only making a new one when the panel changes size. Returns false if there is nothing to draw on
 	{
 		curDim = getSize();
-		
-		osi = new BufferedImage(curDim.width, curDim.height,
-								BufferedImage.TYPE_INT_RGB);
-		osg = osi.getGraphics();
-		
-		update(g);
-	}
-	
-	public void update(Graphics g)	//Draws the current configuration of the game and piece onto the screen
-	{
-		osg.setColor(backColor);
-		osg.fillRect(0, 0, curDim.width, curDim.height);
-		tetris.displayBoard(osg, curDim.width, curDim.height);	// Fill the board with current configuration
-		tetris.displayNextWindow(osg, dropQueue[(piecesDropped)%7], curDim.width, curDim.height);	//Display the next coming piece
-		tetris.displayHoldWindow(osg, heldType, curDim.width, curDim.height);
-		boolean newPiece = currPiece.display(osg, tetris.board, curDim.width, curDim.height);	//Display the moving, non-finalized piece on the board
-		tetris.drawLines(osg, curDim.width, curDim.height);	//Draw the grid of the board
-		g.drawImage(osi, 0, 0, this);
-		if (tetris.lostGame())	//terminate if hidden rows are filled, display game over screen
+		if (curDim.width <= 0 || curDim.height <= 0)
+			return false;
+		if (osi == null || osi.getWidth() != curDim.width || osi.getHeight() != curDim.height)
 		{
-			gameOverScreen(osg, g);
+			if (osg != null)
+				osg.dispose();
+			osi = new BufferedImage(curDim.width, curDim.height,
+									BufferedImage.TYPE_INT_RGB);
+			osg = osi.getGraphics();
+			renderer.invalidate();
 		}
-		else
-		{
-			tetris.clearRows();
-			if (newPiece)	//Drop a new piece if your current piece is locked into grid
-			{
-				createPiece();
-				alreadyHeld = false;
-			}
-		}	
+		return true;
 	}
 	
-	private void gameOverScreen(Graphics osg, Graphics g)	//Draws the game over piece
+	private void gameOverScreen(Graphics g, GameScheduler current)	//Draws the game over piece, and the first time stops the loop of the game that was lost
 	{
-		osg.setColor(Color.BLACK);
-		osg.fillRect(0, 0, curDim.width, curDim.height);
-		osg.setColor(Color.WHITE);
+		g.setColor(Color.BLACK);
+		g.fillRect(0, 0, curDim.width, curDim.height);
+		g.setColor(Color.WHITE);
 		int fontSize = 50;
-		osg.setFont(new Font("Arial", Font.BOLD, fontSize));
-	 	osg.drawString("Game Over", 50, curDim.height/2 - fontSize/2);
-	 	osg.setFont(new Font("Arial", Font.BOLD, 36));
-	 	osg.drawString("Click to restart, press ESC to close", 50, curDim.height/2 - fontSize/2 + 75);
-	 	g.drawImage(osi, 0, 0, this);
-		lostGame = true;
-		t.cancel();
+		g.setFont(new Font("Arial", Font.BOLD, fontSize));
+	 	g.drawString("Game Over", 50, curDim.height/2 - fontSize/2);
+	 	g.setFont(new Font("Arial", Font.BOLD, 36));
+	 	g.drawString("Click to restart, press ESC to close", 50, curDim.height/2 - fontSize/2 + 75);
+	 	g.drawString("BACKSPACE takes back the last piece, F9 loads the saved game", 50, curDim.height/2 - fontSize/2 + 125);
+		if (lostGame)	//Already stopped
+			return;
+		synchronized (gameLock)
+		{
+			if (lostGame || current != scheduler)	//A new game took its place since this frame read it
+				return;
+			renderer.invalidate();	//The next game starts from a clean image
+			current.stop();	//Waits for the loop to finish the game and its replay
+			BotPlayer bot = botPlayer.getAndSet(null);
+			if (bot != null)
+				bot.stop();
+			lostGame = true;	//Only now can a click or key start the next game
+		}
 	}
 	
 	private void resetGame()	//Resets the game after you lose (basically reconstruct)
 	{
-		tetris = new Tetris();
-		piecesDropped = 0;
-		randomize(dropQueue);
-		createPiece();
-		idleCounter = 0;
-		heldType = -1;
-		alreadyHeld = false;
-		lostGame = false;
-
-		t = new Timer();
-		t.scheduleAtFixedRate(new TimerTask(){
-			public void run(){
-				if (idleCounter % (idleCounts[tetris.getLevel()]/20) == 0)
-				{
-					currPiece.fall(tetris.board);
-					repaint();
-				}
-				idleCounter++;				
-			}
-		}, 0, 1);
-		System.out.println("Level 1");
-		
-		repaint();
-	}
-	
-	static void randomize(int[] ar)	//Fisher-Yates shuffle
-	{
-		Random rnd = new Random();
-		for (int i = ar.length - 1; i > 0; i--)
+		synchronized (gameLock)
 		{
-			int index = rnd.nextInt(i + 1);
-			// Simple swap
-			int a = ar[index];
-			ar[index] = ar[i];
-			ar[i] = a;
-	    }
-	  }
+			if (!lostGame)
+				return;
+			scheduler.stop();	//Stopped already, this only waits for its thread
+			engine.reset();	//The old game loop has stopped, so nothing else is using the engine
+			pressNanos.set(0);
+			startScheduler(true);
+			lostGame = false;	//Only once the new loop is published, so the render thread never sees the old lost game as a new one
+		}
+	}
 }
\ No newline at end of file
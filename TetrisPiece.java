@@ -1,172 +1,179 @@
 package Version7;
 
-import java.awt.*;
-import java.util.*;
-
 /*
  * This class is responsible for holding information about the different types of pieces in Tetris
  * and the information for an individual piece in motion. It checks collisions every time the piece
- * moves and sends the result back to TetrisPanel. It responds to the user's requests to move or
- * rotate the current falling piece via TetrisPanel. It is responsible for telling a piece when
- * to lock into the board of the current instance of Tetris.
+ * moves and sends the result back to TetrisEngine. It responds to the user's requests to move or
+ * rotate the current falling piece via TetrisEngine. It is responsible for telling a piece when
+ * to lock into the board of the current instance of Tetris. It does no drawing of its own.
  */
 
 public class TetrisPiece {
+	public static final int SPAWN_ROW = -1;	//Where every piece starts
+	public static final int SPAWN_COL = spawnCol(Tetris.WIDTH);	//On the default board
+	static final int CW_KICK = -1;	//Direction of the first wall kick tried when rotating each way
+	static final int CCW_KICK = 1;
+	static final int NO_FIT = Integer.MIN_VALUE;	//Returned by kickedCol when no kick works
+	
 	private int type;	//Tetramino shape
+	private int rotation;	//Current rotation of the shape, 0 to 3
+	private int piece;	//Index of the shape and rotation in PieceTable
 	private int row, col;	//the row and column of the top-left corner of the grid 
 	private int pieceID;	//Piece ID number
 	private boolean finalLock = false;	//Is the piece locked into the Tetris game
-	private Timer lockTimer;	//Timer for refreshing the lock
+	private long lockDeadline = -1;	//Game time the piece locks at if it is still grounded, -1 while it is falling
+	private int lockResets = 0;	//Number of times a move has pushed the lock deadline back
+	
+	public TetrisPiece (int t, int id, int o)	//Constructor, for the default board
+	{
+		this(t, id, o, Tetris.WIDTH);
+	}
 	
-	public static HashMap<Integer, int[][]> configurations = new HashMap<Integer, int[][]>();	//static hashmap used as reference for all classes in this program. Since each piece type has a unique colour, the integers for types are also referenced for colour.
-	static {	//Hard code the types of pieces and their rotations
-		configurations.put(new Integer(10), new int[][] {{0,0,0,0}, {1,1,1,1}, {0,0,0,0}, {0,0,0,0}});
-			configurations.put(new Integer(11), new int[][] {{0,0,1,0}, {0,0,1,0}, {0,0,1,0}, {0,0,1,0}});
-			configurations.put(new Integer(12), new int[][] {{0,0,0,0}, {0,0,0,0}, {1,1,1,1}, {0,0,0,0}});
-			configurations.put(new Integer(13), new int[][] {{0,1,0,0}, {0,1,0,0}, {0,1,0,0}, {0,1,0,0}});
-		
-		configurations.put(new Integer(20), new int[][] {{0,0,0,0}, {2,0,0,0}, {2,2,2,0}, {0,0,0,0}});
-			configurations.put(new Integer(21), new int[][] {{0,0,0,0}, {0,2,2,0}, {0,2,0,0}, {0,2,0,0}});
-			configurations.put(new Integer(22), new int[][] {{0,0,0,0}, {0,0,0,0}, {2,2,2,0}, {0,0,2,0}});
-			configurations.put(new Integer(23), new int[][] {{0,0,0,0}, {0,2,0,0}, {0,2,0,0}, {2,2,0,0}});
-		
-		configurations.put(new Integer(30), new int[][] {{0,0,0,0}, {0,0,3,0}, {3,3,3,0}, {0,0,0,0}});
-			configurations.put(new Integer(31), new int[][] {{0,0,0,0}, {0,3,0,0}, {0,3,0,0}, {0,3,3,0}});
-			configurations.put(new Integer(32), new int[][] {{0,0,0,0}, {0,0,0,0}, {3,3,3,0}, {3,0,0,0}});
-			configurations.put(new Integer(33), new int[][] {{0,0,0,0}, {3,3,0,0}, {0,3,0,0}, {0,3,0,0}});
-		
-		configurations.put(new Integer(40), new int[][] {{0,0,0,0}, {0,4,4,0}, {0,4,4,0}, {0,0,0,0}});
-			configurations.put(new Integer(41), new int[][] {{0,0,0,0}, {0,4,4,0}, {0,4,4,0}, {0,0,0,0}});
-			configurations.put(new Integer(42), new int[][] {{0,0,0,0}, {0,4,4,0}, {0,4,4,0}, {0,0,0,0}});
-			configurations.put(new Integer(43), new int[][] {{0,0,0,0}, {0,4,4,0}, {0,4,4,0}, {0,0,0,0}});
-			
-		configurations.put(new Integer(50), new int[][] {{0,0,0,0}, {0,5,5,0}, {5,5,0,0},{0,0,0,0}});
-			configurations.put(new Integer(51), new int[][] {{0,0,0,0}, {0,5,0,0}, {0,5,5,0}, {0,0,5,0}});
-			configurations.put(new Integer(52), new int[][] {{0,0,0,0}, {0,5,5,0}, {5,5,0,0},{0,0,0,0}});
-			configurations.put(new Integer(53), new int[][] {{0,0,0,0}, {0,5,0,0}, {0,5,5,0}, {0,0,5,0}});
-			
-		configurations.put(new Integer(60), new int[][] {{0,0,0,0}, {0,6,0,0}, {6,6,6,0}, {0,0,0,0}});
-			configurations.put(new Integer(61), new int[][] {{0,0,0,0}, {0,6,0,0}, {0,6,6,0}, {0,6,0,0}});
-			configurations.put(new Integer(62), new int[][] {{0,0,0,0}, {0,0,0,0}, {6,6,6,0}, {0,6,0,0}});
-			configurations.put(new Integer(63), new int[][] {{0,0,0,0}, {0,6,0,0}, {6,6,0,0}, {0,6,0,0}});
-		
-		configurations.put(new Integer(70), new int[][] {{0,0,0,0}, {7,7,0,0}, {0,7,7,0}, {0,0,0,0}});
-			configurations.put(new Integer(71), new int[][] {{0,0,0,0}, {0,0,7,0}, {0,7,7,0}, {0,7,0,0}});
-			configurations.put(new Integer(72), new int[][] {{0,0,0,0}, {7,7,0,0}, {0,7,7,0}, {0,0,0,0}});
-			configurations.put(new Integer(73), new int[][] {{0,0,0,0}, {0,0,7,0}, {0,7,7,0}, {0,7,0,0}});
+	public TetrisPiece (int t, int id, int o, int width)	//Constructor, spawning in the middle of a board of the given width
+	{
+		type = t;
+		rotation = o;
+		piece = PieceTable.index(t, o);
+		row = SPAWN_ROW;
+		col = spawnCol(width);
+		pieceID = id;
 	}
 	
-	public TetrisPiece (int t, int id, int o)	//Constructor
+	void spawn(int t, int id, int width)	//Makes this piece a new piece of a type at the spawn position, so the engine can reuse one piece for the whole game
 	{
-		type = t*10 + o;
-		row = -1;
-		col = 3;
+		type = t;
+		rotation = 0;
+		piece = PieceTable.index(t, 0);
+		row = SPAWN_ROW;
+		col = spawnCol(width);
 		pieceID = id;
-		lockTimer = new Timer();
+		finalLock = false;
+		lockDeadline = -1;
+		lockResets = 0;
+	}
+	
+	void copyFrom(TetrisPiece other)	//Makes this piece the same as another, for saving and restoring an engine
+	{
+		type = other.type;
+		rotation = other.rotation;
+		piece = other.piece;
+		row = other.row;
+		col = other.col;
+		pieceID = other.pieceID;
+		finalLock = other.finalLock;
+		lockDeadline = other.lockDeadline;
+		lockResets = other.lockResets;
 	}
 	
-	public void fall(int [][] board)	//Fall based on time
+	void saveTo(long[] state, int at)	//Writes the piece into three longs, for RewindBuffer
 	{
-		if (noCollisions(board, type, row + 1, col))
+		state[at] = (long) piece << 56 | (finalLock ? 1L : 0L) << 48 | (lockResets & 0xFFFFL) << 32 | (pieceID & 0xFFFFFFFFL);
+		state[at + 1] = (long) row << 32 | (col & 0xFFFFFFFFL);
+		state[at + 2] = lockDeadline;
+	}
+	
+	void restoreFrom(long[] state, int at)	//Makes this piece the one saveTo wrote
+	{
+		long a = state[at], b = state[at + 1];
+		piece = (int) (a >>> 56);
+		type = PieceTable.type(piece);
+		rotation = PieceTable.rotation(piece);
+		finalLock = ((a >>> 48) & 1) != 0;
+		lockResets = (int) ((a >>> 32) & 0xFFFF);
+		pieceID = (int) a;
+		row = (int) (b >> 32);
+		col = (int) b;
+		lockDeadline = state[at + 2];
+	}
+	
+	public static int spawnCol(int width)	//Column pieces spawn in, so that they start in the middle
+	{
+		return width/2 - 2;
+	}
+	
+	public void fall(Tetris tetris)	//Fall based on time
+	{
+		if (noCollisions(tetris, piece, row + 1, col))
 			row++;
 	}
 	
-	public void shiftL(int [][] board)	//Move one unit to the left
+	public boolean shiftL(Tetris tetris)	//Move one unit to the left, returns whether it moved
 	{
-		if (noCollisions(board, type, row, col - 1))
-		{
-			col--;
-			lockTimer.cancel();	//Upon successful movement, reset lock timer
-			lockTimer = new Timer();
-		}
+		if (!noCollisions(tetris, piece, row, col - 1))
+			return false;
+		col--;
+		return true;
 	}
-	public void shiftR(int [][] board)	//Move one unit to the right
+	public boolean shiftR(Tetris tetris)	//Move one unit to the right, returns whether it moved
 	{
-		if (noCollisions(board, type, row, col + 1))
-		{
-			col++;
-			lockTimer.cancel();	//Upon successful movement, reset lock timer
-			lockTimer = new Timer();
-		}
+		if (!noCollisions(tetris, piece, row, col + 1))
+			return false;
+		col++;
+		return true;
 	}
-	public void hardDrop(int [][] board)	//Hard drop to the point where it first reaches a collision
+	public void hardDrop(Tetris tetris)	//Hard drop to the point where it first reaches a collision
 	{
-		for (int a = row; a < 22; a++)
-		{
-			if (noCollisions(board, type, row + 1, col))
-				row++;
-		}
+		row += tetris.dropDistance(piece, row, col);
 		finalLock = true;	//Lock immediately
 	}
 	
-	public void firmDrop(int [][] board)	//Hard drop to the point where it first reaches a collision
+	public void firmDrop(Tetris tetris)	//Hard drop to the point where it first reaches a collision, without locking
 	{
-		for (int a = row; a < 22; a++)
-		{
-			if (noCollisions(board, type, row + 1, col))
-				row++;
-		}
+		row += tetris.dropDistance(piece, row, col);
 	}
 	
-	public void rotateCW(int [][] board)	// Rotate clockwise, allows for wall kick by checking one to the left and one to the right
+	public boolean rotateCW(Tetris tetris)	// Rotate clockwise, allows for wall kick by checking one to the left and one to the right
 	{
-		
-		boolean successFlag = true;
-		if (noCollisions(board, (type/10)*10 + (type%10 + 1)%4, row, col))
-		{	
-			type = (type/10)*10 + (type%10 + 1)%4;
-		}
-		else if (noCollisions(board, (type/10)*10 + (type%10 + 1)%4, row, col - 1))
-		{
-			type = (type/10)*10 + (type%10 + 1)%4;
-			col--;
-		}
-		else if (noCollisions(board, (type/10)*10 + (type%10 + 1)%4, row, col + 1))
-		{
-			type = (type/10)*10 + (type%10 + 1)%4;
-			col++;
-		}
-		else
-			successFlag = false;
-		if (successFlag)	//Upon successful rotation, reset the lock timer
-		{
-			lockTimer.cancel();
-			lockTimer = new Timer();
-		}
+		int next = (rotation + 1)%4;
+		return rotate(tetris, next, CW_KICK);
 	}
 	
-	public void rotateCCW(int [][] board)	//Rotate counterclockwise, allows for wall kick by checking one to the left and one to the right
+	public boolean rotateCCW(Tetris tetris)	//Rotate counterclockwise, allows for wall kick by checking one to the left and one to the right
 	{
-		boolean successFlag = true;
-		if (noCollisions(board, (type/10)*10 + (4+type%10-1)%4, row, col))
-		{
-			type = (type/10)*10 + (4+type%10-1)%4;
-		}
-		else if (noCollisions(board, (type/10)*10 + (4+type%10-1)%4, row, col+1))
-		{
-			type = (type/10)*10 + (4+type%10-1)%4;
-			col++;
-		}
-		else if (noCollisions(board, (type/10)*10 + (4+type%10-1)%4, row, col-1))
-		{
-			type = (type/10)*10 + (4+type%10-1)%4;
-			col--;
-		}
-		else
-			successFlag = false;
-		if (successFlag)	//Upon successful rotation, reset the lock timer
-		{
-			lockTimer.cancel();
-			lockTimer = new Timer();
-		}
+		int next = (4 + rotation - 1)%4;
+		return rotate(tetris, next, CCW_KICK);
 	}
 	
-	public void softDrop(int [][] board)	//Drop the piece by one row
+	private boolean rotate(Tetris tetris, int next, int firstKick)	//Tries the new rotation, returns whether it rotated
 	{
-		if (noCollisions(board, type, row + 1, col))
-			row++;
+		int nextPiece = PieceTable.index(type, next);
+		int kicked = kickedCol(tetris.rowBits, tetris.base, tetris.getWidth(), nextPiece, row, col, firstKick);
+		if (kicked == NO_FIT)
+			return false;
+		col = kicked;
+		rotation = next;
+		piece = nextPiece;
+		return true;
+	}
+	
+	static int kickedCol(long[] bits, int base, int width, int nextPiece, int row, int col, int firstKick)	//The wall kick rule: tries the rotated piece in place, then kicked by firstKick, then kicked the other way. Returns the column it fits at or NO_FIT
+	{
+		if (noCollisions(bits, base, width, nextPiece, row, col))
+			return col;
+		if (noCollisions(bits, base, width, nextPiece, row, col + firstKick))
+			return col + firstKick;
+		if (noCollisions(bits, base, width, nextPiece, row, col - firstKick))
+			return col - firstKick;
+		return NO_FIT;
 	}
 	
+	public void softDrop(Tetris tetris)	//Drop the piece by one row
+	{
+		if (noCollisions(tetris, piece, row + 1, col))
+			row++;
+	}
+
+	void place(int r, int c, int o)	//Puts the piece somewhere without checking collisions, for tools that set up positions
+	{
+		row = r;
+		col = c;
+		rotation = o;
+		piece = PieceTable.index(type, o);
+		finalLock = false;
+		lockDeadline = -1;
+		lockResets = 0;
+	}
+
 	public int getRow()	//Returns row
 	{
 		return row;
@@ -177,143 +184,86 @@ public class TetrisPiece {
 		return col;
 	}
 	
-	public int getType()
+	public int getType()	//Returns the shape, which is also its colour
 	{
 		return type;
 	}
 	
-	public boolean display (Graphics g, int[][] board, int w, int h)	//Displays the piece onto graphics g
-	{
-		int[][] conf = configurations.get(new Integer(type));	//Get the configuration of the piece
-		for (int r = 0; r < 4; r++)
-			for (int c = 0; c < 4; c++)
-			{
-				if (conf[r][c] == 0)	//Ignore grey squares
-					continue;
-				switch (conf[r][c])	//Get the color of the square
-				{
-					case 1:
-						g.setColor(Color.CYAN);
-						break;
-					case 2:
-						g.setColor(Color.BLUE);
-						break;
-					case 3:
-						g.setColor(new Color(16737792));
-						break;
-					case 4:
-						g.setColor(Color.YELLOW);
-						break;
-					case 5:
-						g.setColor(Color.GREEN);
-						break;
-					case 6:
-						g.setColor(Color.MAGENTA);
-						break;
-					case 7:
-						g.setColor(Color.RED);
-						break;
-				}
-				if (row+r >=2)	//Fill only if contained inside the grid
-					g.fillRect(w/2 - 5*(h/25) + (col+c)*(h/25), h/50+(row+r)*(h/25), (h/25), (h/25));
-			}
-		g.setColor(Color.WHITE);
-		for (int r = 0; r < 4; r++)
-			for (int c = 0; c < 4; c++)
-			{
-				if (conf[r][c] == 0 || row + r < 2)
-					continue;
-				else
-					g.drawRect(w/2 - 5*(h/25) + (col+c)*(h/25), h/50+(row+r)*(h/25), (h/25), (h/25));
-			}
-		if (noCollisions(board, type, row + 1, col))	//If there are no collisions on the bottom side, keep going
-		{	
-			displayGhost(g, board, w, h);
+	public int getRotation()	//Returns the rotation
+	{
+		return rotation;
+	}
+	
+	public int getPiece()	//Returns the index of the shape and rotation in PieceTable
+	{
+		return piece;
+	}
+	
+	public boolean isGrounded(Tetris tetris)	//Checks if the piece is resting on the stack or the floor
+	{
+		return !noCollisions(tetris, piece, row + 1, col);
+	}
+	
+	public int getGhostRow(Tetris tetris)	//Finds the row the piece would land on if it kept falling
+	{
+		return row + tetris.dropDistance(piece, row, col);
+	}
+	
+	public void updateLockDeadline(Tetris tetris, long time, int lockDelay)	//Starts the lock delay when the piece lands, cancels it when the piece is falling again
+	{
+		if (!isGrounded(tetris))
+			lockDeadline = -1;
+		else if (lockDeadline < 0)
+			lockDeadline = time + lockDelay;
+	}
+	
+	public void resetLockDelay(long time, int lockDelay, int maxResets)	//Upon successful movement, push the lock deadline back unless the piece has used up its resets
+	{
+		if (lockDeadline < 0 || lockResets >= maxResets)
+			return;
+		lockDeadline = time + lockDelay;
+		lockResets++;
+	}
+	
+	public long getLockDeadline()	//Returns the game time the piece will lock at, -1 if it is not grounded
+	{
+		return lockDeadline;
+	}
+	
+	public int getLockResets()
+	{
+		return lockResets;
+	}
+	
+	public boolean tryLock(Tetris tetris, long time)	//Locks the piece into the board once it is grounded and it was hard dropped or its lock delay has run out
+	{
+		if (!isGrounded(tetris))	//If there are no collisions on the bottom side, keep going
 			return false;
-		}
-		else	//If there are collisions, lock the piece into the grid and make a new piece
+		if (!finalLock && (lockDeadline < 0 || time < lockDeadline))
+			return false;
+		finalLock = true;	//If there are collisions, lock the piece into the grid
+		for (int i = 0; i < PieceTable.CELLS; i++)
 		{
-			if (finalLock)
-			{
-				for (int r = 0; r < 4; r++)
-					for (int c = 0; c < 4; c++)
-					{
-//						System.out.println(row-(3-r) + " " + (col+c) + " " + conf[r][c]);
-						if (row+r < Tetris.height && row+r >=0 && col+c < Tetris.width && col+c >= 0 && conf[r][c] != 0)
-							board[row+r][col+c] = conf[r][c];
-					}
-				return true;
-			}
-			else
-			{
-				lockTimer.schedule(new TimerTask()	//400 milliseconds to reset the lock timer
-				{
-					public void run()
-					{
-						finalLock = true;
-					}
-				}, 400);
-				return false;
-			}
+			int r = row + PieceTable.cellRow(piece, i);
+			int c = col + PieceTable.cellCol(piece, i);
+			if (r < tetris.getHeight() && r >=0 && c < tetris.getWidth() && c >= 0)
+				tetris.setCell(r, c, type);
 		}
+		return true;
 	}
 	
-	private void displayGhost(Graphics g, int[][] board, int w, int h)	//Displays where the piece would land if it kept falling
+	private static boolean noCollisions(Tetris tetris, int p, int r, int c)	//Check collisions against the board of a game
 	{
-		g.setColor(Color.LIGHT_GRAY);
-		for (int ghostRow = 0; ghostRow < Tetris.height; ghostRow++)
-		{
-			if (!noCollisions(board, type, ghostRow+1, col))
-			{
-				int[][] conf = configurations.get(new Integer(type));	//Get the configuration of the piece
-				for (int r = 0; r < 4; r++)
-					for (int c = 0; c < 4; c++)
-					{
-						if (conf[r][c] == 0)	//Ignore grey squares
-							continue;
-						if (ghostRow+r >=2)	//Fill only if contained inside the grid
-							g.fillRect(w/2 - 5*(h/25) +(col+c)*(h/25), 20+(ghostRow+r)*(h/25), (h/25), (h/25));
-					}
-				break;
-			}
-		}
+		return noCollisions(tetris.rowBits, tetris.base, tetris.getWidth(), p, r, c);
 	}
 	
-	private boolean noCollisions(int[][] board, int t, int r, int c)	//Check collisions
+	static boolean noCollisions(long[] bits, int base, int width, int p, int r, int c)	//Check collisions against a bitboard, a ring of rows starting at slot base (0 for a plain array)
 	{
-		int[][] conf = configurations.get(t);
-		
 		if (r < -1)
 		{
 			System.out.println("Row < 0");
 			return false;	
 		}
-			
-		else
-		{
-			for (int a = 0; a < 4; a++)
-			{
-				for (int b = 0; b < 4; b++)
-				{
-					if (conf[a][b] != 0)
-					{
-						if (r+a >= Tetris.height || r+a < 0)	//Checks if row is outside the board
-						{
-							return false;
-						}
-						
-						if (c+b < 0 || c+b >= Tetris.width)	//Checks if column is outside the board
-						{
-							return false;
-						}
-						if (board[r+a][c+b] != 0)	//Checks if piece collides with existing structures on board
-						{
-							return false;	
-						}
-					}
-				}
-			}
-		}
-		return true;
+		return PieceTable.fits(bits, base, width, p, r, c);
 	}
-}
+}
\ No newline at end of file
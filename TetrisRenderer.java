@@ -0,0 +1,326 @@
+package Version7;
+
+import java.awt.*;
+import java.util.*;
+
+/* This class draws a GameSnapshot of a TetrisEngine onto a Graphics. It draws the board with the
+ * current piece in motion and its ghost, the window displaying the next piece, smaller windows
+ * below the hold window for the pieces after that, and the window displaying the held piece. It
+ * remembers what it last drew into the off-screen image, so each render only redraws the squares
+ * and windows that changed and reports the area that needs copying to the screen. It never changes
+ * the game, it only reads from it.
+ *
+ * For active rendering the work is split in two: renderStatic keeps everything but the falling piece
+ * and its ghost up to date in the off-screen image the same way, and renderPiece draws the piece and
+ * ghost on top of a copy of that image every frame, the piece part of the way to its next row.
+ *
+ * The squares are sized to fit the board into the window, whatever its size. A board taller than
+ * MAX_VIEW_ROWS visible rows is shown through a view of that many rows that scrolls to keep the falling
+ * piece in its middle half. */
+
+public class TetrisRenderer {
+	
+	public static final int windowSize = 6;	//Size of next and hold window grids
+	public static final int previewLength = 5;	//Number of upcoming pieces shown, counting the next piece
+	public static final int MAX_VIEW_ROWS = 40;	//Most rows of the board shown at once
+	
+	private int[][] nextWindow;	//array for the window containing the next piece
+	private int[][][] queueWindows;	//arrays for the windows containing the pieces after the next one
+	private int[][] holdWindow;	//array for the window containing the currently held piece
+	private Color backColor = Color.GRAY;	// a background color of the panel
+	
+	private int[] frame;	//Colour of every visible square in the frame being drawn, row by row
+	private int[] shown;	//Colour of every visible square as it was last drawn, -1 if it has not been drawn
+	private boolean[] changed;	//Squares that differ between frame and shown
+	private boolean[] redraw;	//Squares that are drawn again, the changed ones and those their outlines reach into
+	private int shownNext, shownHeld;	//Types last drawn in the next and hold windows, -2 if not drawn
+	private int[] shownQueue;	//Types last drawn in the queue windows, -2 if not drawn
+	private int shownW, shownH;	//Size last drawn at
+	private boolean fullRedraw = true;	//Set when everything has to be drawn again
+	private Rectangle dirty = new Rectangle();	//Area changed by the last render
+	private CellSprites boardSprites = new CellSprites();	//Pre-drawn squares at the board's square size
+	private CellSprites windowSprites = new CellSprites();	//Pre-drawn squares at the windows' square size
+	private CellSprites queueSprites = new CellSprites();	//Pre-drawn squares at the queue windows' square size
+	private int cols = -1, viewRows = -1;	//Size of the part of the board shown, the frame arrays are this size
+	private int viewTop;	//First row of the board shown
+	private int size, left, top;	//Size of a square, and where the first shown square goes
+	private int windowX;	//Left edge of the next, hold and queue windows, the right edge of the board
+	
+	public TetrisRenderer()	//Creates a renderer
+	{
+		nextWindow = new int[windowSize][windowSize];
+		holdWindow = new int[windowSize][windowSize];
+		queueWindows = new int[previewLength - 1][windowSize][windowSize];
+		shownQueue = new int[previewLength - 1];
+	}
+	
+	private void layout(GameSnapshot game, int w, int h)	//Works out which rows are shown and where the squares go for a snapshot and window size
+	{
+		int rows = Math.min(game.getHeight() - Tetris.HIDDEN, MAX_VIEW_ROWS);
+		if (game.getWidth() != cols || rows != viewRows)	//A board of another size, the frame arrays are the wrong size
+		{
+			cols = game.getWidth();
+			viewRows = rows;
+			frame = new int[viewRows*cols];
+			shown = new int[frame.length];
+			changed = new boolean[frame.length];
+			redraw = new boolean[frame.length];
+			viewTop = Tetris.HIDDEN;
+			fullRedraw = true;
+		}
+		int lastTop = game.getHeight() - viewRows;	//Lowest the view goes
+		if (viewTop > lastTop)
+			viewTop = lastTop;
+		if (lastTop > Tetris.HIDDEN && !game.isLost())	//Scroll when the piece leaves the middle half of the view
+		{
+			int row = game.getRow();
+			if (row < viewTop + viewRows/4 || row > viewTop + viewRows*3/4)
+				viewTop = Math.max(Tetris.HIDDEN, Math.min(lastTop, row - viewRows/2));
+		}
+		size = Math.min(h/25, 20*(h/25)/viewRows);	//The default board is 20 rows of h/25
+		size = Math.max(1, Math.min(size, 2*(w/2 - 6*h/50 - 1)/cols));	//Leave room for the windows on the right
+		left = w/2 - cols*size/2;
+		top = h/50 + 2*(h/25);	//The first two rows are hidden
+		windowX = left + cols*size;
+	}
+	
+	public void invalidate()	//Forgets what has been drawn so the next render redraws everything
+	{
+		fullRedraw = true;
+	}
+	
+	public Rectangle render(Graphics g, GameSnapshot game, int w, int h)	//Draws only the squares and windows that changed since the last render, returns the area that needs to be copied to the screen
+	{
+		return render(g, game, w, h, true);
+	}
+	
+	public Rectangle renderStatic(Graphics g, GameSnapshot game, int w, int h)	//Like render, but leaves out the falling piece and its ghost
+	{
+		return render(g, game, w, h, false);
+	}
+	
+	private Rectangle render(Graphics g, GameSnapshot game, int w, int h, boolean withPiece)
+	{
+		dirty.setBounds(0, 0, 0, 0);
+		layout(game, w, h);
+		if (w != shownW || h != shownH)	//The cell size depends on the size, so everything moves
+			fullRedraw = true;
+		if (fullRedraw)
+		{
+			g.setColor(backColor);
+			g.fillRect(0, 0, w, h);
+			Arrays.fill(shown, -1);
+			shownNext = -2;
+			shownHeld = -2;
+			Arrays.fill(shownQueue, -2);
+			shownW = w;
+			shownH = h;
+		}
+		
+		composeFrame(game, withPiece);
+		boardSprites.prepare(size);	//Only does work when the size changed or the screen lost the images
+		windowSprites.prepare(h/50);
+		boolean any = false;
+		for (int i = 0; i < frame.length; i++)
+		{
+			changed[i] = frame[i] != shown[i];
+			any |= changed[i];
+		}
+		if (any)
+		{
+			for (int i = 0; i < frame.length; i++)	//Draw every square that changed, and the squares its outline reaches into
+			{
+				int r = i / cols;
+				int c = i % cols;
+				redraw[i] = changed[i] || (c > 0 && changed[i-1]) || (r > 0 && changed[i - cols])
+						|| (r > 0 && c > 0 && changed[i - cols - 1]);
+				if (!redraw[i])
+					continue;
+				int neighbours = 0;
+				if (c > 0 && CellSprites.isFilled(frame[i-1]))
+					neighbours |= CellSprites.LEFT;
+				if (r > 0 && CellSprites.isFilled(frame[i - cols]))
+					neighbours |= CellSprites.TOP;
+				if (r > 0 && c > 0 && CellSprites.isFilled(frame[i - cols - 1]))
+					neighbours |= CellSprites.TOP_LEFT;
+				boardSprites.drawCell(g, frame[i], neighbours, left + c*size, top + r*size);
+				addDirty(left + c*size, top + r*size, size, size);
+				shown[i] = frame[i];
+			}
+			drawLines(g, w, h);
+		}
+		
+		if (game.getPreview(0) != shownNext)
+		{
+			shownNext = game.getPreview(0);
+			displayNextWindow(g, shownNext, w, h);
+			addDirty(windowX, h/10, 6*h/50 + 1, 6*h/50 + 1);
+		}
+		if (game.getHeldType() != shownHeld)
+		{
+			shownHeld = game.getHeldType();
+			displayHoldWindow(g, shownHeld, w, h);
+			addDirty(windowX, h/10 + 5*(h/25), 6*h/50 + 1, 6*h/50 + 1);
+		}
+		for (int i = 0; i < shownQueue.length; i++)	//Pieces after the next one, in order down the queue
+		{
+			int type = game.getPreview(i + 1);
+			if (type != shownQueue[i])
+			{
+				shownQueue[i] = type;
+				displayQueueWindow(g, i, type, w, h);
+				addDirty(windowX, queueY(i, h), 6*h/100 + 1, 6*h/100 + 1);
+			}
+		}
+		
+		if (fullRedraw)
+			dirty.setBounds(0, 0, w, h);
+		fullRedraw = false;
+		return dirty;
+	}
+	
+	private void composeFrame(GameSnapshot game, boolean withPiece)	//Works out the colour of every visible square: the board, then the ghost, then the falling piece on top
+	{
+		game.copyRows(viewTop, frame, 0, viewRows);
+		if (game.isLost() || !withPiece)
+			return;
+		int piece = game.getPiece();
+		int col = game.getCol();
+		if (!game.isGrounded())	//Only show the ghost while the piece is still falling
+		{
+			markPiece(piece, game.getGhostRow(), col, CellSprites.GHOST);
+		}
+		markPiece(piece, game.getRow(), col, game.getType());
+	}
+	
+	public void renderPiece(Graphics g, GameSnapshot game, int w, int h, double fall)	//Draws the ghost and the falling piece over a frame drawn by renderStatic, the piece lowered by fall rows (0 to 1)
+	{
+		if (game.isLost())
+			return;
+		layout(game, w, h);
+		boardSprites.prepare(size);
+		Shape clip = g.getClip();
+		g.clipRect(left, top, cols*size + 1, viewRows*size + 1);	//Parts of the piece outside the view, e.g. in the hidden rows, are not shown
+		int piece = game.getPiece();
+		int col = game.getCol();
+		if (!game.isGrounded())	//Only show the ghost while the piece is still falling
+			for (int i = 0; i < PieceTable.CELLS; i++)
+			{
+				int r = game.getGhostRow() + PieceTable.cellRow(piece, i) - viewTop;
+				int c = col + PieceTable.cellCol(piece, i);
+				if (r < 0 || r >= viewRows)
+					continue;
+				int neighbours = 0;	//The ghost is not outlined, but the board's outlines reach into it
+				if (c > 0 && CellSprites.isFilled(frame[r*cols + c - 1]))
+					neighbours |= CellSprites.LEFT;
+				if (r > 0 && CellSprites.isFilled(frame[(r - 1)*cols + c]))
+					neighbours |= CellSprites.TOP;
+				if (r > 0 && c > 0 && CellSprites.isFilled(frame[(r - 1)*cols + c - 1]))
+					neighbours |= CellSprites.TOP_LEFT;
+				boardSprites.drawCell(g, CellSprites.GHOST, neighbours, left + c*size, top + r*size);
+			}
+		int y = top + (game.getRow() - viewTop)*size + (int) (fall*size);
+		g.setColor(Color.WHITE);
+		for (int i = 0; i < PieceTable.CELLS; i++)	//A filled square draws its whole outline, so it looks the same whatever is next to it
+		{
+			int x = left + (col + PieceTable.cellCol(piece, i))*size;
+			int cy = y + PieceTable.cellRow(piece, i)*size;
+			boardSprites.drawCell(g, game.getType(), 0, x, cy);
+			g.drawRect(x, cy, size, size);
+		}
+		drawLines(g, w, h);	//The border goes over the squares, as in render
+		g.setClip(clip);
+	}
+	
+	private void markPiece(int piece, int row, int col, int colour)	//Puts the squares of a piece into the frame, skipping those above the grid
+	{
+		for (int i = 0; i < PieceTable.CELLS; i++)
+		{
+			int r = row + PieceTable.cellRow(piece, i);
+			int c = col + PieceTable.cellCol(piece, i);
+			if (r >= viewTop && r < viewTop + viewRows && c >= 0 && c < cols)
+				frame[(r - viewTop)*cols + c] = colour;
+		}
+	}
+	
+	private void addDirty(int x, int y, int width, int height)	//Grows the area that has to be copied to the screen
+	{
+		if (dirty.isEmpty())
+			dirty.setBounds(x, y, width, height);
+		else
+		{
+			dirty.add(x, y);
+			dirty.add(x + width, y + height);
+		}
+	}
+	
+	private void drawLines(Graphics g, int w, int h)	//Draw the outside border of the board, filling squares at the edge draws over it
+	{
+		g.setColor(Color.WHITE);
+		int right = left + cols*size;
+		int bottom = h/10 + viewRows*size;
+		g.drawLine(left, h/10, left, bottom);
+		g.drawLine(right, h/10, right, bottom);
+		g.drawLine(left, h/10, right, h/10);
+		g.drawLine(left, bottom, right, bottom);
+	}
+	
+	public void displayNextWindow(Graphics g, int type, int w, int h)	//Draw the window showing the next piece
+	{
+		fillWindow(nextWindow, type);
+		drawWindow(g, nextWindow, windowX, h/10, h/50, 6*h/50);
+	}
+	
+	public void displayHoldWindow(Graphics g, int type, int w, int h)	//Draw the hold window
+	{
+		if (type != -1)
+			fillWindow(holdWindow, type);
+		drawWindow(g, holdWindow, windowX, h/10 + 5*(h/25), h/50, 6*h/50);
+	}
+	
+	public void displayQueueWindow(Graphics g, int i, int type, int w, int h)	//Draw the window showing the piece i+2 places ahead, at half the size of the next window
+	{
+		fillWindow(queueWindows[i], type);
+		queueSprites.prepare(h/100);
+		drawWindow(g, queueSprites, queueWindows[i], windowX, queueY(i, h), h/100, 6*h/100);
+	}
+	
+	private static int queueY(int i, int h)	//Top of queue window i, the windows stack down from below the hold window
+	{
+		return h/10 + 10*(h/25) + i*7*h/100;
+	}
+	
+	private void drawWindow(Graphics g, int[][] window, int x, int y, int size, int border)	//Draws the squares of a window at the windows' square size
+	{
+		windowSprites.prepare(size);
+		drawWindow(g, windowSprites, window, x, y, size, border);
+	}
+	
+	private void drawWindow(Graphics g, CellSprites sprites, int[][] window, int x, int y, int size, int border)	//Draws the squares of a window, one blit each, then its border
+	{
+		for (int r = 0; r < windowSize; r++)
+			for (int c = 0; c < windowSize; c++)
+			{
+				int neighbours = 0;
+				if (c > 0 && CellSprites.isFilled(window[r][c-1]))
+					neighbours |= CellSprites.LEFT;
+				if (r > 0 && CellSprites.isFilled(window[r-1][c]))
+					neighbours |= CellSprites.TOP;
+				if (r > 0 && c > 0 && CellSprites.isFilled(window[r-1][c-1]))
+					neighbours |= CellSprites.TOP_LEFT;
+				sprites.drawCell(g, window[r][c], neighbours, x + c*size, y + r*size);
+			}
+		g.setColor(Color.WHITE);
+		g.drawRect(x, y, border, border);
+	}
+	
+	private static void fillWindow(int[][] window, int type)	//Copies the unrotated shape of a type into the middle 4x4 of a window
+	{
+		for (int r = 1; r < 5; r++)
+			for (int c = 1; c < 5; c++)
+				window[r][c] = 0;
+		int piece = PieceTable.index(type, 0);
+		for (int i = 0; i < PieceTable.CELLS; i++)
+			window[PieceTable.cellRow(piece, i) + 1][PieceTable.cellCol(piece, i) + 1] = type;
+	}
+}
\ No newline at end of file
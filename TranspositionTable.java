@@ -0,0 +1,112 @@
+package Version7;
+
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+/* This class caches search results by Zobrist hash so a position reached again through a different
+ * order of moves is not searched twice. It is a fixed number of slots in one long array, each slot a
+ * pair of longs: the key XORed with the data, then the data. Threads read and write slots without
+ * locking; if two writes to a slot interleave, the key recovered from the pair no longer matches, so
+ * a torn slot reads as a miss instead of as a wrong result. When two positions want the same slot,
+ * the one that took more work to search (more pieces left) is kept, unless the slot was written by
+ * an earlier search, since those entries are less likely to be needed again.
+ *
+ * The data packs a score as a float, the number of pieces searched below the position, the search
+ * it was written in, and the best move, which is any 15-bit number the caller picks. */
+
+public class TranspositionTable {
+
+	private static final long VALID = 1L << 15;	//Set in every stored entry so an empty slot never matches
+	private static final int MOVE_MASK = 0x7FFF;
+
+	private final long[] slots;	//Key XOR data, then data, for each slot
+	private final int mask;	//Number of slots minus one
+	private volatile int age = 0;	//Number of the current search, kept in 8 bits
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+
+	public TranspositionTable(int bits)	//Creates a table with 2^bits slots, 16 bytes each
+	{
+		slots = new long[2 << bits];
+		mask = (1 << bits) - 1;
+	}
+
+	public void newSearch()	//Call at the start of each search, entries from older searches are replaced first
+	{
+		age = (age + 1) & 0xFF;
+	}
+
+	public long probe(long key)	//Returns the data stored for a key, 0 if there is none
+	{
+		int i = ((int) key & mask) << 1;
+		long data = slots[i + 1];
+		if (data != 0 && (slots[i] ^ data) == key)
+		{
+			hits.increment();
+			return data;
+		}
+		misses.increment();
+		return 0;
+	}
+
+	public void store(long key, float score, int depth, int move)	//Stores a result for a key, unless the slot holds a deeper result from this search
+	{
+		int i = ((int) key & mask) << 1;
+		long old = slots[i + 1];
+		long oldKey = slots[i] ^ old;
+		if (old != 0 && oldKey != key)
+		{
+			if (age(old) == age && depth(old) > depth)	//Keep the result that cost more
+				return;
+			evictions.increment();
+		}
+		long data = ((long) Float.floatToRawIntBits(score) << 32) | ((long) (depth & 0xFF) << 24)
+				| ((long) age << 16) | VALID | (move & MOVE_MASK);
+		slots[i] = key ^ data;
+		slots[i + 1] = data;
+	}
+
+	public static float score(long data)
+	{
+		return Float.intBitsToFloat((int) (data >>> 32));
+	}
+
+	public static int depth(long data)
+	{
+		return (int) (data >>> 24) & 0xFF;
+	}
+
+	public static int move(long data)
+	{
+		return (int) data & MOVE_MASK;
+	}
+
+	private static int age(long data)
+	{
+		return (int) (data >>> 16) & 0xFF;
+	}
+
+	public long getHits()
+	{
+		return hits.sum();
+	}
+
+	public long getMisses()
+	{
+		return misses.sum();
+	}
+
+	public long getEvictions()	//Number of stores that replaced a different position
+	{
+		return evictions.sum();
+	}
+
+	public void clear()	//Empties the table and zeroes the counters
+	{
+		Arrays.fill(slots, 0);
+		hits.reset();
+		misses.reset();
+		evictions.reset();
+	}
+}
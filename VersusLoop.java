@@ -0,0 +1,190 @@
+package Version7;
+
+import java.io.*;
+import java.util.concurrent.locks.*;
+
+/* This class runs one side of a networked versus match. Its thread plays a frame of the
+ * RollbackSession every sixtieth of a second: it takes in the packets the other side has sent, which
+ * may roll the match back, presses the buttons pressed since the last frame, plays the frame unless
+ * this side is running ahead of the other, sends this side's inputs, and publishes a GameSnapshot of
+ * each player for the screen and the bot. Key presses come in from other threads through a lock-free
+ * InputQueue, as in GameScheduler, and count in the next frame; a button pressed twice in one frame
+ * counts once, so a player, or the bot, gets one move per button per frame.
+ *
+ * Usage: java Version7.VersusLoop local [delay ms] [loss %]	plays against the bot, both sides in this process
+ *        java Version7.VersusLoop 1|2 localPort remotePort seed [delay ms] [loss %]	plays one side, the other
+ *        side runs in another process on the same machine with the ports swapped and the same seed
+ * Delay and loss are added to every packet sent, to try the netcode out over a bad network. */
+
+public class VersusLoop implements Runnable, BotPlayer.Game {
+
+	public static final int PORT = 7770;	//Ports of the two sides of a local match, PORT and PORT + 1
+	private static final long FRAME_NANOS = 1000000000L / VersusMatch.FRAME_RATE;
+
+	private final RollbackSession session;	//Only touched by the loop thread
+	private final RollbackLink link;
+	private final String network;	//Delay and loss of the link, for the status line
+	private final InputQueue input = new InputQueue(8);
+	private volatile boolean running;
+	private volatile GameSnapshot[] snapshots = new GameSnapshot[VersusMatch.PLAYERS];	//Latest state of each player, replaced whole every frame
+	private volatile String status = "";
+	private volatile long publishNanos;	//System.nanoTime() the snapshots were published at
+	private Thread thread;
+
+	public VersusLoop(RollbackSession session, RollbackLink link, String network)	//Creates the loop for one side, start() sets it going
+	{
+		this.session = session;
+		this.link = link;
+		this.network = network;
+		publish();
+	}
+
+	public void start(String name)	//Starts the loop thread
+	{
+		running = true;
+		thread = new Thread(this, name);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	public void stop()	//Stops the loop thread and closes the link
+	{
+		running = false;
+		Thread th = thread;
+		if (th != null)
+		{
+			LockSupport.unpark(th);
+			try
+			{
+				th.join();
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
+		}
+		try
+		{
+			link.close();
+		}
+		catch (IOException e)
+		{
+		}
+	}
+
+	public void press(int action)	//Presses a button from any thread, it counts in the next frame
+	{
+		input.offer(0, action);
+	}
+
+	public void act(int action)	//For the bot
+	{
+		press(action);
+	}
+
+	public GameSnapshot getSnapshot()	//Latest state of the local player
+	{
+		return snapshots[session.getLocalPlayer()];
+	}
+
+	public GameSnapshot getSnapshot(int player)	//Latest state of a player
+	{
+		return snapshots[player];
+	}
+
+	public int getLocalPlayer()
+	{
+		return session.getLocalPlayer();
+	}
+
+	public String getStatus()	//Rollback and network numbers, a line for the screen
+	{
+		return status;
+	}
+
+	public long now()	//Game time now, for drawing between frames, no later than the end of the frame shown
+	{
+		long since = Math.min(System.nanoTime() - publishNanos, FRAME_NANOS)/1000000;
+		return snapshots[0].getTime() + since;
+	}
+
+	public void run()
+	{
+		long next = System.nanoTime();
+		try
+		{
+			while (running)
+			{
+				link.flush();
+				link.receive(session);
+				while (input.poll())
+					session.press(input.getEvent());
+				if (!session.shouldWait())	//Skipping a frame now and then keeps the two sides in step
+					session.advance();
+				link.send(session);
+				publish();
+				next += FRAME_NANOS;
+				long wait = next - System.nanoTime();
+				if (wait > 0)
+					LockSupport.parkNanos(this, wait);
+				else if (wait < -FRAME_NANOS)	//Fell more than a frame behind, don't try to catch up
+					next = System.nanoTime();
+			}
+		}
+		catch (IOException e)
+		{
+			System.out.println("Versus link failed: " + e.getMessage());
+		}
+	}
+
+	private void publish()	//Copies both players for the other threads
+	{
+		VersusMatch match = session.getMatch();
+		GameSnapshot[] latest = new GameSnapshot[VersusMatch.PLAYERS];
+		for (int p = 0; p < VersusMatch.PLAYERS; p++)
+			latest[p] = GameSnapshot.capture(match.getEngine(p));
+		snapshots = latest;
+		publishNanos = System.nanoTime();
+		status = String.format("frame %d  ahead %d  rollbacks %d (deepest %d, p99 %d us)  stalls %d  sent %d lost %d  %s",
+				session.getFrame(), session.getFrame() - 1 - session.getConfirmed(), session.getRollbacks(),
+				session.getDeepest(), session.rollbackTime.getValueAtPercentile(99), session.getStalls(),
+				link.getSent(), link.getDropped(), network);
+	}
+
+	public static void main(String[] args) throws IOException
+	{
+		if (args.length > 0 && args[0].equals("local"))
+		{
+			int delay = args.length > 1 ? Integer.parseInt(args[1]) : 0;
+			double loss = args.length > 2 ? Double.parseDouble(args[2])/100 : 0;
+			long seed = Zobrist.mix(System.nanoTime());
+			VersusLoop player = open(seed, 0, PORT, PORT + 1, delay, loss);
+			VersusLoop opponent = open(seed, 1, PORT + 1, PORT, delay, loss);
+			opponent.start("Versus opponent");
+			new BotPlayer(opponent, new TetrisBot(), 60).start();
+			player.start("Versus");
+			VersusPanel.show(player, "Tetris versus - against the bot");
+		}
+		else if (args.length >= 4)
+		{
+			int player = Integer.parseInt(args[0]) - 1;
+			int delay = args.length > 4 ? Integer.parseInt(args[4]) : 0;
+			double loss = args.length > 5 ? Double.parseDouble(args[5])/100 : 0;
+			VersusLoop loop = open(Long.parseLong(args[3]), player, Integer.parseInt(args[1]), Integer.parseInt(args[2]), delay, loss);
+			loop.start("Versus");
+			VersusPanel.show(loop, "Tetris versus - player " + (player + 1));
+		}
+		else
+		{
+			System.out.println("Usage: java Version7.VersusLoop local [delay ms] [loss %]");
+			System.out.println("       java Version7.VersusLoop 1|2 localPort remotePort seed [delay ms] [loss %]");
+		}
+	}
+
+	private static VersusLoop open(long seed, int player, int localPort, int remotePort, int delay, double loss) throws IOException	//Makes the session, link and loop of one side
+	{
+		RollbackLink link = new RollbackLink(localPort, remotePort, delay, loss, seed + player);
+		String network = String.format("delay %d ms loss %.0f%%", delay, loss*100);
+		return new VersusLoop(new RollbackSession(seed, player), link, network);
+	}
+}
@@ -0,0 +1,107 @@
+package Version7;
+
+/* This class is the whole state of a versus match: the engines of both players, who get the same
+ * pieces from the same seed, and the number of frames played. The match moves in fixed frames of a
+ * sixtieth of a second. Each frame takes one input from each player, a set of buttons pressed during
+ * that frame with a bit per TetrisEngine action, applies them, moves game time on to the frame and
+ * then passes the garbage each player's clears sent to the other. Nothing else goes in, so two
+ * matches from the same seed given the same inputs are the same frame for frame, which is what lets
+ * both sides of a networked match simulate it and roll it back. copyFrom() saves or restores a match
+ * without allocating. */
+
+public final class VersusMatch {
+
+	public static final int PLAYERS = 2;
+	public static final int FRAME_RATE = 60;	//Frames a second
+	public static final int PLAYING = -1;	//Results of getWinner, otherwise the winning player
+	public static final int DRAW = PLAYERS;
+
+	private final TetrisEngine[] engines = new TetrisEngine[PLAYERS];
+	private int frame;	//Frames played
+
+	public VersusMatch(long seed)	//Starts a match where both players are dealt the pieces given by a seed
+	{
+		for (int p = 0; p < PLAYERS; p++)
+			engines[p] = new TetrisEngine(seed);
+	}
+
+	public static int input(int action)	//Bit of an action in a frame's input, 0 for actions a player can't press
+	{
+		if (action <= TetrisEngine.GRAVITY || action > TetrisEngine.HOLD)
+			return 0;
+		return 1 << (action - TetrisEngine.SHIFT_L);
+	}
+
+	public static long frameTime(int frame)	//Game time in milliseconds at the start of a frame
+	{
+		return (long) frame*1000/FRAME_RATE;
+	}
+
+	public void step(int input0, int input1)	//Plays one frame with the inputs of both players, once the match is over frames only count up
+	{
+		if (getWinner() != PLAYING)
+		{
+			frame++;
+			return;
+		}
+		long time = frameTime(frame);
+		play(engines[0], input0, time);
+		play(engines[1], input1, time);
+		int sent0 = engines[0].takeGarbage();
+		int sent1 = engines[1].takeGarbage();
+		engines[1].addGarbage(sent0);
+		engines[0].addGarbage(sent1);
+		frame++;
+	}
+
+	private static void play(TetrisEngine engine, int input, long time)	//Moves an engine to the start of a frame, then presses its buttons in action order
+	{
+		engine.advance(time);
+		for (int action = TetrisEngine.SHIFT_L; input != 0; action++, input >>>= 1)
+			if ((input & 1) != 0)
+				engine.step(action);
+	}
+
+	public void copyFrom(VersusMatch other)	//Makes this match the same as another, without allocating
+	{
+		for (int p = 0; p < PLAYERS; p++)
+			engines[p].copyFrom(other.engines[p]);
+		frame = other.frame;
+	}
+
+	public TetrisEngine getEngine(int player)	//Engine of a player, only to read from, changing it breaks the match
+	{
+		return engines[player];
+	}
+
+	public int getFrame()	//Frames played, the number of the next frame
+	{
+		return frame;
+	}
+
+	public int getWinner()	//The player still standing once the other has lost, DRAW if both lost in the same frame, PLAYING until then
+	{
+		boolean lost0 = engines[0].isLost(), lost1 = engines[1].isLost();
+		if (lost0 && lost1)
+			return DRAW;
+		if (lost0)
+			return 1;
+		if (lost1)
+			return 0;
+		return PLAYING;
+	}
+
+	public long getHash()	//Hash of both players' games, for checking two sides of a match agree
+	{
+		long hash = frame;
+		for (int p = 0; p < PLAYERS; p++)
+		{
+			TetrisEngine e = engines[p];
+			TetrisPiece piece = e.getPiece();
+			hash = Zobrist.mix(hash ^ e.getHash());
+			hash = Zobrist.mix(hash ^ ((long) piece.getPiece() << 32 | (piece.getRow() & 0xFFFF) << 16 | (piece.getCol() & 0xFFFF)));
+			hash = Zobrist.mix(hash ^ e.getPendingGarbage() ^ (long) e.getPiecesDropped() << 32);
+		}
+		return hash;
+	}
+}
@@ -0,0 +1,188 @@
+package Version7;
+
+import java.awt.*;
+import java.awt.event.*;
+import java.awt.image.*;
+import java.util.concurrent.locks.*;
+
+/* This class shows a versus match: the local player's board on the left, the other player's on the
+ * right, each drawn by its own TetrisRenderer into its half of the window, from the snapshots the
+ * VersusLoop publishes. It draws actively, like TetrisPanel, a frame per refresh of the display. Under
+ * each board is the garbage waiting to come up on it, and along the bottom the rollback and network
+ * numbers of the session. The keys are TetrisPanel's, and each press goes to the loop as one input;
+ * there is no auto-repeat of our own in versus, holding a key repeats as the system's key repeat does.
+ * Once one side has lost the result is shown over both boards until ESC closes the window. */
+
+public class VersusPanel extends Canvas implements KeyListener, Runnable {
+
+	private static final long serialVersionUID = 1L;
+	private static final int EXIT = KeyEvent.VK_ESCAPE;
+	private static final int STATUS_HEIGHT = 40;	//Height of the strip under the boards
+
+	private final VersusLoop loop;
+	private final TetrisRenderer[] renderers = new TetrisRenderer[VersusMatch.PLAYERS];	//Left board first
+	private BufferedImage osi = null;	//Off-screen image of both boards without their falling pieces
+	private Graphics osg = null;
+	private Dimension curDim = null;
+	private Thread renderThread;
+
+	public VersusPanel(VersusLoop loop)
+	{
+		this.loop = loop;
+		for (int i = 0; i < renderers.length; i++)
+			renderers[i] = new TetrisRenderer();
+		addKeyListener(this);
+		setIgnoreRepaint(true);
+	}
+
+	public static void show(VersusLoop loop, String title)	//Opens a window showing a match, closing it ends the program
+	{
+		VersusPanel panel = new VersusPanel(loop);
+		Frame frame = new Frame(title);
+		frame.setSize(1400, 1000);
+		frame.add(panel);
+		frame.addWindowListener(new WindowAdapter() {
+			public void windowClosing(WindowEvent we) {
+				System.exit(0);
+			}
+		});
+		frame.setVisible(true);
+		panel.requestFocus();
+	}
+
+	public void addNotify()	//Once the canvas is on screen it can have a BufferStrategy, so start drawing
+	{
+		super.addNotify();
+		if (renderThread == null)
+		{
+			createBufferStrategy(2);
+			renderThread = new Thread(this, "Versus render");
+			renderThread.setDaemon(true);
+			renderThread.start();
+		}
+	}
+
+	public void run()	//Render loop, one frame per refresh of the display
+	{
+		long period = 1000000000L / refreshRate();
+		long next = System.nanoTime();
+		while (true)
+		{
+			BufferStrategy strategy = getBufferStrategy();
+			if (strategy != null)
+			{
+				do
+				{
+					do
+					{
+						Graphics g = strategy.getDrawGraphics();
+						drawFrame(g);
+						g.dispose();
+					}
+					while (strategy.contentsRestored());
+					strategy.show();
+				}
+				while (strategy.contentsLost());
+				Toolkit.getDefaultToolkit().sync();
+			}
+			next += period;
+			long wait = next - System.nanoTime();
+			if (wait > 0)
+				LockSupport.parkNanos(wait);
+			else if (wait < -period)
+				next = System.nanoTime();
+		}
+	}
+
+	private int refreshRate()	//Refresh rate of the screen the canvas is on, 60 if it can't be found
+	{
+		GraphicsConfiguration gc = getGraphicsConfiguration();
+		if (gc != null)
+		{
+			int rate = gc.getDevice().getDisplayMode().getRefreshRate();
+			if (rate != DisplayMode.REFRESH_RATE_UNKNOWN)
+				return rate;
+		}
+		return 60;
+	}
+
+	private void drawFrame(Graphics g)	//Draws both boards side by side, then the status strip and the result
+	{
+		if (!prepareBuffer())
+			return;
+		int half = curDim.width/2;
+		int boardHeight = curDim.height - STATUS_HEIGHT;
+		long now = loop.now();
+		GameSnapshot[] games = new GameSnapshot[VersusMatch.PLAYERS];
+		for (int i = 0; i < games.length; i++)	//The local player on the left
+		{
+			games[i] = loop.getSnapshot(i == 0 ? loop.getLocalPlayer() : 1 - loop.getLocalPlayer());
+			Graphics part = osg.create(i*half, 0, half, boardHeight);
+			renderers[i].renderStatic(part, games[i], half, boardHeight);
+			part.dispose();
+		}
+		g.drawImage(osi, 0, 0, null);
+		g.setFont(new Font("Arial", Font.BOLD, 16));
+		for (int i = 0; i < games.length; i++)
+		{
+			Graphics part = g.create(i*half, 0, half, boardHeight);
+			if (!games[i].isLost())
+				renderers[i].renderPiece(part, games[i], half, boardHeight, games[i].getFall(now));
+			part.dispose();
+			g.setColor(games[i].getPendingGarbage() > 0 ? Color.RED : Color.WHITE);
+			g.drawString((i == 0 ? "You" : "Opponent") + "  incoming " + games[i].getPendingGarbage(), i*half + 10, boardHeight - 8);
+		}
+		g.setColor(Color.BLACK);
+		g.fillRect(0, boardHeight, curDim.width, STATUS_HEIGHT);
+		g.setColor(Color.WHITE);
+		g.setFont(new Font("Monospaced", Font.PLAIN, 12));
+		g.drawString(loop.getStatus(), 8, boardHeight + 24);
+		if (games[0].isLost() || games[1].isLost())
+			resultScreen(g, games[0].isLost(), games[1].isLost(), boardHeight);
+	}
+
+	private void resultScreen(Graphics g, boolean lost, boolean opponentLost, int h)	//Draws who won over both boards
+	{
+		g.setColor(new Color(0, 0, 0, 192));
+		g.fillRect(0, 0, curDim.width, h);
+		g.setColor(Color.WHITE);
+		int fontSize = 50;
+		g.setFont(new Font("Arial", Font.BOLD, fontSize));
+		g.drawString(lost && opponentLost ? "Draw" : lost ? "You Lose" : "You Win", 50, h/2 - fontSize/2);
+		g.setFont(new Font("Arial", Font.BOLD, 36));
+		g.drawString("Press ESC to close", 50, h/2 - fontSize/2 + 75);
+	}
+
+	private boolean prepareBuffer()	//Keeps the off-screen image, only making a new one when the panel changes size. Returns false if there is nothing to draw on
+	{
+		curDim = getSize();
+		if (curDim.width <= 0 || curDim.height <= STATUS_HEIGHT)
+			return false;
+		if (osi == null || osi.getWidth() != curDim.width || osi.getHeight() != curDim.height)
+		{
+			if (osg != null)
+				osg.dispose();
+			osi = new BufferedImage(curDim.width, curDim.height, BufferedImage.TYPE_INT_RGB);
+			osg = osi.getGraphics();
+			for (TetrisRenderer renderer : renderers)
+				renderer.invalidate();
+		}
+		return true;
+	}
+
+	//KeyListener methods
+	public void keyPressed(KeyEvent ke)	//Each press, including the system's repeats, is one input to the loop
+	{
+		if (ke.getKeyCode() == EXIT)
+		{
+			loop.stop();
+			System.exit(0);
+		}
+		int action = TetrisPanel.actionFor(ke.getKeyCode());
+		if (action != TetrisEngine.NONE)
+			loop.press(action);
+	}
+
+	public void keyReleased(KeyEvent ke){}
+	public void keyTyped(KeyEvent ke){}
+}
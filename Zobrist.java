@@ -0,0 +1,78 @@
+package Version7;
+
+/* This class makes the Zobrist keys used to hash positions. A board hashes to the XOR of a key for
+ * each row that has something in it, made by mixing the row's bitboard with its row number, so the
+ * hash of a board can be kept up to date by taking out the old key of a row and putting in the new
+ * one whenever a row changes. Keys for the current piece, the held piece, the position in the bag
+ * and the preview pieces are XORed on top. Keys are worked out with the SplitMix64 finalizer instead
+ * of being looked up in tables, so boards of any height get keys and nothing has to be set up. */
+
+public final class Zobrist {
+
+	private static final long GOLDEN = 0x9E3779B97F4A7C15L;	//Step between keys of the same kind
+	private static final long ROW = 0x5851F42D4C957F2DL;	//Seeds of each kind of key
+	private static final long PIECE = 0x14057B7EF767814FL;
+	private static final long HOLD = 0x2545F4914F6CDD1DL;
+	private static final long BAG = 0x6A09E667F3BCC909L;
+	private static final long PREVIEW = 0x3C6EF372FE94F82BL;
+	private static final long DEPTH = 0x510E527FADE682D1L;
+
+	private Zobrist()
+	{
+	}
+
+	public static long mix(long z)	//SplitMix64 finalizer, every input gives a different output
+	{
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+	public static long row(int r, long bits)	//Key of row r holding bits, empty rows have key 0
+	{
+		if (bits == 0)
+			return 0;
+		return mix(bits ^ mix(ROW + r*GOLDEN));
+	}
+
+	public static long board(long[] bits, int height)	//Hash of a whole board, from scratch
+	{
+		long hash = 0;
+		for (int r = 0; r < height; r++)
+			hash ^= row(r, bits[r]);
+		return hash;
+	}
+
+	public static long update(long hash, long[] before, long[] after, int from, int to)	//Hash of after given the hash of before, when only rows from to to can differ
+	{
+		for (int r = from; r <= to; r++)
+			if (before[r] != after[r])
+				hash ^= row(r, before[r]) ^ row(r, after[r]);
+		return hash;
+	}
+
+	public static long piece(int type)	//Key of the type of the falling piece
+	{
+		return mix(PIECE + type*GOLDEN);
+	}
+
+	public static long hold(int type)	//Key of the held type, -1 when nothing is held
+	{
+		return mix(HOLD + (type + 1)*GOLDEN);
+	}
+
+	public static long bag(int position)	//Key of how far into its bag the game is
+	{
+		return mix(BAG + position*GOLDEN);
+	}
+
+	public static long preview(int slot, int type)	//Key of the type coming slot pieces after the one being placed
+	{
+		return mix(PREVIEW + (slot*8 + type)*GOLDEN);
+	}
+
+	public static long depth(int pieces)	//Key of how many pieces a search has left to place
+	{
+		return mix(DEPTH + pieces*GOLDEN);
+	}
+}
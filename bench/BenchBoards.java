@@ -0,0 +1,59 @@
+package Version7;
+
+import java.util.*;
+
+/* This class builds the boards the benchmarks run on. Every board is made from a fixed seed so
+ * that numbers from different runs are measured on exactly the same positions. Boards of any size
+ * keep the same stack heights measured from the floor, except the board near topping out, whose
+ * stack reaches the top of however tall a board it is built on. */
+
+public class BenchBoards {
+
+	public static final String EMPTY = "empty";	//Names of the boards, used as JMH parameters
+	public static final String HALF_FULL = "halfFull";
+	public static final String NEAR_TOP_OUT = "nearTopOut";
+	public static final String MULTI_CLEAR = "multiClear";
+
+	public static Tetris build(String name)	//Makes a new instance of Tetris filled as the named board
+	{
+		return build(name, Tetris.WIDTH, Tetris.HEIGHT);
+	}
+
+	public static Tetris build(String name, int width, int height)	//Makes a new instance of Tetris of a size filled as the named board
+	{
+		Tetris tetris = new Tetris(width, height);
+		fill(tetris, name);
+		return tetris;
+	}
+
+	public static void fill(Tetris tetris, String name)	//Overwrites every square of tetris with the named board
+	{
+		Random rnd = new Random(42);
+		int width = tetris.getWidth(), height = tetris.getHeight();
+		int top = height;	//Highest filled row
+		int fullRows = 0;	//Number of complete rows at the bottom
+		if (name.equals(HALF_FULL))
+			top = height - 10;
+		else if (name.equals(NEAR_TOP_OUT))
+			top = 3;
+		else if (name.equals(MULTI_CLEAR))
+		{
+			top = height - 10;
+			fullRows = 4;
+		}
+		else if (!name.equals(EMPTY))
+			throw new IllegalArgumentException("Unknown board " + name);
+
+		for (int r = 0; r < height; r++)
+		{
+			int hole = rnd.nextInt(width);	//Every row that is not meant to clear keeps one hole
+			for (int c = 0; c < width; c++)
+			{
+				int colour = 0;
+				if (r >= top && (c != hole || r >= height - fullRows))
+					colour = 1 + rnd.nextInt(PieceTable.TYPES);
+				tetris.setCell(r, c, colour);
+			}
+		}
+	}
+}
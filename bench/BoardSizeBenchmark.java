@@ -0,0 +1,66 @@
+package Version7;
+
+import java.util.concurrent.*;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.*;
+
+/* Benchmarks for boards of different sizes with the same stack on them: ten rows from the floor
+ * with four full rows at the bottom. The cost of a collision check, a drop and a clear should
+ * depend on the stack and not on how tall the board is, so the numbers should stay flat as the
+ * height goes up. */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BoardSizeBenchmark {
+
+	@Param({"10", "64"})
+	public int width;
+
+	@Param({"22", "200", "2000", "8000"})
+	public int height;
+
+	private static final int J = 2;	//Type tested, wide enough in its spawn rotation to hit the stack from most columns
+
+	private Tetris tetris;
+	private Tetris original;	//Untouched copy the board is restored from before every clear
+	private TetrisPiece piece;
+
+	@Setup(Level.Trial)
+	public void setUp()
+	{
+		original = BenchBoards.build(BenchBoards.MULTI_CLEAR, width, height);
+		tetris = BenchBoards.build(BenchBoards.MULTI_CLEAR, width, height);
+		piece = new TetrisPiece(J, 0, 0, width);
+	}
+
+	@Benchmark
+	public void fits(Blackhole bh)	//Every column of the rows just above the stack, where the bot and the player test most
+	{
+		int row = tetris.getStackTop() - 2;
+		for (int c = -2; c < width; c++)
+		{
+			bh.consume(tetris.fits(PieceTable.index(J, 0), row, c));
+			bh.consume(tetris.fits(PieceTable.index(J, 0), row + 1, c));
+		}
+	}
+
+	@Benchmark
+	public int hardDrop()	//From just above the stack, as a piece is after falling through the empty rows
+	{
+		piece.place(tetris.getStackTop() - 4, width/2 - 2, 0);
+		piece.hardDrop(tetris);
+		return piece.getRow();
+	}
+
+	@Benchmark
+	public int clearRows()
+	{
+		tetris.copyFrom(original);
+		return tetris.clearRows(height - 4, height - 1);
+	}
+}
@@ -0,0 +1,43 @@
+package Version7;
+
+import java.util.concurrent.*;
+
+import org.openjdk.jmh.annotations.*;
+
+/* Benchmarks for clearing rows after a piece locks into the bottom four rows. Boards without full
+ * rows measure the check that runs after every lock, the multi-line board measures clearing four
+ * rows and dropping the stack above them. */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ClearBenchmark {
+
+	@Param({BenchBoards.EMPTY, BenchBoards.HALF_FULL, BenchBoards.NEAR_TOP_OUT, BenchBoards.MULTI_CLEAR})
+	public String board;
+
+	private Tetris tetris;
+	private Tetris original;	//Untouched copy the board is restored from before every call
+
+	@Setup(Level.Trial)
+	public void setUp()
+	{
+		original = BenchBoards.build(board);
+		tetris = BenchBoards.build(board);
+	}
+
+	@Setup(Level.Invocation)
+	public void restore()	//Clearing changes the board, so put the rows back before each call
+	{
+		tetris.copyFrom(original);
+	}
+
+	@Benchmark
+	public int clearRows()
+	{
+		return tetris.clearRows(tetris.getHeight() - 4, tetris.getHeight() - 1);
+	}
+}
@@ -0,0 +1,79 @@
+package Version7;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.openjdk.jmh.annotations.*;
+
+/* Benchmarks for stepping many games at once, one action each, with a GamePool and with one
+ * TetrisEngine per game. The actions are random moves with a hard drop every few steps, drawn once
+ * from a fixed seed, and games that end are started again, so both sides play the same kind of
+ * games. One call steps every game once. With -prof gc the pool should allocate nothing. */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GamePoolBenchmark {
+
+	private static final int ROUNDS = 64;	//Rounds of actions drawn, used in turn
+	private static final byte[] MOVES = {TetrisEngine.SHIFT_L, TetrisEngine.SHIFT_R, TetrisEngine.ROTATE_CW,
+			TetrisEngine.ROTATE_CCW, TetrisEngine.GRAVITY, TetrisEngine.HARD_DROP, TetrisEngine.HARD_DROP};
+
+	@Param({"1024", "65536"})
+	public int games;
+
+	private GamePool pool;
+	private TetrisEngine[] engines;
+	private byte[][] actions;	//Action of every game in each round
+	private byte[] events;
+	private int round;
+	private long seed;	//Seed of the next game started again
+
+	@Setup(Level.Trial)
+	public void setUp()
+	{
+		pool = new GamePool(games);
+		pool.reset(0, games, 42);
+		engines = new TetrisEngine[games];
+		for (int g = 0; g < games; g++)
+		{
+			engines[g] = new TetrisEngine(pool.getSeed(g));
+			engines[g].setLockDelay(0, 0);	//Lock as soon as a piece lands, the closest the engine comes to the pool's rules
+		}
+		Random rnd = new Random(42);
+		actions = new byte[ROUNDS][games];
+		for (byte[] round : actions)
+			for (int g = 0; g < games; g++)
+				round[g] = MOVES[rnd.nextInt(MOVES.length)];
+		events = new byte[games];
+	}
+
+	@Benchmark
+	public int pool()
+	{
+		int playing = pool.step(0, games, actions[round++ & (ROUNDS - 1)], events);
+		if (playing < games)
+			for (int g = 0; g < games; g++)
+				if ((events[g] & TetrisEngine.GAME_OVER) != 0)
+					pool.reset(g, seed++);
+		return playing;
+	}
+
+	@Benchmark
+	public int engines()
+	{
+		byte[] step = actions[round++ & (ROUNDS - 1)];
+		int playing = 0;
+		for (int g = 0; g < games; g++)
+		{
+			if ((engines[g].step(step[g]) & TetrisEngine.GAME_OVER) != 0)
+				engines[g].reset(seed++);
+			else
+				playing++;
+		}
+		return playing;
+	}
+}
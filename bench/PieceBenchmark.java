@@ -0,0 +1,80 @@
+package Version7;
+
+import java.util.concurrent.*;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.*;
+
+/* Benchmarks for the moves of a single piece: the collision check every move is built on,
+ * dropping to the stack, and rotating with wall kicks against the left wall. */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PieceBenchmark {
+
+	@Param({BenchBoards.EMPTY, BenchBoards.HALF_FULL, BenchBoards.NEAR_TOP_OUT})
+	public String board;
+
+	@Param({"1", "2", "5"})	//I, J and S pieces
+	public int type;
+
+	private Tetris tetris;
+	private TetrisPiece piece;
+
+	@Setup(Level.Trial)
+	public void setUp()
+	{
+		tetris = BenchBoards.build(board);
+		piece = new TetrisPiece(type, 0, 0);
+	}
+
+	@Benchmark
+	public void noCollisions(Blackhole bh)	//Every rotation at every column of the spawn rows
+	{
+		for (int o = 0; o < PieceTable.ROTATIONS; o++)
+		{
+			int p = PieceTable.index(type, o);
+			for (int c = -2; c < tetris.getWidth(); c++)
+			{
+				bh.consume(tetris.fits(p, 0, c));
+				bh.consume(tetris.fits(p, 1, c));
+			}
+		}
+	}
+
+	@Benchmark
+	public int hardDrop()
+	{
+		piece.place(-1, 3, 0);
+		piece.hardDrop(tetris);
+		return piece.getRow();
+	}
+
+	@Benchmark
+	public int firmDrop()
+	{
+		piece.place(-1, 3, 0);
+		piece.firmDrop(tetris);
+		return piece.getRow();
+	}
+
+	@Benchmark
+	public int rotateCW()	//Rotating against the left wall, which needs a kick for most pieces
+	{
+		piece.place(0, 0, 1);
+		piece.rotateCW(tetris);
+		return piece.getCol();
+	}
+
+	@Benchmark
+	public int rotateCCW()
+	{
+		piece.place(0, 0, 1);
+		piece.rotateCCW(tetris);
+		return piece.getCol();
+	}
+}
@@ -0,0 +1,86 @@
+package Version7;
+
+import java.awt.*;
+import java.awt.image.*;
+import java.util.concurrent.*;
+
+import org.openjdk.jmh.annotations.*;
+
+/* Benchmarks for drawing frames into an offscreen BufferedImage, at the size of the default window
+ * and of a 4K display. Run with -Djava.awt.headless=true on machines without a display. */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class RenderBenchmark {
+
+	@Param({BenchBoards.EMPTY, BenchBoards.HALF_FULL, BenchBoards.NEAR_TOP_OUT})
+	public String board;
+
+	@Param({"1000", "2160"})	//Window height, the default window and a 4K display
+	public int h;
+
+	private TetrisEngine engine;
+	private GameSnapshot snapshot;	//State drawn by fullFrame and unchanged
+	private TetrisRenderer renderer;
+	private BufferedImage osi;
+	private BufferedImage back;	//Stands in for the BufferStrategy's back buffer in activeFrame
+	private Graphics backg;
+	private Graphics osg;
+	private int w;
+	private boolean left;	//Direction of the next shift in pieceMoved
+
+	@Setup(Level.Trial)
+	public void setUp()
+	{
+		engine = new TetrisEngine();
+		BenchBoards.fill(engine.getTetris(), board);
+		snapshot = GameSnapshot.capture(engine);
+		renderer = new TetrisRenderer();
+		w = h*4/5;
+		osi = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+		osg = osi.getGraphics();
+		back = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+		backg = back.getGraphics();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown()
+	{
+		osg.dispose();
+		backg.dispose();
+	}
+
+	@Benchmark
+	public Rectangle fullFrame()	//Everything drawn again, as after a resize
+	{
+		renderer.invalidate();
+		return renderer.render(osg, snapshot, w, h);
+	}
+
+	@Benchmark
+	public Rectangle pieceMoved()	//The piece moves one column, so only its old and new squares and its ghost change, the game loop publishes a new snapshot
+	{
+		engine.step(left ? TetrisEngine.SHIFT_L : TetrisEngine.SHIFT_R);
+		left = !left;
+		return renderer.render(osg, GameSnapshot.capture(engine), w, h);
+	}
+
+	@Benchmark
+	public Graphics activeFrame()	//One frame of active rendering: bring the board image up to date, copy it, draw the piece half way to its next row
+	{
+		renderer.renderStatic(osg, snapshot, w, h);
+		backg.drawImage(osi, 0, 0, null);
+		renderer.renderPiece(backg, snapshot, w, h, 0.5);
+		return backg;
+	}
+
+	@Benchmark
+	public Rectangle unchanged()	//A repaint where nothing moved
+	{
+		return renderer.render(osg, snapshot, w, h);
+	}
+}
@@ -0,0 +1,65 @@
+package Version7;
+
+import java.util.concurrent.*;
+
+import org.openjdk.jmh.annotations.*;
+
+/* Benchmarks for the RewindBuffer: recording a tick in which the piece only moved, recording one in
+ * which it locked (the board changed, so the chunks it touched are copied), and putting the game back
+ * to a state. Finding the state is the same for any age, so restoring the latest one measures what a
+ * restore costs: copying the rows from the top of the stack down. The board starts as one of the
+ * BenchBoards. Recording a move should allocate nothing (-prof gc). */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RewindBenchmark {
+
+	@Param({BenchBoards.EMPTY, BenchBoards.HALF_FULL, BenchBoards.NEAR_TOP_OUT})
+	public String board;
+
+	private TetrisEngine engine;
+	private TetrisEngine saved;	//The engine as set up, to start again from when a game is lost
+	private RewindBuffer rewind;
+	private int shift = TetrisEngine.SHIFT_L;
+
+	@Setup(Level.Iteration)
+	public void setUp()
+	{
+		saved = new TetrisEngine(42);
+		BenchBoards.fill(saved.getTetris(), board);
+		engine = new TetrisEngine();
+		engine.copyFrom(saved);
+		rewind = new RewindBuffer();
+		rewind.record(engine);
+	}
+
+	@Benchmark
+	public int recordMove()
+	{
+		engine.step(shift);
+		shift = shift == TetrisEngine.SHIFT_L ? TetrisEngine.SHIFT_R : TetrisEngine.SHIFT_L;
+		rewind.record(engine);
+		return rewind.size();
+	}
+
+	@Benchmark
+	public int recordLock()
+	{
+		engine.step(TetrisEngine.HARD_DROP);
+		if (engine.isLost())
+			engine.copyFrom(saved);
+		rewind.record(engine);
+		return rewind.size();
+	}
+
+	@Benchmark
+	public long restore()
+	{
+		rewind.restore(0, engine);
+		return engine.getTime();
+	}
+}
@@ -0,0 +1,57 @@
+package Version7;
+
+import java.util.concurrent.*;
+
+import org.openjdk.jmh.annotations.*;
+
+/* Benchmarks for what a rollback costs: saving a versus match, and restoring it and playing eight
+ * frames again, in which both players move, rotate and hard drop a piece. Both boards start as one
+ * of the BenchBoards. Rollback has to fit inside one frame, 16 ms, and should allocate nothing
+ * (-prof gc). */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RollbackBenchmark {
+
+	private static final int FRAMES = 8;	//Frames played again by one rollback
+
+	@Param({BenchBoards.EMPTY, BenchBoards.HALF_FULL, BenchBoards.MULTI_CLEAR})
+	public String board;
+
+	private VersusMatch saved;
+	private VersusMatch match;
+	private final int[] inputs = new int[FRAMES];	//Inputs of the frames played again, the same for both players
+
+	@Setup(Level.Trial)
+	public void setUp()
+	{
+		saved = new VersusMatch(42);
+		match = new VersusMatch(42);
+		for (int p = 0; p < VersusMatch.PLAYERS; p++)
+			BenchBoards.fill(saved.getEngine(p).getTetris(), board);
+		inputs[0] = VersusMatch.input(TetrisEngine.SHIFT_L);
+		inputs[2] = VersusMatch.input(TetrisEngine.ROTATE_CW);
+		inputs[3] = VersusMatch.input(TetrisEngine.SHIFT_R);
+		inputs[5] = VersusMatch.input(TetrisEngine.HARD_DROP);
+	}
+
+	@Benchmark
+	public VersusMatch save()
+	{
+		match.copyFrom(saved);
+		return match;
+	}
+
+	@Benchmark
+	public long rollback()	//Restore, then play the frames again
+	{
+		match.copyFrom(saved);
+		for (int f = 0; f < FRAMES; f++)
+			match.step(inputs[f], inputs[f]);
+		return match.getFrame();
+	}
+}